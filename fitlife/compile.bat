@@ -1,4 +1,4 @@
 @echo off
-javac -cp "lib\*" -d bin src\FitLifeGUI.java src\Main.java src\fitlife\config\GeminiConfig.java src\fitlife\ai\MetricsExtractor.java src\fitlife\ai\GeminiAnalyzer.java src\fitlife\core\CalorieTracker.java src\fitlife\core\StepsTracker.java src\fitlife\core\WaterTracker.java src\fitlife\core\Tracker.java src\fitlife\logic\BMITracker.java src\fitlife\logic\Calculable.java src\fitlife\data\Savable.java
+javac -cp "lib\*" -d bin src\FitLifeGUI.java src\Main.java src\fitlife\config\GeminiConfig.java src\fitlife\ai\MetricsExtractor.java src\fitlife\ai\GeminiAnalyzer.java src\fitlife\core\CalorieTracker.java src\fitlife\core\StepsTracker.java src\fitlife\core\WaterTracker.java src\fitlife\core\Tracker.java src\fitlife\logic\BMITracker.java src\fitlife\logic\Calculable.java src\fitlife\data\Savable.java src\fitlife\data\DataStore.java src\fitlife\data\LegacyCsvImporter.java src\fitlife\data\RecordStore.java src\fitlife\data\RecordVisitor.java src\fitlife\data\StringDictionary.java src\fitlife\data\DayIndex.java src\fitlife\data\CsvLineParser.java src\fitlife\data\DailyRollup.java src\fitlife\data\GroupCommitJournal.java src\fitlife\data\JournalPolicy.java src\fitlife\data\BulkImporter.java src\fitlife\data\FoodCatalog.java src\fitlife\data\FoodSearchIndex.java src\fitlife\data\UserContext.java src\fitlife\data\UserPartition.java src\fitlife\data\UserRegistry.java src\fitlife\data\TimeSeries.java src\fitlife\data\TopKSketch.java src\fitlife\data\QuantileSketch.java src\fitlife\data\RecordColumns.java src\fitlife\data\DayAggregateTree.java src\fitlife\core\EntryLogged.java src\fitlife\core\TrackerEvents.java src\fitlife\data\QueryResult.java src\fitlife\data\TrackerQuery.java src\fitlife\data\MealBreakdown.java src\fitlife\ai\AnalysisCache.java src\fitlife\ai\AnalysisCoalescer.java src\fitlife\ai\ApiStatusException.java src\fitlife\ai\CallGuard.java src\fitlife\ai\CircuitBreaker.java src\fitlife\ai\TokenBucket.java
 echo Compilation complete
 pause
\ No newline at end of file
@@ -2,27 +2,45 @@ import fitlife.core.CalorieTracker;
 import fitlife.core.StepsTracker;
 import fitlife.core.WaterTracker;
 import fitlife.core.Tracker;
+import fitlife.core.TrackerEvents;
 import fitlife.logic.BMITracker;
 import fitlife.config.GeminiConfig;
 import fitlife.ai.MetricsExtractor;
 import fitlife.ai.GeminiAnalyzer;
+import fitlife.data.DataStore;
+import fitlife.data.DayAggregateTree;
+import fitlife.data.MealBreakdown;
+import fitlife.data.TimeSeries.Metric;
+import fitlife.data.UserContext;
+import fitlife.data.UserRegistry;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
+import java.awt.event.MouseEvent;
 import java.awt.event.WindowEvent;
-import java.io.File;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.IOException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.format.TextStyle;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 public class FitLifeGUI extends JFrame {
+    // whose data the window shows: -Dfitlife.user=<id>, or the single-user layout by default
+    private final UserContext user = UserContext.of(System.getProperty("fitlife.user", UserRegistry.LOCAL_USER));
     private JPanel dashboardPanel;
     private JScrollPane dashboardScroll;
+    // set while a dashboard refresh is queued, so a burst of entries repaints once
+    private final AtomicBoolean refreshQueued = new AtomicBoolean();
 
     public FitLifeGUI() {
         setTitle("FitLife - AI-Powered Health Tracker");
@@ -57,6 +75,21 @@ public class FitLifeGUI extends JFrame {
         mainPanel.add(contentPanel, BorderLayout.CENTER);
 
         add(mainPanel);
+
+        // keep the dashboard live: any entry this user logs (from here or elsewhere) refreshes it,
+        // and missed events re-read everything, which refreshDashboard does anyway
+        TrackerEvents.subscribe(e -> {
+            if (e.getUser().equals(user)) queueRefresh();
+        }, this::queueRefresh);
+    }
+
+    private void queueRefresh() {
+        if (refreshQueued.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(() -> {
+                refreshQueued.set(false);
+                refreshDashboard();
+            });
+        }
     }
 
     private JPanel createHeaderPanel() {
@@ -100,6 +133,10 @@ public class FitLifeGUI extends JFrame {
         dashboard.add(createDashboardCard("🍽️ Meals Today", getTodaysMeals()));
         dashboard.add(Box.createVerticalStrut(10));
 
+        // Calories by category this week
+        dashboard.add(createDashboardCard("🥗 Calories by Category (7 days)", getCategoryBreakdown()));
+        dashboard.add(Box.createVerticalStrut(10));
+
         // Steps Today
         dashboard.add(createDashboardCard("👟 Steps Today", getTodaysSteps()));
         dashboard.add(Box.createVerticalStrut(10));
@@ -148,7 +185,7 @@ public class FitLifeGUI extends JFrame {
 
     private JPanel createButtonPanel() {
         JPanel buttonPanel = new JPanel();
-        buttonPanel.setLayout(new GridLayout(7, 1, 0, 10));
+        buttonPanel.setLayout(new GridLayout(8, 1, 0, 10));
         buttonPanel.setBackground(new Color(245, 245, 250));
         buttonPanel.setPreferredSize(new Dimension(200, 0));
 
@@ -159,15 +196,17 @@ public class FitLifeGUI extends JFrame {
         JButton stepsBtn = createStyledButton("👟 Log Steps", btnColor, hoverColor);
         JButton waterBtn = createStyledButton("💧 Log Water", btnColor, hoverColor);
         JButton bmiBtn = createStyledButton("⚖️ BMI Calculator", btnColor, hoverColor);
-        JButton weeklyBtn = createStyledButton("📊 Weekly Summary", btnColor, hoverColor);
+        JButton weeklyBtn = createStyledButton("📊 Summary", btnColor, hoverColor);
+        JButton heatmapBtn = createStyledButton("🗓️ Heatmap", btnColor, hoverColor);
         JButton aiBtn = createStyledButton("🤖 AI Analysis", btnColor, hoverColor);
         JButton exitBtn = createStyledButton("❌ Exit", new Color(231, 76, 60), new Color(192, 57, 43));
 
-        mealBtn.addActionListener(e -> { logMeal(); refreshDashboard(); });
-        stepsBtn.addActionListener(e -> { logSteps(); refreshDashboard(); });
-        waterBtn.addActionListener(e -> { logWater(); refreshDashboard(); });
+        mealBtn.addActionListener(e -> logMeal());
+        stepsBtn.addActionListener(e -> logSteps());
+        waterBtn.addActionListener(e -> logWater());
         bmiBtn.addActionListener(e -> runBMI());
         weeklyBtn.addActionListener(e -> showWeeklySummary());
+        heatmapBtn.addActionListener(e -> showHeatmap());
         aiBtn.addActionListener(e -> analyzeWithAI());
         exitBtn.addActionListener(e -> System.exit(0));
 
@@ -176,6 +215,7 @@ public class FitLifeGUI extends JFrame {
         buttonPanel.add(waterBtn);
         buttonPanel.add(bmiBtn);
         buttonPanel.add(weeklyBtn);
+        buttonPanel.add(heatmapBtn);
         buttonPanel.add(aiBtn);
         buttonPanel.add(exitBtn);
 
@@ -216,11 +256,7 @@ public class FitLifeGUI extends JFrame {
 
     private String getTodaysMeals() {
         try {
-            String today = LocalDate.now().toString();
-            List<String> meals = Files.readAllLines(Paths.get("meals.txt"));
-            List<String> todaysMeals = meals.stream()
-                    .filter(line -> line.contains(today))
-                    .collect(Collectors.toList());
+            List<String> todaysMeals = readRecordsForDay(DataStore.MEALS, LocalDate.now());
 
             if (todaysMeals.isEmpty()) {
                 return "No meals logged yet.\n\nTip: Log a meal to start tracking!";
@@ -231,13 +267,29 @@ public class FitLifeGUI extends JFrame {
         }
     }
 
+    private String getCategoryBreakdown() {
+        try {
+            int today = (int) LocalDate.now().toEpochDay();
+            MealBreakdown week = user.withPartition(p -> MealBreakdown.of(p.store(), today - 6, today));
+            if (week.meals() == 0) {
+                return "No meals logged this week.";
+            }
+            MealBreakdown.Totals categories = week.categories();
+            int[] ids = categories.ids();
+            List<String> lines = new ArrayList<>();
+            for (int i = 0; i < ids.length && i < 4; i++) {
+                String name = categories.name(ids[i]).isBlank() ? "Uncategorized" : categories.name(ids[i]);
+                lines.add(String.format("%s: %s kcal (%.0f%%)", name, formatAmount(categories.calories(ids[i])), categories.share(ids[i]) * 100));
+            }
+            return String.join("\n", lines);
+        } catch (Exception e) {
+            return "No data available";
+        }
+    }
+
     private String getTodaysSteps() {
         try {
-            String today = LocalDate.now().toString();
-            List<String> steps = Files.readAllLines(Paths.get("steps.txt"));
-            List<String> todaysSteps = steps.stream()
-                    .filter(line -> line.contains(today))
-                    .collect(Collectors.toList());
+            List<String> todaysSteps = readRecordsForDay(DataStore.STEPS, LocalDate.now());
 
             if (todaysSteps.isEmpty()) {
                 return "No steps logged yet.\n\nDaily goal: 10,000 steps";
@@ -250,11 +302,7 @@ public class FitLifeGUI extends JFrame {
 
     private String getTodaysWater() {
         try {
-            String today = LocalDate.now().toString();
-            List<String> water = Files.readAllLines(Paths.get("water.txt"));
-            List<String> todaysWater = water.stream()
-                    .filter(line -> line.contains(today))
-                    .collect(Collectors.toList());
+            List<String> todaysWater = readRecordsForDay(DataStore.WATER, LocalDate.now());
 
             if (todaysWater.isEmpty()) {
                 return "No water logged yet.\n\nDaily goal: 2-3 liters";
@@ -268,15 +316,13 @@ public class FitLifeGUI extends JFrame {
     private String getRecentActivity() {
         StringBuilder activity = new StringBuilder();
         try {
-            // Last 3 meals
-            List<String> meals = Files.readAllLines(Paths.get("meals.txt"));
+            // Last 2 meals
             activity.append("Recent meals:\n");
-            meals.stream().skip(Math.max(0, meals.size() - 2)).forEach(m -> activity.append("  • ").append(m).append("\n"));
+            readLastRecords(DataStore.MEALS, 2).forEach(m -> activity.append("  • ").append(m).append("\n"));
 
-            // Last 3 steps entries
-            List<String> steps = Files.readAllLines(Paths.get("steps.txt"));
+            // Last 2 steps entries
             activity.append("\nRecent steps:\n");
-            steps.stream().skip(Math.max(0, steps.size() - 2)).forEach(s -> activity.append("  • ").append(s).append("\n"));
+            readLastRecords(DataStore.STEPS, 2).forEach(s -> activity.append("  • ").append(s).append("\n"));
 
             return activity.toString();
         } catch (Exception e) {
@@ -284,6 +330,62 @@ public class FitLifeGUI extends JFrame {
         }
     }
 
+    // Records of one family logged for the given day, formatted as CSV lines
+    private List<String> readRecordsForDay(String family, LocalDate date) throws IOException {
+        int day = (int) date.toEpochDay();
+        return user.withPartition(p -> {
+            DataStore ds = p.store();
+            List<String> lines = new ArrayList<>();
+            ds.store(family).scan(day, day, (d, nameId, categoryId, value, quantity) ->
+                    lines.add(ds.formatRecord(family, d, nameId, categoryId, value, quantity)));
+            return lines;
+        });
+    }
+
+    // Most recently appended records of one family, oldest first
+    private List<String> readLastRecords(String family, int n) throws IOException {
+        return user.withPartition(p -> {
+            DataStore ds = p.store();
+            List<String> lines = new ArrayList<>();
+            ds.store(family).scanLast(n, (d, nameId, categoryId, value, quantity) ->
+                    lines.add(ds.formatRecord(family, d, nameId, categoryId, value, quantity)));
+            return lines;
+        });
+    }
+
+    // Known foods matching the meal field as the user types; picking one fills the field
+    private JList<String> createFoodSuggestions(JTextField mealField) {
+        DefaultListModel<String> model = new DefaultListModel<>();
+        JList<String> list = new JList<>(model);
+        list.setVisibleRowCount(3);
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.addListSelectionListener(e -> {
+            String picked = list.getSelectedValue();
+            if (!e.getValueIsAdjusting() && picked != null && !picked.equals(mealField.getText())) {
+                SwingUtilities.invokeLater(() -> mealField.setText(picked));
+            }
+        });
+        mealField.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) { refresh(); }
+            public void removeUpdate(DocumentEvent e) { refresh(); }
+            public void changedUpdate(DocumentEvent e) { refresh(); }
+
+            private void refresh() {
+                String text = mealField.getText().trim();
+                model.clear();
+                if (text.isEmpty()) return;
+                try {
+                    for (String s : user.withPartition(p -> p.foods().suggest(text, 8))) {
+                        if (!s.equals(text)) model.addElement(s);
+                    }
+                } catch (IOException ex) {
+                    // no suggestions while the catalog is unavailable
+                }
+            }
+        });
+        return list;
+    }
+
     private void logMeal() {
         JTextField dateField = new JTextField();
         JTextField mealField = new JTextField();
@@ -296,6 +398,8 @@ public class FitLifeGUI extends JFrame {
         p.add(dateField);
         p.add(new JLabel("Meal name:"));
         p.add(mealField);
+        p.add(new JLabel("Suggestions:"));
+        p.add(new JScrollPane(createFoodSuggestions(mealField)));
         p.add(new JLabel("Category:"));
         p.add(categoryField);
         p.add(new JLabel("Quantity (grams):"));
@@ -325,15 +429,15 @@ public class FitLifeGUI extends JFrame {
             if (!date.isEmpty()) {
                 LocalDate d = LocalDate.parse(date);
                 if (!cal.isEmpty()) {
-                    ct = new CalorieTracker(d, name, grams, Integer.parseInt(cal), category);
+                    ct = new CalorieTracker(user, d, name, grams, Integer.parseInt(cal), category);
                 } else {
-                    ct = new CalorieTracker(d, name, grams, category);
+                    ct = new CalorieTracker(user, d, name, grams, 0, category);
                 }
             } else {
                 if (!cal.isEmpty()) {
-                    ct = new CalorieTracker(name, grams, Integer.parseInt(cal), category);
+                    ct = new CalorieTracker(user, LocalDate.now(), name, grams, Integer.parseInt(cal), category);
                 } else {
-                    ct = new CalorieTracker(name, grams, category);
+                    ct = new CalorieTracker(user, LocalDate.now(), name, grams, 0, category);
                 }
             }
 
@@ -365,7 +469,7 @@ public class FitLifeGUI extends JFrame {
 
             if (date.isEmpty()) date = LocalDate.now().toString();
 
-            StepsTracker.logDaily(date, steps);
+            StepsTracker.logDaily(user, date, steps);
             showInfo("✅ Steps logged successfully.");
 
         } catch (Exception ex) {
@@ -393,7 +497,7 @@ public class FitLifeGUI extends JFrame {
 
             if (date.isEmpty()) date = LocalDate.now().toString();
 
-            WaterTracker.logDaily(date, liters);
+            WaterTracker.logDaily(user, date, liters);
             showInfo("✅ Water logged successfully.");
 
         } catch (Exception ex) {
@@ -435,12 +539,37 @@ public class FitLifeGUI extends JFrame {
     }
 
     private void showWeeklySummary() {
-        String start = JOptionPane.showInputDialog(this,
-                "Start date (yyyy-MM-dd):", LocalDate.now().toString());
+        JTextField startField = new JTextField(LocalDate.now().toString());
+        JComboBox<String> periodBox = new JComboBox<>(new String[] {"Week", "Month", "Year"});
+
+        JPanel p = new JPanel(new GridLayout(0, 2, 5, 5));
+        p.add(new JLabel("Start date (yyyy-MM-dd):"));
+        p.add(startField);
+        p.add(new JLabel("Period:"));
+        p.add(periodBox);
+
+        int res = JOptionPane.showConfirmDialog(this, p, "Summary",
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (res != JOptionPane.OK_OPTION) return;
 
-        if (start == null || start.trim().isEmpty()) return;
+        String start = startField.getText().trim();
+        if (start.isEmpty()) return;
 
-        String result = Tracker.generateWeeklySummary(start.trim());
+        String period = (String) periodBox.getSelectedItem();
+        String result;
+        if ("Week".equals(period)) {
+            result = Tracker.generateWeeklySummary(user, start);
+        } else {
+            LocalDate from;
+            try {
+                from = LocalDate.parse(start);
+            } catch (Exception ex) {
+                showError("Invalid start date format. Use yyyy-MM-dd.");
+                return;
+            }
+            LocalDate to = "Month".equals(period) ? from.plusMonths(1).minusDays(1) : from.plusYears(1).minusDays(1);
+            result = Tracker.generatePeriodSummary(user, from, to);
+        }
         JTextArea area = new JTextArea(result);
         area.setEditable(false);
         area.setCaretPosition(0);
@@ -450,7 +579,173 @@ public class FitLifeGUI extends JFrame {
         scroll.setPreferredSize(new Dimension(550, 400));
 
         JOptionPane.showMessageDialog(this, scroll,
-                "Weekly Summary", JOptionPane.INFORMATION_MESSAGE);
+                period + " Summary", JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    // Calendar heatmap of one metric's daily totals over a month or a year
+    private void showHeatmap() {
+        JComboBox<String> metricBox = new JComboBox<>(new String[] {"Steps", "Calories", "Water"});
+        JComboBox<String> periodBox = new JComboBox<>(new String[] {"Month", "Year"});
+        JTextField dateField = new JTextField(LocalDate.now().toString());
+
+        JPanel p = new JPanel(new GridLayout(0, 2, 5, 5));
+        p.add(new JLabel("Metric:"));
+        p.add(metricBox);
+        p.add(new JLabel("Period:"));
+        p.add(periodBox);
+        p.add(new JLabel("Any date in it (yyyy-MM-dd):"));
+        p.add(dateField);
+
+        int res = JOptionPane.showConfirmDialog(this, p, "Heatmap",
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (res != JOptionPane.OK_OPTION) return;
+
+        LocalDate date;
+        try {
+            date = LocalDate.parse(dateField.getText().trim());
+        } catch (Exception ex) {
+            showError("Invalid date format. Use yyyy-MM-dd.");
+            return;
+        }
+        boolean year = "Year".equals(periodBox.getSelectedItem());
+        LocalDate from = year ? date.withDayOfYear(1) : date.withDayOfMonth(1);
+        LocalDate to = year ? from.plusYears(1).minusDays(1) : from.plusMonths(1).minusDays(1);
+        String name = (String) metricBox.getSelectedItem();
+        Metric metric = "Steps".equals(name) ? Metric.STEPS : "Calories".equals(name) ? Metric.CALORIES : Metric.LITERS;
+        String unit = metric == Metric.STEPS ? "steps" : metric == Metric.CALORIES ? "kcal" : "L";
+        Color color = metric == Metric.STEPS ? new Color(41, 128, 185) : metric == Metric.CALORIES ? new Color(230, 126, 34) : new Color(22, 160, 133);
+
+        int fromDay = (int) from.toEpochDay();
+        int toDay = (int) to.toEpochDay();
+        double[] values;
+        DayAggregateTree.Summary summary;
+        try {
+            values = user.withPartition(part -> part.store().rollup().dailyTotals(metric, fromDay, toDay));
+            summary = user.withPartition(part -> part.store().rollup().summarize(metric, fromDay, toDay));
+        } catch (IOException ex) {
+            showError("Could not read your data: " + ex.getMessage());
+            return;
+        }
+
+        JPanel content = new JPanel(new BorderLayout(0, 10));
+        content.add(new HeatmapPanel(from, values, year, color, unit), BorderLayout.CENTER);
+        String footer = summary.days == 0 ? "Nothing logged in this period."
+                : String.format("%d days logged  |  total %s %s  |  average %s %s  |  best day %s %s",
+                        summary.days, formatAmount(summary.sum), unit, formatAmount(summary.average()), unit,
+                        formatAmount(summary.max), unit);
+        content.add(new JLabel(footer), BorderLayout.SOUTH);
+
+        String title = year ? String.valueOf(from.getYear())
+                : from.getMonth().getDisplayName(TextStyle.FULL, Locale.ENGLISH) + " " + from.getYear();
+        JOptionPane.showMessageDialog(this, content, name + " Heatmap - " + title, JOptionPane.PLAIN_MESSAGE);
+    }
+
+    private static String formatAmount(double v) {
+        return v == Math.rint(v) ? String.format("%,.0f", v) : String.format("%,.1f", v);
+    }
+
+    // Day cells shaded by value: a Monday-first calendar for a month, one row per month for a year
+    private static class HeatmapPanel extends JPanel {
+        private static final long serialVersionUID = 1L;
+        private static final int CELL = 22;
+        private static final int GAP = 3;
+        private static final int LEFT = 40;
+        private static final int TOP = 20;
+        private static final Color EMPTY = new Color(235, 235, 240);
+
+        private final LocalDate from;
+        private final double[] values;
+        private final boolean year;
+        private final Color color;
+        private final String unit;
+        private final double max;
+
+        HeatmapPanel(LocalDate from, double[] values, boolean year, Color color, String unit) {
+            this.from = from;
+            this.values = values;
+            this.year = year;
+            this.color = color;
+            this.unit = unit;
+            double m = 0;
+            for (double v : values) {
+                if (!Double.isNaN(v)) m = Math.max(m, v);
+            }
+            this.max = m;
+            int cols = year ? 31 : 7;
+            int rows = year ? 12 : 7;
+            setPreferredSize(new Dimension(LEFT + cols * (CELL + GAP) + 10, TOP + rows * (CELL + GAP) + 10));
+            setBackground(Color.WHITE);
+            // enables per-cell tooltips
+            setToolTipText("");
+        }
+
+        private Rectangle cell(int i) {
+            LocalDate d = from.plusDays(i);
+            int row;
+            int col;
+            if (year) {
+                row = d.getMonthValue() - 1;
+                col = d.getDayOfMonth() - 1;
+            } else {
+                int slot = i + from.getDayOfWeek().getValue() - 1;
+                row = slot / 7;
+                col = slot % 7;
+            }
+            return new Rectangle(LEFT + col * (CELL + GAP), TOP + row * (CELL + GAP), CELL, CELL);
+        }
+
+        @Override
+        public String getToolTipText(MouseEvent e) {
+            for (int i = 0; i < values.length; i++) {
+                if (cell(i).contains(e.getPoint())) {
+                    String amount = Double.isNaN(values[i]) ? "nothing logged" : formatAmount(values[i]) + " " + unit;
+                    return from.plusDays(i) + ": " + amount;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            Graphics2D g2 = (Graphics2D) g;
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2.setFont(new Font("Segoe UI", Font.PLAIN, 10));
+            g2.setColor(Color.DARK_GRAY);
+            if (year) {
+                for (int m = 0; m < 12; m++) {
+                    String label = java.time.Month.of(m + 1).getDisplayName(TextStyle.SHORT, Locale.ENGLISH);
+                    g2.drawString(label, 4, TOP + m * (CELL + GAP) + CELL - 7);
+                }
+                for (int d = 1; d <= 31; d += 5) {
+                    g2.drawString(String.valueOf(d), LEFT + (d - 1) * (CELL + GAP) + 6, TOP - 6);
+                }
+            } else {
+                for (int c = 0; c < 7; c++) {
+                    String label = java.time.DayOfWeek.of(c + 1).getDisplayName(TextStyle.SHORT, Locale.ENGLISH);
+                    g2.drawString(label, LEFT + c * (CELL + GAP) + 2, TOP - 6);
+                }
+            }
+            for (int i = 0; i < values.length; i++) {
+                Rectangle r = cell(i);
+                g2.setColor(shade(values[i]));
+                g2.fillRoundRect(r.x, r.y, r.width, r.height, 5, 5);
+                if (!year) {
+                    g2.setColor(Color.DARK_GRAY);
+                    g2.drawString(String.valueOf(from.plusDays(i).getDayOfMonth()), r.x + 4, r.y + 14);
+                }
+            }
+        }
+
+        // Empty days are grey; logged days go from a light tint to the full colour at the period's best day
+        private Color shade(double v) {
+            if (Double.isNaN(v)) return EMPTY;
+            double t = max > 0 ? 0.15 + 0.85 * Math.max(v, 0) / max : 1;
+            int r = (int) Math.round(255 + (color.getRed() - 255) * t);
+            int gr = (int) Math.round(255 + (color.getGreen() - 255) * t);
+            int b = (int) Math.round(255 + (color.getBlue() - 255) * t);
+            return new Color(r, gr, b);
+        }
     }
 
     /**
@@ -492,56 +787,67 @@ public class FitLifeGUI extends JFrame {
             return;
         }
 
-        // Show loading dialog
-        JDialog loadingDialog = new JDialog(this, "Analyzing...", true);
-        JLabel loadingLabel = new JLabel(
-                "<html><center>" +
-                "🤖 Calling Gemini AI for personalized analysis...<br>" +
-                "This may take 3-5 seconds...<br><br>" +
-                "Analyzing your health metrics...<br>" +
-                "</center></html>"
-        );
-        loadingLabel.setHorizontalAlignment(SwingConstants.CENTER);
-        loadingDialog.add(loadingLabel, BorderLayout.CENTER);
-        loadingDialog.setSize(450, 180);
-        loadingDialog.setLocationRelativeTo(this);
-
-        // Run analysis in background thread
-        new Thread(() -> {
-            try {
-                // Extract metrics (last 30 days)
-                LocalDate endDate = LocalDate.now();
-                LocalDate startDate = endDate.minusDays(29);
-                Map<String, Object> metrics = MetricsExtractor.extractMetrics(startDate, endDate);
-
-                // Call Gemini
-                Map<String, Object> analysis = GeminiAnalyzer.analyzeUserHealth(metrics, userQuery);
-
-                // Close loading dialog and display results
-                loadingDialog.dispose();
-                displayAnalysisResults(analysis, userQuery);
+        // Results open at once and fill in while the answer streams in
+        JTextArea area = new JTextArea(formatPartialAnswer(userQuery, null));
+        area.setEditable(false);
+        area.setLineWrap(true);
+        area.setWrapStyleWord(true);
+        area.setFont(new Font("Monospaced", Font.PLAIN, 11));
+        area.setMargin(new Insets(10, 10, 10, 10));
 
-            } catch (Exception ex) {
-                loadingDialog.dispose();
-                showError("Analysis failed:\n" + ex.getMessage());
-                ex.printStackTrace();
-            }
-        }).start();
+        JScrollPane scroll = new JScrollPane(area);
+        scroll.setPreferredSize(new Dimension(600, 500));
 
-        loadingDialog.setVisible(true);
+        JDialog resultsDialog = new JDialog(this, "🤖 AI Analysis Results", false);
+        resultsDialog.add(scroll, BorderLayout.CENTER);
+        resultsDialog.pack();
+        resultsDialog.setLocationRelativeTo(this);
+        resultsDialog.setVisible(true);
+
+        // Latest partial answer not yet shown; at most one repaint is queued however fast chunks arrive
+        AtomicReference<String> pendingAnswer = new AtomicReference<>();
+
+        // Extract metrics (last 30 days) off the EDT, then stream the analysis without holding a thread
+        LocalDate endDate = LocalDate.now();
+        LocalDate startDate = endDate.minusDays(29);
+        CompletableFuture.supplyAsync(() -> MetricsExtractor.extractMetrics(user, startDate, endDate))
+                .thenCompose(metrics -> GeminiAnalyzer.analyzeUserHealthStreaming(metrics, userQuery, partial -> {
+                    if (pendingAnswer.getAndSet(partial) == null) {
+                        SwingUtilities.invokeLater(() -> area.setText(formatPartialAnswer(userQuery, pendingAnswer.getAndSet(null))));
+                    }
+                }))
+                .whenComplete((analysis, ex) -> SwingUtilities.invokeLater(() -> {
+                    if (ex != null) {
+                        resultsDialog.dispose();
+                        showError("Analysis failed:\n" + ex.getMessage());
+                        ex.printStackTrace();
+                    } else if (analysis.containsKey("error")) {
+                        resultsDialog.dispose();
+                        showError("Analysis Error:\n" + analysis.get("error"));
+                    } else {
+                        area.setText(formatAnalysisResults(analysis, userQuery));
+                        area.setCaretPosition(0);
+                    }
+                }));
     }
 
     /**
-     * Display AI analysis results in a formatted dialog
+     * Results text while the answer is still arriving
      */
-    private void displayAnalysisResults(Map<String, Object> analysis, String userQuery) {
-        // Check for errors
-        if (analysis.containsKey("error")) {
-            showError("Analysis Error:\n" + analysis.get("error"));
-            return;
+    private String formatPartialAnswer(String userQuery, String partialAnswer) {
+        StringBuilder result = new StringBuilder();
+        appendAnalysisHeader(result, userQuery);
+        if (partialAnswer == null) {
+            result.append("🤖 Calling Gemini AI for personalized analysis...\n");
+            result.append("Analyzing your health metrics...\n");
+        } else {
+            result.append(partialAnswer).append(" ▌\n\n");
+            result.append("Insights and recommendations follow once the answer is complete.\n");
         }
+        return result.toString();
+    }
 
-        StringBuilder result = new StringBuilder();
+    private void appendAnalysisHeader(StringBuilder result, String userQuery) {
         result.append("═══════════════════════════════════════════════════════\n");
         result.append("             🤖 AI HEALTH ANALYSIS RESULTS              \n");
         result.append("═══════════════════════════════════════════════════════\n\n");
@@ -552,6 +858,14 @@ public class FitLifeGUI extends JFrame {
 
         result.append("ANSWER:\n");
         result.append("─────────────────────────────────────────────────────\n");
+    }
+
+    /**
+     * Format complete AI analysis results
+     */
+    private String formatAnalysisResults(Map<String, Object> analysis, String userQuery) {
+        StringBuilder result = new StringBuilder();
+        appendAnalysisHeader(result, userQuery);
         result.append(analysis.getOrDefault("answer", "N/A")).append("\n\n");
 
         result.append("KEY INSIGHTS:\n");
@@ -585,18 +899,7 @@ public class FitLifeGUI extends JFrame {
         result.append("Analysis Confidence: ").append(String.format("%.0f%%", confidence * 100)).append("\n");
         result.append("═══════════════════════════════════════════════════════\n");
 
-        JTextArea area = new JTextArea(result.toString());
-        area.setEditable(false);
-        area.setLineWrap(true);
-        area.setWrapStyleWord(true);
-        area.setFont(new Font("Monospaced", Font.PLAIN, 11));
-        area.setCaretPosition(0);
-        area.setMargin(new Insets(10, 10, 10, 10));
-
-        JScrollPane scroll = new JScrollPane(area);
-        scroll.setPreferredSize(new Dimension(600, 500));
-
-        JOptionPane.showMessageDialog(this, scroll, "🤖 AI Analysis Results", JOptionPane.INFORMATION_MESSAGE);
+        return result.toString();
     }
 
     private void showInfo(String msg) {
@@ -0,0 +1,254 @@
+package fitlife.ai;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two-tier cache of Gemini analyses, keyed by a hash of the metrics and the question.
+ *
+ * The memory tier is an LRU map of at most {@code maxEntries} responses; the disk tier keeps one
+ * JSON file per response in a directory, so answers survive a restart, and is pruned oldest-first
+ * past {@code maxFiles}. Entries in either tier expire {@code ttl} after the response was fetched.
+ * Responses are held as JSON and every hit returns a fresh map, so callers may modify what they get.
+ */
+public class AnalysisCache {
+
+    private static final Gson gson = new Gson();
+    private static final String SUFFIX = ".json";
+
+    private final Path dir;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final int maxFiles;
+    private final LinkedHashMap<String, Entry> memory;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong hitNanos = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong loadNanos = new AtomicLong();
+
+    private static class Entry {
+        final long created;
+        final String json;
+
+        Entry(long created, String json) {
+            this.created = created;
+            this.json = json;
+        }
+    }
+
+    /**
+     * Counters since the cache was created
+     */
+    public static class Stats {
+        public final long memoryHits;
+        public final long diskHits;
+        public final long misses;
+        public final double averageHitMillis;
+        public final double averageLoadMillis;
+
+        Stats(long memoryHits, long diskHits, long misses, double averageHitMillis, double averageLoadMillis) {
+            this.memoryHits = memoryHits;
+            this.diskHits = diskHits;
+            this.misses = misses;
+            this.averageHitMillis = averageHitMillis;
+            this.averageLoadMillis = averageLoadMillis;
+        }
+
+        public double hitRate() {
+            long total = memoryHits + diskHits + misses;
+            return total == 0 ? 0 : (double) (memoryHits + diskHits) / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d memory hits, %d disk hits, %d misses (%.0f%% hit rate); hit %.2f ms, remote %.0f ms on average",
+                    memoryHits, diskHits, misses, hitRate() * 100, averageHitMillis, averageLoadMillis);
+        }
+    }
+
+    /**
+     * @param dir directory for the disk tier, created on first write
+     * @param maxEntries responses kept in memory
+     * @param ttl how long a response stays valid
+     * @param maxFiles responses kept on disk
+     */
+    public AnalysisCache(Path dir, int maxEntries, Duration ttl, int maxFiles) {
+        if (maxEntries < 1 || maxFiles < 1) {
+            throw new IllegalArgumentException("Cache sizes must be at least 1.");
+        }
+        this.dir = dir;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttl.toMillis();
+        this.maxFiles = maxFiles;
+        this.memory = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > AnalysisCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Cache key for a question over some metrics: SHA-256 of the model, the metrics in key order
+     * and the question with case and runs of whitespace normalized
+     */
+    public static String key(String model, Map<String, Object> metrics, String userQuery) {
+        String query = userQuery == null ? "" : userQuery.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        String canonical = model + "\n" + gson.toJson(new TreeMap<>(metrics)) + "\n" + query;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(canonical.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    }
+
+    /**
+     * Cached response for a key, from memory or else disk
+     * @return a copy of the response, or null on a miss or when it has expired
+     */
+    public Map<String, Object> get(String key) {
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        Entry e;
+        synchronized (memory) {
+            e = memory.get(key);
+            if (e != null && expired(e, now)) {
+                memory.remove(key);
+                e = null;
+            }
+        }
+        AtomicLong tier = memoryHits;
+        if (e == null) {
+            e = readFile(key, now);
+            tier = diskHits;
+            if (e != null) {
+                synchronized (memory) {
+                    memory.put(key, e);
+                }
+            }
+        }
+        if (e == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        Map<String, Object> response = parse(e.json);
+        tier.incrementAndGet();
+        hitNanos.addAndGet(System.nanoTime() - start);
+        return response;
+    }
+
+    /**
+     * Store a freshly fetched response in both tiers
+     * @param loadNanos how long fetching it took, for the latency counters
+     */
+    public void put(String key, Map<String, Object> response, long loadNanos) {
+        loads.incrementAndGet();
+        this.loadNanos.addAndGet(loadNanos);
+        Entry e = new Entry(System.currentTimeMillis(), gson.toJson(response));
+        synchronized (memory) {
+            memory.put(key, e);
+        }
+        try {
+            writeFile(key, e);
+        } catch (IOException ex) {
+            // the memory tier still serves it; the disk tier is best effort
+        }
+    }
+
+    public Stats stats() {
+        long hits = memoryHits.get() + diskHits.get();
+        long n = loads.get();
+        return new Stats(memoryHits.get(), diskHits.get(), misses.get(),
+                hits == 0 ? 0 : hitNanos.get() / 1e6 / hits, n == 0 ? 0 : loadNanos.get() / 1e6 / n);
+    }
+
+    /**
+     * Drop every cached response, in memory and on disk
+     */
+    public void clear() throws IOException {
+        synchronized (memory) {
+            memory.clear();
+        }
+        for (Path p : files()) Files.deleteIfExists(p);
+    }
+
+    private boolean expired(Entry e, long now) {
+        return now - e.created >= ttlMillis;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> parse(String json) {
+        return gson.fromJson(json, Map.class);
+    }
+
+    private Entry readFile(String key, long now) {
+        Path file = dir.resolve(key + SUFFIX);
+        if (!Files.isRegularFile(file)) return null;
+        try {
+            Map<String, Object> stored = parse(Files.readString(file, StandardCharsets.UTF_8));
+            Object created = stored == null ? null : stored.get("created");
+            Object response = stored == null ? null : stored.get("response");
+            if (created instanceof Number && response instanceof Map) {
+                Entry e = new Entry(((Number) created).longValue(), gson.toJson(response));
+                if (!expired(e, now)) return e;
+            }
+            Files.deleteIfExists(file);
+        } catch (IOException | JsonSyntaxException ex) {
+            // unreadable or half-written by an older build: treat as a miss
+        }
+        return null;
+    }
+
+    private void writeFile(String key, Entry e) throws IOException {
+        Files.createDirectories(dir);
+        Path file = dir.resolve(key + SUFFIX);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Map<String, Object> stored = new LinkedHashMap<>();
+        stored.put("created", e.created);
+        stored.put("response", parse(e.json));
+        Files.writeString(tmp, gson.toJson(stored), StandardCharsets.UTF_8);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        prune();
+    }
+
+    // Keep the newest maxFiles responses on disk
+    private void prune() throws IOException {
+        List<Path> files = files();
+        if (files.size() <= maxFiles) return;
+        List<Object[]> aged = new ArrayList<>();
+        for (Path p : files) aged.add(new Object[] {Files.getLastModifiedTime(p).toMillis(), p});
+        aged.sort((a, b) -> Long.compare((Long) a[0], (Long) b[0]));
+        for (int i = 0; i < aged.size() - maxFiles; i++) Files.deleteIfExists((Path) aged.get(i)[1]);
+    }
+
+    private List<Path> files() throws IOException {
+        List<Path> out = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return out;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path p : ds) out.add(p);
+        }
+        return out;
+    }
+}
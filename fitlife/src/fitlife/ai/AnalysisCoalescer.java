@@ -0,0 +1,178 @@
+package fitlife.ai;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Single-flight coalescing of identical analyses: while a call for a cache key is in flight, later
+ * requests for the same key wait for that call instead of starting their own.
+ *
+ * Each waiter gets its own future and its own copy of the result map. A waiter that cancels its
+ * future just stops waiting; when the last one has, the shared call itself is cancelled. At most
+ * {@code maxWaiters} requests wait on one call, the rest are rejected. Streaming waiters receive the
+ * partial answers of the shared call, starting with the latest one when they join late.
+ */
+public class AnalysisCoalescer {
+
+    private final int maxWaiters;
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+
+    private static class Flight {
+        final CompletableFuture<Map<String, Object>> result = new CompletableFuture<>();
+        final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+        CompletableFuture<Map<String, Object>> call; // guarded by this
+        String latest;                               // guarded by this
+        int waiters;                                 // guarded by this
+        boolean closed;                              // guarded by this; no more joiners
+    }
+
+    /**
+     * @param maxWaiters requests allowed to wait on one call, the first included
+     */
+    public AnalysisCoalescer(int maxWaiters) {
+        if (maxWaiters < 1) {
+            throw new IllegalArgumentException("maxWaiters must be at least 1.");
+        }
+        this.maxWaiters = maxWaiters;
+    }
+
+    /**
+     * Join the call in flight for key, or start one
+     * @param key cache key of the analysis
+     * @param onPartialAnswer receives partial answers of the shared call, or null
+     * @param call starts the analysis, given a consumer for its partial answers
+     * @return this request's future; fails with RejectedExecutionException when the call already
+     *         has maxWaiters waiting
+     */
+    public CompletableFuture<Map<String, Object>> run(String key, Consumer<String> onPartialAnswer,
+                                                      Function<Consumer<String>, CompletableFuture<Map<String, Object>>> call) {
+        while (true) {
+            Flight f = flights.get(key);
+            if (f == null) {
+                Flight mine = new Flight();
+                if (flights.putIfAbsent(key, mine) != null) continue;
+                CompletableFuture<Map<String, Object>> waiter;
+                synchronized (mine) {
+                    waiter = join(mine, onPartialAnswer);
+                }
+                start(key, mine, call);
+                return waiter;
+            }
+            synchronized (f) {
+                if (f.closed) {
+                    // finished or abandoned, and about to leave the map
+                    flights.remove(key, f);
+                    continue;
+                }
+                if (f.waiters >= maxWaiters) {
+                    rejected.incrementAndGet();
+                    return CompletableFuture.failedFuture(new RejectedExecutionException(
+                            "Too many identical analyses in progress (" + maxWaiters + "); try again shortly."));
+                }
+                coalesced.incrementAndGet();
+                return join(f, onPartialAnswer);
+            }
+        }
+    }
+
+    // Caller holds f's lock
+    private CompletableFuture<Map<String, Object>> join(Flight f, Consumer<String> onPartialAnswer) {
+        f.waiters++;
+        if (onPartialAnswer != null) {
+            f.listeners.add(onPartialAnswer);
+            if (f.latest != null) onPartialAnswer.accept(f.latest);
+        }
+        CompletableFuture<Map<String, Object>> waiter = new CompletableFuture<>();
+        f.result.whenComplete((v, ex) -> {
+            if (ex != null) waiter.completeExceptionally(ex);
+            else waiter.complete(new HashMap<>(v));
+        });
+        waiter.whenComplete((v, ex) -> {
+            if (waiter.isCancelled()) leave(f, onPartialAnswer);
+        });
+        return waiter;
+    }
+
+    private void start(String key, Flight f, Function<Consumer<String>, CompletableFuture<Map<String, Object>>> call) {
+        calls.incrementAndGet();
+        CompletableFuture<Map<String, Object>> c;
+        try {
+            c = call.apply(partial -> {
+                // under the lock, so a late joiner's catch-up never overtakes a newer partial
+                synchronized (f) {
+                    f.latest = partial;
+                    for (Consumer<String> l : f.listeners) l.accept(partial);
+                }
+            });
+        } catch (RuntimeException e) {
+            c = CompletableFuture.failedFuture(e);
+        }
+        boolean abandoned;
+        synchronized (f) {
+            f.call = c;
+            abandoned = f.closed;
+        }
+        // every waiter may have cancelled while the call was being started
+        if (abandoned) c.cancel(true);
+        c.whenComplete((v, ex) -> {
+            synchronized (f) {
+                f.closed = true;
+            }
+            // leave the map first: requests from here on start afresh (and usually hit the cache)
+            flights.remove(key, f);
+            if (ex != null) f.result.completeExceptionally(ex);
+            else f.result.complete(v);
+        });
+    }
+
+    private void leave(Flight f, Consumer<String> onPartialAnswer) {
+        CompletableFuture<Map<String, Object>> abandon = null;
+        synchronized (f) {
+            f.waiters--;
+            if (onPartialAnswer != null) f.listeners.remove(onPartialAnswer);
+            if (f.waiters == 0 && !f.closed) {
+                f.closed = true;
+                abandon = f.call;
+                cancelled.incrementAndGet();
+            }
+        }
+        if (abandon != null) abandon.cancel(true);
+    }
+
+    // Remote calls started
+    public long callsStarted() {
+        return calls.get();
+    }
+
+    // Requests that joined a call already in flight
+    public long requestsCoalesced() {
+        return coalesced.get();
+    }
+
+    // Requests turned away because their call had maxWaiters waiting
+    public long requestsRejected() {
+        return rejected.get();
+    }
+
+    // Calls cancelled because every waiter had cancelled
+    public long callsCancelled() {
+        return cancelled.get();
+    }
+
+    public int inFlight() {
+        return flights.size();
+    }
+}
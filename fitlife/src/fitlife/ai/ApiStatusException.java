@@ -0,0 +1,38 @@
+package fitlife.ai;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * A Gemini API response with a status other than 200
+ */
+public class ApiStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final transient Duration retryAfter;
+
+    /**
+     * @param statusCode HTTP status of the response
+     * @param retryAfter wait the server asked for in a Retry-After header, or null
+     */
+    public ApiStatusException(int statusCode, Duration retryAfter) {
+        super("API returned status code: " + statusCode);
+        this.statusCode = statusCode;
+        this.retryAfter = retryAfter;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    // Rate limited or a transient server fault: worth trying again
+    public boolean isRetryable() {
+        return statusCode == 429 || statusCode == 500 || statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+}
@@ -0,0 +1,265 @@
+package fitlife.ai;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Resilience layer for calls to a remote API: a {@link TokenBucket} paces attempts, failed
+ * attempts are retried with jittered exponential backoff (or after the server's Retry-After), and
+ * a {@link CircuitBreaker} fails calls at once while the API keeps failing.
+ *
+ * Retried: {@link ApiStatusException#isRetryable() 429 and 5xx} responses and failures to
+ * connect. Those except 429, and running out of time, count against the breaker; being throttled
+ * says nothing about an outage, so a 429 counts neither way, and other errors are the caller's
+ * and count as the API being up. Waits and retries all come out of the call's deadline; a retry
+ * that could not start before it runs out is not made, and a Retry-After longer than the backoff
+ * cap or the time left fails the call at once with the wait in its message.
+ */
+public class CallGuard {
+
+    private final TokenBucket limiter;
+    private final CircuitBreaker breaker;
+    private final int maxAttempts;
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong shortCircuited = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Counters since the guard was created, and the breaker's current state
+     */
+    public static class Stats {
+        public final CircuitBreaker.State state;
+        public final int consecutiveFailures;
+        public final long breakerOpens;
+        public final double availableTokens;
+        public final long calls;
+        public final long attempts;
+        public final long retries;
+        public final long throttled;
+        public final long rateLimited;
+        public final long shortCircuited;
+        public final long failed;
+
+        Stats(CallGuard g) {
+            this.state = g.breaker.state();
+            this.consecutiveFailures = g.breaker.consecutiveFailures();
+            this.breakerOpens = g.breaker.opens();
+            this.availableTokens = g.limiter.available();
+            this.calls = g.calls.get();
+            this.attempts = g.attempts.get();
+            this.retries = g.retries.get();
+            this.throttled = g.throttled.get();
+            this.rateLimited = g.rateLimited.get();
+            this.shortCircuited = g.shortCircuited.get();
+            this.failed = g.failed.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "breaker %s (%d failures in a row, opened %d times), %.1f tokens; "
+                    + "%d calls, %d attempts, %d retries, %d throttled, %d rate limited, %d short-circuited, %d failed",
+                    state, consecutiveFailures, breakerOpens, availableTokens,
+                    calls, attempts, retries, throttled, rateLimited, shortCircuited, failed);
+        }
+    }
+
+    /**
+     * @param limiter paces attempts, retries included
+     * @param breaker tracks the API's health
+     * @param maxAttempts attempts per call, the first included
+     * @param baseDelay backoff before the first retry; it doubles with each one
+     * @param maxDelay cap on a backoff wait; a longer Retry-After fails the call instead
+     */
+    public CallGuard(TokenBucket limiter, CircuitBreaker breaker, int maxAttempts, Duration baseDelay, Duration maxDelay) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1.");
+        }
+        this.limiter = limiter;
+        this.breaker = breaker;
+        this.maxAttempts = maxAttempts;
+        this.baseDelayNanos = baseDelay.toNanos();
+        this.maxDelayNanos = maxDelay.toNanos();
+    }
+
+    /**
+     * Make a call through the limiter, breaker and retries
+     * @param attempt makes one attempt, given the time left before the deadline
+     * @param deadline time allowed for the whole call
+     * @return future of the first successful attempt, or of the error that ended the call.
+     *         Cancelling it cancels the attempt in progress.
+     */
+    public <T> CompletableFuture<T> call(Function<Duration, CompletableFuture<T>> attempt, Duration deadline) {
+        calls.incrementAndGet();
+        Call<T> call = new Call<>(attempt, System.nanoTime() + deadline.toNanos());
+        call.result.whenComplete((v, ex) -> {
+            if (call.result.isCancelled()) {
+                CompletableFuture<T> current = call.current;
+                if (current != null) current.cancel(true);
+            }
+        });
+        call.schedule(0, 0);
+        return call.result;
+    }
+
+    public Stats stats() {
+        return new Stats(this);
+    }
+
+    private final class Call<T> {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final Function<Duration, CompletableFuture<T>> attempt;
+        final long deadline;
+        volatile CompletableFuture<T> current;
+        volatile Throwable lastError;
+
+        Call(Function<Duration, CompletableFuture<T>> attempt, long deadline) {
+            this.attempt = attempt;
+            this.deadline = deadline;
+        }
+
+        // Attempt n after delayNanos and whatever wait the limiter imposes
+        void schedule(int n, long delayNanos) {
+            if (result.isDone()) return;
+            if (breaker.remainingOpenNanos() > delayNanos) {
+                shortCircuit();
+                return;
+            }
+            long wait = limiter.reserve(deadline - System.nanoTime() - delayNanos);
+            if (wait < 0) {
+                rateLimited.incrementAndGet();
+                fail(n > 0 ? null : new IOException("Rate limit reached: no request slot before the deadline"));
+                return;
+            }
+            if (wait > 0) throttled.incrementAndGet();
+            long total = delayNanos + wait;
+            if (total == 0) {
+                start(n);
+            } else {
+                CompletableFuture.delayedExecutor(total, TimeUnit.NANOSECONDS).execute(() -> start(n));
+            }
+        }
+
+        void start(int n) {
+            if (result.isDone()) return;
+            if (!breaker.allow()) {
+                shortCircuit();
+                return;
+            }
+            attempts.incrementAndGet();
+            CompletableFuture<T> started;
+            try {
+                started = attempt.apply(Duration.ofNanos(Math.max(1, deadline - System.nanoTime())));
+            } catch (RuntimeException e) {
+                started = CompletableFuture.failedFuture(e);
+            }
+            CompletableFuture<T> f = started;
+            current = f;
+            // cancelled while the attempt was starting
+            if (result.isCancelled()) f.cancel(true);
+            f.whenComplete((v, ex) -> {
+                if (f.isCancelled()) {
+                    breaker.onCancel();
+                    return;
+                }
+                if (ex == null) {
+                    breaker.onSuccess();
+                    result.complete(v);
+                    return;
+                }
+                Throwable cause = unwrap(ex);
+                lastError = cause;
+                boolean retryable = retryable(cause);
+                Duration retryAfter = cause instanceof ApiStatusException ? ((ApiStatusException) cause).getRetryAfter() : null;
+                if (isThrottled(cause)) {
+                    breaker.onCancel();
+                } else if (retryable || cause instanceof TimeoutException || cause instanceof HttpTimeoutException) {
+                    breaker.onFailure();
+                } else {
+                    breaker.onSuccess();
+                }
+                if (!retryable || n + 1 >= maxAttempts) {
+                    fail(null);
+                    return;
+                }
+                if (retryAfter != null) {
+                    long wait = retryAfter.toNanos();
+                    if (wait > maxDelayNanos || System.nanoTime() + wait >= deadline) {
+                        // a retry before the server's wait is over would only be refused again
+                        rateLimited.incrementAndGet();
+                        long seconds = Math.max(1, (long) Math.ceil(wait / 1e9));
+                        String why = isThrottled(cause) ? "rate limit reached"
+                                : "returned status " + ((ApiStatusException) cause).getStatusCode();
+                        fail(new IOException("Gemini API " + why + "; retry after " + seconds + " s", cause));
+                        return;
+                    }
+                }
+                long delay = retryAfter != null ? retryAfter.toNanos() : backoff(n);
+                if (System.nanoTime() + delay >= deadline) {
+                    fail(null);
+                    return;
+                }
+                retries.incrementAndGet();
+                schedule(n + 1, delay);
+            });
+        }
+
+        void shortCircuit() {
+            shortCircuited.incrementAndGet();
+            long seconds = (long) Math.ceil(breaker.remainingOpenNanos() / 1e9);
+            String when = seconds > 0 ? "next try in " + seconds + " s" : "checking whether it has recovered";
+            String after = lastError != null ? " (last error: " + message(lastError) + ")" : "";
+            fail(new IOException("Gemini API unavailable after repeated failures; " + when + after));
+        }
+
+        // Fail with error, or with the last attempt's error when null
+        void fail(Throwable error) {
+            failed.incrementAndGet();
+            result.completeExceptionally(error != null ? error : lastError);
+        }
+    }
+
+    // Full jitter: uniform in [0, base * 2^n], capped
+    private long backoff(int n) {
+        long ceiling = Math.min(maxDelayNanos, baseDelayNanos << Math.min(n, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private static boolean retryable(Throwable cause) {
+        if (cause instanceof ApiStatusException) return ((ApiStatusException) cause).isRetryable();
+        return cause instanceof ConnectException || cause instanceof HttpConnectTimeoutException;
+    }
+
+    private static boolean isThrottled(Throwable cause) {
+        return cause instanceof ApiStatusException && ((ApiStatusException) cause).getStatusCode() == 429;
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        while ((ex instanceof CompletionException || ex instanceof ExecutionException) && ex.getCause() != null) {
+            ex = ex.getCause();
+        }
+        return ex;
+    }
+
+    private static String message(Throwable ex) {
+        return ex.getMessage() != null ? ex.getMessage() : ex.getClass().getSimpleName();
+    }
+}
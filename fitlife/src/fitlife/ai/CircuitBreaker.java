@@ -0,0 +1,97 @@
+package fitlife.ai;
+
+import java.time.Duration;
+
+/**
+ * Circuit breaker for a remote service. After {@code failureThreshold} failures in a row it opens
+ * and refuses calls for {@code openDuration}; then it lets one probe call through (half-open). A
+ * successful probe closes it again, a failed one reopens it for another openDuration.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openNanos;
+
+    // guarded by this
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probing;
+    private long opens;
+
+    /**
+     * @param failureThreshold failures in a row that open the breaker
+     * @param openDuration how long it stays open before a probe
+     */
+    public CircuitBreaker(int failureThreshold, Duration openDuration) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("failureThreshold must be at least 1.");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+    }
+
+    /**
+     * Ask to make a call. Once the open period has passed, the first caller gets the half-open
+     * probe and the rest are refused until it reports back.
+     * @return true if the call may go ahead; it must then report onSuccess, onFailure or onCancel
+     */
+    public synchronized boolean allow() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - openedAt < openNanos) return false;
+                state = State.HALF_OPEN;
+                probing = true;
+                return true;
+            default:
+                if (probing) return false;
+                probing = true;
+                return true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        probing = false;
+        state = State.CLOSED;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        probing = false;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) opens++;
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    // An allowed call that was abandoned without an outcome: frees the probe slot
+    public synchronized void onCancel() {
+        probing = false;
+    }
+
+    public synchronized State state() {
+        // report a lapsed open period as half-open: the next call probes
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) return State.HALF_OPEN;
+        return state;
+    }
+
+    // Nanoseconds until an open breaker admits a probe, 0 otherwise
+    public synchronized long remainingOpenNanos() {
+        return state == State.OPEN ? Math.max(0, openNanos - (System.nanoTime() - openedAt)) : 0;
+    }
+
+    public synchronized int consecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    // Times the breaker has opened
+    public synchronized long opens() {
+        return opens;
+    }
+}
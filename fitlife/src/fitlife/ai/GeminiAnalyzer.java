@@ -3,14 +3,29 @@ package fitlife.ai;
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 import fitlife.config.GeminiConfig;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 /**
  * Calls Google Gemini API via REST for personalized health analysis
@@ -18,39 +33,344 @@ import java.util.Scanner;
 public class GeminiAnalyzer {
     
     private static final Gson gson = new Gson();
-    private static final String API_ENDPOINT = "https://generativelanguage.googleapis.com/v1beta/models/gemini-2.0-flash-lite:generateContent";
+    // One client for every call: pooled keep-alive connections, HTTP/2 where the server offers it,
+    // and non-blocking I/O so a pending analysis does not hold a thread. Responses are handled on
+    // a small fixed pool however many requests are in flight.
+    private static final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofSeconds(10))
+            .executor(Executors.newFixedThreadPool(2, r -> {
+                Thread t = new Thread(r, "fitlife-gemini-http");
+                t.setDaemon(true);
+                return t;
+            }))
+            .build();
+    // Same question over the same metrics within 12 hours: answered locally
+    private static final AnalysisCache cache = new AnalysisCache(GeminiConfig.getCacheDirectory(), 64, Duration.ofHours(12), 512);
+    // Same question while it is still being answered: wait for that call, up to 64 callers per call
+    private static final AnalysisCoalescer flights = new AnalysisCoalescer(64);
+    // Every remote call: paced to the configured rate (bursts of 5), up to 3 attempts on 429/5xx or
+    // connection failures, and refused at once for 30 s after 5 failures in a row (429s not counted)
+    private static final CallGuard guard = new CallGuard(
+            new TokenBucket(5, GeminiConfig.getRequestsPerMinute() / 60.0),
+            new CircuitBreaker(5, Duration.ofSeconds(30)),
+            3, Duration.ofMillis(500), Duration.ofSeconds(8));
     
     /**
-     * Analyze user health data with Gemini LLM
+     * Analyze user health data with Gemini LLM, blocking until the analysis is ready or the
+     * configured request timeout has passed
      * @param metrics extracted metrics from data files
      * @param userQuery user's specific question
      * @return Map containing analysis results
      */
     public static Map<String, Object> analyzeUserHealth(Map<String, Object> metrics, String userQuery) {
-        Map<String, Object> result = new HashMap<>();
+        return analyzeUserHealthAsync(metrics, userQuery).join();
+    }
+    
+    /**
+     * Analyze user health data with Gemini LLM without blocking, using the configured request timeout
+     * @see #analyzeUserHealthAsync(Map, String, Duration)
+     */
+    public static CompletableFuture<Map<String, Object>> analyzeUserHealthAsync(Map<String, Object> metrics, String userQuery) {
+        return analyzeUserHealthAsync(metrics, userQuery, GeminiConfig.getRequestTimeout());
+    }
+    
+    /**
+     * Analyze user health data with Gemini LLM without blocking. Repeat questions over unchanged
+     * metrics are served from {@link AnalysisCache} without a remote call; errors are never cached.
+     * A question already being asked over the same metrics joins that call through
+     * {@link AnalysisCoalescer}, under the deadline of the caller that started it.
+     * @param metrics extracted metrics from data files
+     * @param userQuery user's specific question
+     * @param deadline time allowed for the whole request, response body, retries and rate-limit
+     *        waits included
+     * @return future of the analysis results; it never fails, errors are reported under "error".
+     *         Cancelling it stops this caller waiting, and the call once no one is waiting.
+     */
+    public static CompletableFuture<Map<String, Object>> analyzeUserHealthAsync(Map<String, Object> metrics, String userQuery,
+                                                                                Duration deadline) {
+        long start = System.nanoTime();
+        String cacheKey = AnalysisCache.key(GeminiConfig.getModelName(), metrics, userQuery);
+        Map<String, Object> cached = cache.get(cacheKey);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        
+        // Validate API key
+        if (!GeminiConfig.isApiKeyConfigured()) {
+            return CompletableFuture.completedFuture(errorResult("API key not configured. Set GEMINI_API_KEY environment variable."));
+        }
         
+        return waiter(flights.run(cacheKey, null, partial -> fetchAnalysis(cacheKey, metrics, userQuery, deadline, start)), deadline);
+    }
+    
+    // One remote analysis, cached when it succeeds
+    private static CompletableFuture<Map<String, Object>> fetchAnalysis(String cacheKey, Map<String, Object> metrics, String userQuery,
+                                                                        Duration deadline, long start) {
         try {
-            // Validate API key
-            if (!GeminiConfig.isApiKeyConfigured()) {
-                result.put("error", "API key not configured. Set GEMINI_API_KEY environment variable.");
-                result.put("confidence", 0.0);
-                return result;
-            }
-            
             // Build prompt
             String userPrompt = buildDetailedPrompt(metrics, userQuery);
             
-            // Call Gemini API via REST
-            String apiResponse = callGeminiAPI(userPrompt, GeminiConfig.getApiKey());
-            
-            // Extract JSON from response (may be wrapped in markdown code blocks)
-            String jsonResponse = extractJsonFromResponse(apiResponse);
-            
-            // Parse response
+            // Call Gemini API via REST, then parse the text it returns
+            String apiKey = GeminiConfig.getApiKey();
+            CompletableFuture<String> call = guard.call(remaining -> callGeminiAPIAsync(userPrompt, apiKey, remaining), deadline);
+            return onCancel(call
+                    .thenApply(apiResponse -> {
+                        Map<String, Object> analysis = parseAnalysis(apiResponse);
+                        cache.put(cacheKey, analysis, System.nanoTime() - start);
+                        return analysis;
+                    })
+                    .exceptionally(ex -> errorResult("API Error: " + describe(ex, deadline))),
+                    () -> call.cancel(true));
+        } catch (RuntimeException e) {
+            return CompletableFuture.completedFuture(errorResult("API Error: " + e.getMessage()));
+        }
+    }
+    
+    /**
+     * Analyze user health data with Gemini LLM, streaming the answer as it is generated, using the
+     * configured request timeout
+     * @see #analyzeUserHealthStreaming(Map, String, Consumer, Duration)
+     */
+    public static CompletableFuture<Map<String, Object>> analyzeUserHealthStreaming(Map<String, Object> metrics, String userQuery,
+                                                                                    Consumer<String> onPartialAnswer) {
+        return analyzeUserHealthStreaming(metrics, userQuery, onPartialAnswer, GeminiConfig.getRequestTimeout());
+    }
+    
+    /**
+     * Analyze user health data with Gemini LLM over the streamGenerateContent server-sent event
+     * endpoint. Each time more of the answer arrives, onPartialAnswer gets the answer text so far
+     * (on an HTTP client thread); the future completes with the full analysis, insights and
+     * recommendations included, once the stream ends. A cached analysis is passed to
+     * onPartialAnswer once and returned at once. Like {@link #analyzeUserHealthAsync(Map, String,
+     * Duration)}, a question already being asked joins that call, picking up its answer so far.
+     * @param metrics extracted metrics from data files
+     * @param userQuery user's specific question
+     * @param onPartialAnswer receives the decoded answer text received so far
+     * @param deadline time allowed for the whole stream
+     * @return future of the analysis results; it never fails, errors are reported under "error".
+     *         Cancelling it stops this caller waiting, and the stream once no one is waiting.
+     */
+    public static CompletableFuture<Map<String, Object>> analyzeUserHealthStreaming(Map<String, Object> metrics, String userQuery,
+                                                                                    Consumer<String> onPartialAnswer, Duration deadline) {
+        long start = System.nanoTime();
+        String cacheKey = AnalysisCache.key(GeminiConfig.getModelName(), metrics, userQuery);
+        Map<String, Object> cached = cache.get(cacheKey);
+        if (cached != null) {
+            onPartialAnswer.accept(String.valueOf(cached.getOrDefault("answer", "")));
+            return CompletableFuture.completedFuture(cached);
+        }
+        
+        // Validate API key
+        if (!GeminiConfig.isApiKeyConfigured()) {
+            return CompletableFuture.completedFuture(errorResult("API key not configured. Set GEMINI_API_KEY environment variable."));
+        }
+        
+        return waiter(flights.run(cacheKey, onPartialAnswer, partial -> fetchStreaming(cacheKey, metrics, userQuery, partial, deadline, start)),
+                deadline);
+    }
+    
+    // One remote streamed analysis, cached when it succeeds
+    private static CompletableFuture<Map<String, Object>> fetchStreaming(String cacheKey, Map<String, Object> metrics, String userQuery,
+                                                                         Consumer<String> onPartialAnswer, Duration deadline, long start) {
+        try {
+            String userPrompt = buildDetailedPrompt(metrics, userQuery);
+            String apiKey = GeminiConfig.getApiKey();
+            CompletableFuture<String> call = guard.call(remaining -> streamGeminiAPIAsync(userPrompt, apiKey, onPartialAnswer, remaining), deadline);
+            return onCancel(call
+                    .thenApply(apiResponse -> {
+                        Map<String, Object> analysis = parseAnalysis(apiResponse);
+                        cache.put(cacheKey, analysis, System.nanoTime() - start);
+                        return analysis;
+                    })
+                    .exceptionally(ex -> errorResult("API Error: " + describe(ex, deadline))),
+                    () -> call.cancel(true));
+        } catch (RuntimeException e) {
+            return CompletableFuture.completedFuture(errorResult("API Error: " + e.getMessage()));
+        }
+    }
+    
+    /**
+     * Call the streamGenerateContent endpoint on the shared client
+     * @return future of the full text of the first candidate, once the stream ends
+     */
+    private static CompletableFuture<String> streamGeminiAPIAsync(String prompt, String apiKey, Consumer<String> onPartialAnswer,
+                                                                  Duration deadline) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(GeminiConfig.getStreamEndpoint() + "?alt=sse&key=" + apiKey))
+                .timeout(deadline)
+                .header("Content-Type", "application/json")
+                .header("Accept", "text/event-stream")
+                .POST(HttpRequest.BodyPublishers.ofString(requestPayload(prompt), StandardCharsets.UTF_8))
+                .build();
+        
+        StreamReader reader = new StreamReader(onPartialAnswer);
+        CompletableFuture<HttpResponse<Void>> send = httpClient.sendAsync(request, HttpResponse.BodyHandlers.fromLineSubscriber(reader));
+        return onCancel(send
+                .thenCompose(response -> {
+                    if (response.statusCode() != 200) {
+                        reader.cancel();
+                        return CompletableFuture.<String>failedFuture(new ApiStatusException(response.statusCode(), retryAfter(response)));
+                    }
+                    return reader.text;
+                })
+                .orTimeout(deadline.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((text, ex) -> {
+                    if (ex != null) reader.cancel();
+                }),
+                () -> {
+                    reader.cancel();
+                    send.cancel(true);
+                });
+    }
+    
+    // A caller's future for a coalesced call: rejection becomes an error result, and cancelling
+    // it detaches the caller from the call
+    private static CompletableFuture<Map<String, Object>> waiter(CompletableFuture<Map<String, Object>> joined, Duration deadline) {
+        return onCancel(joined.exceptionally(ex -> errorResult("API Error: " + describe(ex, deadline))), () -> joined.cancel(true));
+    }
+    
+    // Run action when future is cancelled; cancellation does not reach the stages a future depends on
+    private static <T> CompletableFuture<T> onCancel(CompletableFuture<T> future, Runnable action) {
+        future.whenComplete((v, ex) -> {
+            if (future.isCancelled()) action.run();
+        });
+        return future;
+    }
+    
+    /**
+     * Reads a server-sent event stream line by line. Every "data:" event is a generateContent
+     * response holding the next piece of the model's text; after each one the answer so far is
+     * decoded and, if it grew, passed on.
+     */
+    private static class StreamReader implements Flow.Subscriber<String> {
+        final CompletableFuture<String> text = new CompletableFuture<>();
+        private final Consumer<String> onPartialAnswer;
+        private final StringBuilder received = new StringBuilder();
+        private final StringBuilder event = new StringBuilder();
+        private String lastAnswer = "";
+        private volatile Flow.Subscription subscription;
+        
+        StreamReader(Consumer<String> onPartialAnswer) {
+            this.onPartialAnswer = onPartialAnswer;
+        }
+        
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+        
+        @Override
+        public void onNext(String line) {
+            if (line.isEmpty()) {
+                dispatch();
+            } else if (line.startsWith("data:")) {
+                if (event.length() > 0) event.append('\n');
+                event.append(line.substring(5).trim());
+            }
+        }
+        
+        @Override
+        public void onError(Throwable error) {
+            text.completeExceptionally(error);
+        }
+        
+        @Override
+        public void onComplete() {
+            dispatch();
+            text.complete(received.toString());
+        }
+        
+        void cancel() {
+            Flow.Subscription s = subscription;
+            if (s != null) s.cancel();
+        }
+        
+        private void dispatch() {
+            if (event.length() == 0 || text.isDone()) return;
+            String data = event.toString();
+            event.setLength(0);
             try {
                 @SuppressWarnings("unchecked")
-                Map<String, Object> analysis = gson.fromJson(jsonResponse, Map.class);
-                
+                Map<String, Object> chunk = gson.fromJson(data, Map.class);
+                received.append(candidateText(chunk));
+                String answer = partialAnswer(received);
+                if (answer != null && !answer.equals(lastAnswer)) {
+                    lastAnswer = answer;
+                    onPartialAnswer.accept(answer);
+                }
+            } catch (RuntimeException e) {
+                cancel();
+                text.completeExceptionally(e);
+            }
+        }
+    }
+    
+    /**
+     * The part of the "answer" string received so far in a response that is still arriving,
+     * decoded from JSON; the raw text when the model is not answering with a JSON object; null
+     * before any of the answer has arrived
+     */
+    private static String partialAnswer(CharSequence received) {
+        String t = received.toString().stripLeading();
+        // the start of a code fence, not text
+        if (t.length() < 3 && "```".startsWith(t)) return null;
+        if (t.startsWith("```")) {
+            // skip the code fence line
+            int nl = t.indexOf('\n');
+            if (nl < 0) return null;
+            t = t.substring(nl + 1).stripLeading();
+        }
+        if (t.isEmpty()) return null;
+        if (t.charAt(0) != '{') return t;
+        int key = t.indexOf("\"answer\"");
+        if (key < 0) return null;
+        int i = skipSpace(t, key + 8);
+        if (i >= t.length() || t.charAt(i) != ':') return null;
+        i = skipSpace(t, i + 1);
+        if (i >= t.length() || t.charAt(i) != '"') return null;
+        StringBuilder out = new StringBuilder();
+        for (i++; i < t.length(); i++) {
+            char c = t.charAt(i);
+            if (c == '"') break;
+            if (c != '\\') {
+                out.append(c);
+                continue;
+            }
+            // escapes: stop at one that has not fully arrived
+            if (i + 1 >= t.length()) break;
+            char e = t.charAt(++i);
+            if (e == 'u') {
+                if (i + 4 >= t.length()) break;
+                try {
+                    out.append((char) Integer.parseInt(t.substring(i + 1, i + 5), 16));
+                } catch (NumberFormatException ex) {
+                    break;
+                }
+                i += 4;
+            } else {
+                out.append(e == 'n' ? '\n' : e == 't' ? '\t' : e == 'r' ? '\r' : e == 'b' ? '\b' : e == 'f' ? '\f' : e);
+            }
+        }
+        return out.toString();
+    }
+    
+    private static int skipSpace(String s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+        return i;
+    }
+    
+    /**
+     * Turn the model's text into an analysis map, filling in any missing fields
+     */
+    private static Map<String, Object> parseAnalysis(String apiResponse) {
+        // Extract JSON from response (may be wrapped in markdown code blocks)
+        String jsonResponse = extractJsonFromResponse(apiResponse);
+        
+        try {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> analysis = gson.fromJson(jsonResponse, Map.class);
+            if (analysis != null) {
                 // Ensure all expected fields exist
                 if (!analysis.containsKey("answer")) {
                     analysis.put("answer", "Analysis complete");
@@ -64,23 +384,58 @@ public class GeminiAnalyzer {
                 if (!analysis.containsKey("confidence")) {
                     analysis.put("confidence", 0.85);
                 }
-                
                 return analysis;
-                
-            } catch (JsonSyntaxException e) {
-                // If JSON parsing fails, return raw response
-                result.put("answer", apiResponse);
-                result.put("insights", new java.util.ArrayList<String>());
-                result.put("recommendations", new java.util.ArrayList<String>());
-                result.put("confidence", 0.70);
-                return result;
             }
-            
-        } catch (Exception e) {
-            result.put("error", "API Error: " + e.getMessage());
-            result.put("confidence", 0.0);
-            return result;
+        } catch (JsonSyntaxException e) {
+            // not JSON: fall through to the raw response
         }
+        
+        // If JSON parsing fails, return raw response
+        Map<String, Object> result = new HashMap<>();
+        result.put("answer", apiResponse);
+        result.put("insights", new java.util.ArrayList<String>());
+        result.put("recommendations", new java.util.ArrayList<String>());
+        result.put("confidence", 0.70);
+        return result;
+    }
+    
+    private static Map<String, Object> errorResult(String message) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("error", message);
+        result.put("confidence", 0.0);
+        return result;
+    }
+    
+    // Message for a failed call, unwrapped from the future's wrappers
+    private static String describe(Throwable ex, Duration deadline) {
+        while ((ex instanceof CompletionException || ex instanceof ExecutionException) && ex.getCause() != null) {
+            ex = ex.getCause();
+        }
+        if (ex instanceof TimeoutException || ex instanceof HttpTimeoutException) {
+            return "No response within " + deadline.toMillis() / 1000.0 + " s";
+        }
+        return ex.getMessage() != null ? ex.getMessage() : ex.getClass().getSimpleName();
+    }
+    
+    /**
+     * Hit, miss and latency counters of the response cache
+     */
+    public static AnalysisCache.Stats cacheStats() {
+        return cache.stats();
+    }
+    
+    /**
+     * Rate limiter, retry and circuit breaker state and counters
+     */
+    public static CallGuard.Stats resilienceStats() {
+        return guard.stats();
+    }
+    
+    /**
+     * The single-flight layer, for its call, coalesced and rejected counters
+     */
+    public static AnalysisCoalescer coalescer() {
+        return flights;
     }
     
     /**
@@ -108,12 +463,55 @@ public class GeminiAnalyzer {
     }
     
     /**
-     * Call Gemini API via REST HTTP
+     * Call Gemini API via REST HTTP on the shared client
+     * @return future of the text of the first candidate
      */
-    private static String callGeminiAPI(String prompt, String apiKey) throws Exception {
-        String url = API_ENDPOINT + "?key=" + apiKey;
+    private static CompletableFuture<String> callGeminiAPIAsync(String prompt, String apiKey, Duration deadline) {
+        String jsonPayload = requestPayload(prompt);
         
-        // Build request payload
+        HttpRequest request = HttpRequest.newBuilder(URI.create(GeminiConfig.getApiEndpoint() + "?key=" + apiKey))
+                .timeout(deadline)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(jsonPayload, StandardCharsets.UTF_8))
+                .build();
+        
+        // the request timeout covers the response headers; orTimeout also bounds reading the body
+        CompletableFuture<HttpResponse<String>> send = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        return onCancel(send
+                .orTimeout(deadline.toMillis(), TimeUnit.MILLISECONDS)
+                .thenApply(response -> {
+                    try {
+                        if (response.statusCode() != 200) {
+                            throw new ApiStatusException(response.statusCode(), retryAfter(response));
+                        }
+                        return extractCandidateText(response.body());
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }), () -> send.cancel(true));
+    }
+    
+    // Retry-After in delay-seconds or as an HTTP date; null when absent or unreadable
+    private static Duration retryAfter(HttpResponse<?> response) {
+        String value = response.headers().firstValue("Retry-After").map(String::trim).orElse(null);
+        if (value == null) return null;
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value)));
+        } catch (NumberFormatException e) {
+            // not seconds: try a date
+        }
+        try {
+            Duration d = Duration.between(Instant.now(), ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME));
+            return d.isNegative() ? Duration.ZERO : d;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Build request payload
+     */
+    private static String requestPayload(String prompt) {
         Map<String, Object> requestBody = new HashMap<>();
         List<Map<String, Object>> contents = new java.util.ArrayList<>();
         Map<String, Object> content = new HashMap<>();
@@ -124,50 +522,49 @@ public class GeminiAnalyzer {
         content.put("parts", parts);
         contents.add(content);
         requestBody.put("contents", contents);
-        
-        String jsonPayload = gson.toJson(requestBody);
-        
-        // Make HTTP request
-        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Content-Type", "application/json");
-        conn.setDoOutput(true);
-        conn.setConnectTimeout(30000);
-        conn.setReadTimeout(30000);
-        
-        // Send request
-        try (OutputStream os = conn.getOutputStream()) {
-            byte[] input = jsonPayload.getBytes(StandardCharsets.UTF_8);
-            os.write(input, 0, input.length);
+        return gson.toJson(requestBody);
+    }
+    
+    /**
+     * Extract text from response
+     */
+    private static String extractCandidateText(String response) throws IOException {
+        Map<String, Object> responseMap;
+        try {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> parsed = gson.fromJson(response, Map.class);
+            responseMap = parsed;
+        } catch (JsonSyntaxException e) {
+            throw new IOException("Invalid API response format", e);
         }
-        
-        // Read response
-        int responseCode = conn.getResponseCode();
-        if (responseCode != 200) {
-            throw new Exception("API returned status code: " + responseCode);
+        String text = candidateText(responseMap);
+        if (text.isEmpty()) {
+            throw new IOException("Invalid API response format");
         }
-        
-        Scanner scanner = new Scanner(conn.getInputStream()).useDelimiter("\\A");
-        String response = scanner.hasNext() ? scanner.next() : "";
-        scanner.close();
-        
-        // Extract text from response
-        @SuppressWarnings("unchecked")
-        Map<String, Object> responseMap = gson.fromJson(response, Map.class);
+        return text;
+    }
+    
+    /**
+     * Text of the first candidate's parts, empty when there is none (streamed chunks may carry
+     * only metadata)
+     */
+    private static String candidateText(Map<String, Object> responseMap) {
         @SuppressWarnings("unchecked")
-        List<Map<String, Object>> candidates = (List<Map<String, Object>>) responseMap.get("candidates");
+        List<Map<String, Object>> candidates = responseMap == null ? null : (List<Map<String, Object>>) responseMap.get("candidates");
         
+        StringBuilder text = new StringBuilder();
         if (candidates != null && !candidates.isEmpty()) {
             @SuppressWarnings("unchecked")
-            Map<String, Object> content2 = (Map<String, Object>) candidates.get(0).get("content");
+            Map<String, Object> content = (Map<String, Object>) candidates.get(0).get("content");
             @SuppressWarnings("unchecked")
-            List<Map<String, Object>> parts2 = (List<Map<String, Object>>) content2.get("parts");
-            if (parts2 != null && !parts2.isEmpty()) {
-                return (String) parts2.get(0).get("text");
+            List<Map<String, Object>> parts = content == null ? null : (List<Map<String, Object>>) content.get("parts");
+            if (parts != null) {
+                for (Map<String, Object> part : parts) {
+                    if (part.get("text") instanceof String) text.append((String) part.get("text"));
+                }
             }
         }
-        
-        throw new Exception("Invalid API response format");
+        return text.toString();
     }
     
     /**
@@ -176,6 +573,10 @@ public class GeminiAnalyzer {
     private static String buildDetailedPrompt(Map<String, Object> metrics, String userQuery) {
         @SuppressWarnings("unchecked")
         List<String> topFoods = (List<String>) metrics.getOrDefault("top_foods", new java.util.ArrayList<>());
+        @SuppressWarnings("unchecked")
+        List<String> byCategory = (List<String>) metrics.getOrDefault("calories_by_category", new java.util.ArrayList<>());
+        @SuppressWarnings("unchecked")
+        List<String> calorieSources = (List<String>) metrics.getOrDefault("top_calorie_sources", new java.util.ArrayList<>());
         
         return String.format("""
             You are an expert personal health and fitness analyst. Analyze the following user health data and answer their specific question.
@@ -187,16 +588,21 @@ public class GeminiAnalyzer {
             - Average Daily Calories: %d kcal
             - Total Meals Logged: %d meals
             - Top Foods Eaten: %s
+            - Calories by Category: %s
+            - Biggest Calorie Sources: %s
+            - Typical Day With Meals Logged: %d kcal (10th-90th percentile: %d - %d kcal)
             
             ACTIVITY:
             - Average Daily Steps: %d steps
             - Days With Activity Logged: %d days
             - Step Range: %d - %d steps per day
+            - Typical Active Day: %d steps (10th-90th percentile: %d - %d steps)
             
             HYDRATION:
             - Average Daily Water: %.1f liters
             - Days With Water Logged: %.0f days
             - Water Range: %.1f - %.1f liters per day
+            - Typical Day With Water Logged: %.1f liters (10th-90th percentile: %.1f - %.1f liters)
             
             === USER'S SPECIFIC QUESTION ===
             "%s"
@@ -220,14 +626,25 @@ public class GeminiAnalyzer {
             metrics.getOrDefault("average_daily_calories", 0),
             metrics.getOrDefault("total_meals_logged", 0),
             topFoods.isEmpty() ? "None logged yet" : String.join(", ", topFoods),
+            byCategory.isEmpty() ? "None logged yet" : String.join(", ", byCategory),
+            calorieSources.isEmpty() ? "None logged yet" : String.join(", ", calorieSources),
+            metrics.getOrDefault("median_daily_calories", 0),
+            metrics.getOrDefault("p10_daily_calories", 0),
+            metrics.getOrDefault("p90_daily_calories", 0),
             metrics.getOrDefault("average_daily_steps", 0),
             metrics.getOrDefault("step_days_logged", 0),
             metrics.getOrDefault("min_daily_steps", 0),
             metrics.getOrDefault("max_daily_steps", 0),
+            metrics.getOrDefault("median_daily_steps", 0),
+            metrics.getOrDefault("p10_daily_steps", 0),
+            metrics.getOrDefault("p90_daily_steps", 0),
             metrics.getOrDefault("average_daily_water_liters", 0.0),
             metrics.getOrDefault("water_days_logged", 0.0),
             metrics.getOrDefault("min_daily_water_liters", 0.0),
             metrics.getOrDefault("max_daily_water_liters", 0.0),
+            metrics.getOrDefault("median_daily_water_liters", 0.0),
+            metrics.getOrDefault("p10_daily_water_liters", 0.0),
+            metrics.getOrDefault("p90_daily_water_liters", 0.0),
             userQuery
         );
     }
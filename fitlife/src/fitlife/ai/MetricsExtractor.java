@@ -1,35 +1,119 @@
 package fitlife.ai;
 
+import fitlife.data.DailyRollup;
+import fitlife.data.DataStore;
+import fitlife.data.MealBreakdown;
+import fitlife.data.QuantileSketch;
+import fitlife.data.StringDictionary;
+import fitlife.data.TimeSeries;
+import fitlife.data.TimeSeries.Metric;
+import fitlife.data.TopKSketch;
+import fitlife.data.UserContext;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.*;
 
 /**
- * Extracts health metrics from FITLIFE data files
+ * Extracts health metrics from a user's FITLIFE record stores.
+ * Totals, extremes and food frequencies are read from the daily rollup and its month/year
+ * sketches rather than by scanning records, so there is no per-request scan to parallelize.
  */
 public class MetricsExtractor {
     
+    // Recent results by user and period; see extractMetrics
+    private static final int CACHE_ENTRIES = 32;
+    private static final Map<List<Object>, CachedMetrics> CACHE = Collections.synchronizedMap(
+            new LinkedHashMap<List<Object>, CachedMetrics>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<Object>, CachedMetrics> eldest) {
+                    return size() > CACHE_ENTRIES;
+                }
+            });
+    
+    /**
+     * A result and the rollup state it was computed from
+     */
+    private static class CachedMetrics {
+        final WeakReference<DailyRollup> rollup;
+        final long version;
+        final Map<String, Object> metrics;
+        
+        CachedMetrics(DailyRollup rollup, long version, Map<String, Object> metrics) {
+            this.rollup = new WeakReference<>(rollup);
+            this.version = version;
+            this.metrics = metrics;
+        }
+        
+        boolean isCurrent(DailyRollup current, long currentVersion) {
+            return rollup.get() == current && version == currentVersion;
+        }
+    }
+    
     /**
-     * Extract metrics from meals, steps, and water files for a date range
+     * Extract metrics for the local user
      * @param startDate start of analysis period
      * @param endDate end of analysis period
      * @return Map containing all extracted metrics
      */
     public static Map<String, Object> extractMetrics(LocalDate startDate, LocalDate endDate) {
+        return extractMetrics(UserContext.local(), startDate, endDate);
+    }
+    
+    /**
+     * Extract metrics from a user's meals, steps, and water stores for a date range.
+     * Results are cached against the rollup's change counter, so asking again for the same
+     * period before anything new is logged (backdated entries included) reads nothing.
+     * @param user whose partition to read
+     * @param startDate start of analysis period
+     * @param endDate end of analysis period
+     * @return Map containing all extracted metrics
+     */
+    public static Map<String, Object> extractMetrics(UserContext user, LocalDate startDate, LocalDate endDate) {
+        List<Object> key = Arrays.asList(user, startDate, endDate);
+        DailyRollup rollup;
+        long version;
+        try {
+            rollup = user.withPartition(p -> p.store().rollup());
+            // read before extracting: an entry landing mid-way leaves a stale stamp, not a stale hit
+            version = rollup.version();
+        } catch (IOException e) {
+            return computeMetrics(user, startDate, endDate);
+        }
+        CachedMetrics hit = CACHE.get(key);
+        if (hit != null && hit.isCurrent(rollup, version)) {
+            return new HashMap<>(hit.metrics);
+        }
+        Map<String, Object> metrics = computeMetrics(user, startDate, endDate);
+        CACHE.put(key, new CachedMetrics(rollup, version, new HashMap<>(metrics)));
+        return metrics;
+    }
+    
+    private static Map<String, Object> computeMetrics(UserContext user, LocalDate startDate, LocalDate endDate) {
         Map<String, Object> metrics = new HashMap<>();
+        int from = (int) startDate.toEpochDay();
+        int to = (int) endDate.toEpochDay();
         
-        // Extract calories from meals.txt
-        Map<String, Object> mealMetrics = extractMealMetrics(startDate, endDate);
+        // Totals, counts and extremes are O(1) range queries on the per-day series
+        TimeSeries series;
+        try {
+            series = user.withPartition(p -> p.store().series());
+        } catch (IOException e) {
+            // store unavailable: report an empty period
+            series = null;
+        }
+        
+        // Extract calories from the meals store
+        Map<String, Object> mealMetrics = extractMealMetrics(user, series, from, to);
         metrics.putAll(mealMetrics);
         
-        // Extract steps from steps.txt
-        Map<String, Object> stepMetrics = extractStepMetrics(startDate, endDate);
+        // Extract steps from the steps series
+        Map<String, Object> stepMetrics = extractStepMetrics(user, series, from, to);
         metrics.putAll(stepMetrics);
         
-        // Extract water from water.txt
-        Map<String, Object> waterMetrics = extractWaterMetrics(startDate, endDate);
+        // Extract water from the water series
+        Map<String, Object> waterMetrics = extractWaterMetrics(user, series, from, to);
         metrics.putAll(waterMetrics);
         
         // Add period info
@@ -42,143 +126,157 @@ public class MetricsExtractor {
     }
     
     /**
-     * Extract calorie metrics from meals.txt
+     * Extract calorie metrics from the daily series and the rollup's food sketches
      */
-    private static Map<String, Object> extractMealMetrics(LocalDate startDate, LocalDate endDate) {
+    private static Map<String, Object> extractMealMetrics(UserContext user, TimeSeries series, int from, int to) {
         Map<String, Object> result = new HashMap<>();
-        int totalCalories = 0;
-        Map<String, Integer> foodFrequency = new HashMap<>();
-        int mealCount = 0;
+        int totalCalories = series == null ? 0 : (int) series.sum(Metric.CALORIES, from, to);
+        int mealCount = series == null ? 0 : (int) series.sum(Metric.MEALS, from, to);
         
-        try {
-            List<String> meals = Files.readAllLines(Paths.get("meals.txt"));
-            for (String line : meals) {
-                String[] parts = line.split(",");
-                if (parts.length >= 5) {
-                    try {
-                        LocalDate mealDate = LocalDate.parse(parts[0]);
-                        if (!mealDate.isBefore(startDate) && !mealDate.isAfter(endDate)) {
-                            int calories = Integer.parseInt(parts[4]);
-                            String foodName = parts[2];
-                            
-                            totalCalories += calories;
-                            mealCount++;
-                            foodFrequency.put(foodName, foodFrequency.getOrDefault(foodName, 0) + 1);
-                        }
-                    } catch (NumberFormatException | java.time.format.DateTimeParseException e) {
-                        // Skip malformed lines
-                    }
+        List<String> topFoods = new ArrayList<>();
+        if (mealCount > 0) {
+            try {
+                for (TopKSketch.Entry<String> e : foodSketch(user, from, to).top(5)) {
+                    topFoods.add(e.key);
                 }
+            } catch (IOException e) {
+                // store unavailable or read error
             }
-        } catch (Exception e) {
-            // meals.txt doesn't exist yet or read error
         }
         
-        long daysBetween = ChronoUnit.DAYS.between(startDate, endDate) + 1;
+        List<String> byCategory = new ArrayList<>();
+        List<String> calorieSources = new ArrayList<>();
+        if (mealCount > 0) {
+            try {
+                MealBreakdown breakdown = user.withPartition(p -> MealBreakdown.of(p.store(), from, to));
+                byCategory = describeTotals(breakdown.categories(), 5, "Uncategorized");
+                calorieSources = describeTotals(breakdown.foods(), 5, "Unnamed meal");
+            } catch (IOException e) {
+                // store unavailable or read error
+            }
+        }
+        
+        long daysBetween = (long) to - from + 1;
         
         result.put("average_daily_calories", mealCount > 0 ? (int) (totalCalories / daysBetween) : 0);
         result.put("total_calories_logged", totalCalories);
         result.put("total_meals_logged", mealCount);
-        result.put("top_foods", getTopN(foodFrequency, 5));
+        result.put("top_foods", topFoods);
+        result.put("calories_by_category", byCategory);
+        result.put("top_calorie_sources", calorieSources);
+        
+        double[] pct = dailyPercentiles(user, Metric.CALORIES, from, to);
+        result.put("p10_daily_calories", (int) pct[0]);
+        result.put("median_daily_calories", (int) pct[1]);
+        result.put("p90_daily_calories", (int) pct[2]);
         
         return result;
     }
     
     /**
-     * Extract step metrics from steps.txt
+     * Extract step metrics from the daily series and the rollup's percentile sketches
      */
-    private static Map<String, Object> extractStepMetrics(LocalDate startDate, LocalDate endDate) {
+    private static Map<String, Object> extractStepMetrics(UserContext user, TimeSeries series, int from, int to) {
         Map<String, Object> result = new HashMap<>();
-        int totalSteps = 0;
-        int stepDays = 0;
-        int minSteps = Integer.MAX_VALUE;
-        int maxSteps = 0;
-        
-        try {
-            List<String> steps = Files.readAllLines(Paths.get("steps.txt"));
-            for (String line : steps) {
-                String[] parts = line.split(",");
-                if (parts.length >= 3) {
-                    try {
-                        LocalDate stepDate = LocalDate.parse(parts[0]);
-                        if (!stepDate.isBefore(startDate) && !stepDate.isAfter(endDate)) {
-                            int stepsValue = Integer.parseInt(parts[2]);
-                            totalSteps += stepsValue;
-                            stepDays++;
-                            minSteps = Math.min(minSteps, stepsValue);
-                            maxSteps = Math.max(maxSteps, stepsValue);
-                        }
-                    } catch (NumberFormatException | java.time.format.DateTimeParseException e) {
-                        // Skip malformed lines
-                    }
-                }
-            }
-        } catch (Exception e) {
-            // steps.txt doesn't exist yet or read error
-        }
+        int totalSteps = series == null ? 0 : (int) series.sum(Metric.STEPS, from, to);
+        int stepDays = series == null ? 0 : (int) series.sum(Metric.STEP_ENTRIES, from, to);
         
         result.put("average_daily_steps", stepDays > 0 ? totalSteps / stepDays : 0);
         result.put("total_steps_logged", totalSteps);
         result.put("step_days_logged", stepDays);
-        result.put("min_daily_steps", stepDays > 0 ? minSteps : 0);
-        result.put("max_daily_steps", stepDays > 0 ? maxSteps : 0);
+        result.put("min_daily_steps", stepDays > 0 ? (int) series.minEntry(Metric.STEPS, from, to) : 0);
+        result.put("max_daily_steps", stepDays > 0 ? (int) series.maxEntry(Metric.STEPS, from, to) : 0);
+        
+        double[] pct = dailyPercentiles(user, Metric.STEPS, from, to);
+        result.put("p10_daily_steps", (int) pct[0]);
+        result.put("median_daily_steps", (int) pct[1]);
+        result.put("p90_daily_steps", (int) pct[2]);
         
         return result;
     }
     
     /**
-     * Extract water metrics from water.txt
+     * Extract water metrics from the daily series and the rollup's percentile sketches
      */
-    private static Map<String, Object> extractWaterMetrics(LocalDate startDate, LocalDate endDate) {
+    private static Map<String, Object> extractWaterMetrics(UserContext user, TimeSeries series, int from, int to) {
         Map<String, Object> result = new HashMap<>();
-        double totalWater = 0;
-        int waterDays = 0;
-        double minWater = Double.MAX_VALUE;
-        double maxWater = 0;
-        
-        try {
-            List<String> water = Files.readAllLines(Paths.get("water.txt"));
-            for (String line : water) {
-                String[] parts = line.split(",");
-                if (parts.length >= 2) {
-                    try {
-                        LocalDate waterDate = LocalDate.parse(parts[0]);
-                        if (!waterDate.isBefore(startDate) && !waterDate.isAfter(endDate)) {
-                            double liters = Double.parseDouble(parts[parts.length - 1]);
-                            totalWater += liters;
-                            waterDays++;
-                            minWater = Math.min(minWater, liters);
-                            maxWater = Math.max(maxWater, liters);
-                        }
-                    } catch (NumberFormatException | java.time.format.DateTimeParseException e) {
-                        // Skip malformed lines
-                    }
-                }
-            }
-        } catch (Exception e) {
-            // water.txt doesn't exist yet or read error
-        }
+        double totalWater = series == null ? 0 : series.sum(Metric.LITERS, from, to);
+        int waterDays = series == null ? 0 : (int) series.sum(Metric.WATER_ENTRIES, from, to);
         
         result.put("average_daily_water_liters", waterDays > 0 ? totalWater / waterDays : 0.0);
         result.put("total_water_logged_liters", totalWater);
         result.put("water_days_logged", (double) waterDays);
-        result.put("min_daily_water_liters", waterDays > 0 ? minWater : 0.0);
-        result.put("max_daily_water_liters", waterDays > 0 ? maxWater : 0.0);
+        result.put("min_daily_water_liters", waterDays > 0 ? series.minEntry(Metric.LITERS, from, to) : 0.0);
+        result.put("max_daily_water_liters", waterDays > 0 ? series.maxEntry(Metric.LITERS, from, to) : 0.0);
+        
+        double[] pct = dailyPercentiles(user, Metric.LITERS, from, to);
+        result.put("p10_daily_water_liters", pct[0]);
+        result.put("median_daily_water_liters", pct[1]);
+        result.put("p90_daily_water_liters", pct[2]);
         
         return result;
     }
     
     /**
-     * Get top N items from frequency map
+     * The n entries with the most calories, e.g. "Lunch 42% (3150 kcal, 12 meals)"
      */
-    private static List<String> getTopN(Map<String, Integer> map, int n) {
-        if (map.isEmpty()) {
-            return new ArrayList<>();
+    private static List<String> describeTotals(MealBreakdown.Totals totals, int n, String blank) {
+        List<String> out = new ArrayList<>();
+        int[] ids = totals.ids();
+        for (int i = 0; i < ids.length && i < n; i++) {
+            int id = ids[i];
+            String name = totals.name(id).isBlank() ? blank : totals.name(id);
+            out.add(String.format(Locale.ROOT, "%s %.0f%% (%.0f kcal, %d %s)",
+                    name, totals.share(id) * 100, totals.calories(id), totals.meals(id), totals.meals(id) == 1 ? "meal" : "meals"));
         }
-        return map.entrySet().stream()
-            .sorted((a, b) -> b.getValue().compareTo(a.getValue()))
-            .limit(n)
-            .map(Map.Entry::getKey)
-            .toList();
+        return out;
+    }
+    
+    /**
+     * 10th, 50th and 90th percentile of a daily total over the days it was logged, from the
+     * rollup's bucket sketches (exact below 200 logged days, within about 1.65% of rank above)
+     * @return the three values, zeros when nothing was logged or the store is unavailable
+     */
+    private static double[] dailyPercentiles(UserContext user, Metric metric, int from, int to) {
+        try {
+            QuantileSketch sketch = user.withPartition(p -> p.store().rollup().dailyQuantiles(metric, from, to));
+            if (!sketch.isEmpty()) {
+                return sketch.quantiles(0.1, 0.5, 0.9);
+            }
+        } catch (IOException e) {
+            // store unavailable or read error
+        }
+        return new double[3];
+    }
+    
+    /**
+     * Most logged foods across several users, with error bounds; each user's sketch is keyed by
+     * food name and merged, so no meal records are read
+     * @param users whose meals to include
+     * @param startDate start of analysis period
+     * @param endDate end of analysis period
+     * @param n number of foods to return
+     * @return up to n foods, most logged first
+     */
+    public static List<TopKSketch.Entry<String>> topFoods(List<UserContext> users, LocalDate startDate, LocalDate endDate, int n)
+            throws IOException {
+        TopKSketch<String> merged = null;
+        for (UserContext user : users) {
+            TopKSketch<String> s = foodSketch(user, (int) startDate.toEpochDay(), (int) endDate.toEpochDay());
+            if (merged == null) merged = s;
+            else merged.merge(s);
+        }
+        return merged == null ? new ArrayList<>() : merged.top(n);
+    }
+    
+    /**
+     * A user's meal-count sketch for a day range, keyed by food name
+     */
+    private static TopKSketch<String> foodSketch(UserContext user, int from, int to) throws IOException {
+        return user.withPartition(p -> {
+            DataStore ds = p.store();
+            StringDictionary names = ds.mealNames();
+            return ds.rollup().topFoods(from, to).mapKeys(names::valueOf);
+        });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,58 @@
+package fitlife.ai;
+
+/**
+ * Token-bucket rate limiter. The bucket holds up to {@code capacity} tokens and refills at a steady
+ * rate; each request takes one. A request finding the bucket empty reserves the next token ahead
+ * of time and is told how long to wait for it, so callers can schedule instead of blocking.
+ */
+public class TokenBucket {
+
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;       // guarded by this; below zero while tokens are reserved ahead
+    private long refilled;       // guarded by this
+
+    /**
+     * @param capacity burst size, and the tokens the bucket starts with
+     * @param tokensPerSecond steady refill rate
+     */
+    public TokenBucket(int capacity, double tokensPerSecond) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1.");
+        }
+        if (!(tokensPerSecond > 0)) {
+            throw new IllegalArgumentException("tokensPerSecond must be positive.");
+        }
+        this.capacity = capacity;
+        this.tokensPerNano = tokensPerSecond / 1e9;
+        this.tokens = capacity;
+        this.refilled = System.nanoTime();
+    }
+
+    /**
+     * Take a token, now or once it has refilled
+     * @param maxWaitNanos longest acceptable wait
+     * @return nanoseconds to wait before using the token, or -1 (and nothing taken) when that
+     *         would be longer than maxWaitNanos
+     */
+    public synchronized long reserve(long maxWaitNanos) {
+        refill();
+        double after = tokens - 1;
+        long wait = after >= 0 ? 0 : (long) Math.ceil(-after / tokensPerNano);
+        if (wait > maxWaitNanos) return -1;
+        tokens = after;
+        return wait;
+    }
+
+    // Tokens in the bucket; negative while requests wait on reserved tokens
+    public synchronized double available() {
+        refill();
+        return tokens;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - refilled) * tokensPerNano);
+        refilled = now;
+    }
+}
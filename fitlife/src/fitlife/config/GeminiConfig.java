@@ -1,5 +1,9 @@
 package fitlife.config;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+
 /**
  * Protected configuration class for Gemini API credentials.
  * DO NOT expose API key in version control.
@@ -9,6 +13,10 @@ public class GeminiConfig {
     
     private static final String MODEL_NAME = "gemini-2.0-flash-lite";
     private static final String API_KEY = System.getenv("GEMINI_API_KEY");
+    private static final String DEFAULT_ENDPOINT =
+            "https://generativelanguage.googleapis.com/v1beta/models/" + MODEL_NAME + ":generateContent";
+    private static final int DEFAULT_TIMEOUT_SECONDS = 30;
+    private static final int DEFAULT_REQUESTS_PER_MINUTE = 30;
     
     /**
      * Get the Gemini model name
@@ -40,4 +48,76 @@ public class GeminiConfig {
     public static boolean isApiKeyConfigured() {
         return API_KEY != null && !API_KEY.trim().isEmpty();
     }
+    
+    /**
+     * Get the generateContent endpoint, overridable with the gemini.endpoint system property or
+     * the GEMINI_API_ENDPOINT environment variable (e.g. to point at a local stub server)
+     * @return endpoint URL without query string
+     */
+    public static String getApiEndpoint() {
+        String endpoint = setting("gemini.endpoint", "GEMINI_API_ENDPOINT");
+        return endpoint != null ? endpoint : DEFAULT_ENDPOINT;
+    }
+    
+    /**
+     * Get the streamGenerateContent (server-sent events) endpoint: the gemini.streamEndpoint system
+     * property or GEMINI_STREAM_ENDPOINT environment variable, else derived from the
+     * generateContent endpoint
+     * @return endpoint URL without query string
+     */
+    public static String getStreamEndpoint() {
+        String endpoint = setting("gemini.streamEndpoint", "GEMINI_STREAM_ENDPOINT");
+        return endpoint != null ? endpoint : getApiEndpoint().replace(":generateContent", ":streamGenerateContent");
+    }
+    
+    /**
+     * Get the default deadline for one analysis request, overridable in whole seconds with the
+     * gemini.timeoutSeconds system property or the GEMINI_TIMEOUT_SECONDS environment variable
+     * @return request deadline
+     */
+    public static Duration getRequestTimeout() {
+        String seconds = setting("gemini.timeoutSeconds", "GEMINI_TIMEOUT_SECONDS");
+        try {
+            if (seconds != null && Integer.parseInt(seconds) > 0) {
+                return Duration.ofSeconds(Integer.parseInt(seconds));
+            }
+        } catch (NumberFormatException e) {
+            // fall back to the default
+        }
+        return Duration.ofSeconds(DEFAULT_TIMEOUT_SECONDS);
+    }
+    
+    /**
+     * Get the client-side limit on Gemini requests, retries included, overridable with the
+     * gemini.requestsPerMinute system property or the GEMINI_REQUESTS_PER_MINUTE environment variable
+     * @return requests per minute
+     */
+    public static int getRequestsPerMinute() {
+        String rpm = setting("gemini.requestsPerMinute", "GEMINI_REQUESTS_PER_MINUTE");
+        try {
+            if (rpm != null && Integer.parseInt(rpm) > 0) {
+                return Integer.parseInt(rpm);
+            }
+        } catch (NumberFormatException e) {
+            // fall back to the default
+        }
+        return DEFAULT_REQUESTS_PER_MINUTE;
+    }
+    
+    /**
+     * Get the directory analysis results are cached in, overridable with the gemini.cacheDir
+     * system property or the GEMINI_CACHE_DIR environment variable
+     * @return cache directory, data/ai-cache by default
+     */
+    public static Path getCacheDirectory() {
+        String dir = setting("gemini.cacheDir", "GEMINI_CACHE_DIR");
+        return dir != null ? Paths.get(dir) : Paths.get("data", "ai-cache");
+    }
+    
+    // A system property, else an environment variable; null when neither is set
+    private static String setting(String property, String env) {
+        String value = System.getProperty(property);
+        if (value == null || value.trim().isEmpty()) value = System.getenv(env);
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
 }
@@ -1,16 +1,11 @@
 package fitlife.core;
 
+import fitlife.data.DataStore;
 import fitlife.data.Savable;
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import fitlife.data.UserContext;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.time.LocalDate;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 
 public class CalorieTracker extends Tracker implements Savable {
 
@@ -19,70 +14,9 @@ public class CalorieTracker extends Tracker implements Savable {
     private int calories;
     private String category;
 
-    private static final String FOODS_FILE = "foods.txt";
-    private static final String MEALS_FILE = "meals.txt";
-    private static final Map<String, Double> caloriesPerGramMap = new HashMap<>();
-
-    // load known foods on class initialization
-    static {
-        loadFoods();
-    }
-
-    private static void loadFoods() {
-        File f = new File(FOODS_FILE);
-        if (!f.exists()) return;
-        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length >= 2) {
-                    String name = parts[0].trim().toLowerCase(Locale.ROOT);
-                    try {
-                        double cpg = Double.parseDouble(parts[1].trim());
-                        caloriesPerGramMap.put(name, cpg);
-                    } catch (NumberFormatException ex) {
-                        // ignore malformed line
-                    }
-                }
-            }
-        } catch (IOException e) {
-            // ignore load errors
-        }
-    }
-
-    private static void saveFoods() throws IOException {
-        try (PrintWriter pw = new PrintWriter(new FileWriter(FOODS_FILE, false))) {
-            for (Map.Entry<String, Double> e : caloriesPerGramMap.entrySet()) {
-                pw.println(e.getKey() + "," + e.getValue());
-            }
-        }
-    }
-
     // Constructor when calories are provided (first time or explicit)
     public CalorieTracker(String mealName, double quantityGrams, int calories, String category) {
-        super();
-        this.mealName = mealName;
-        this.quantityGrams = quantityGrams;
-        this.category = category;
-
-        String key = (mealName == null) ? "" : mealName.toLowerCase(Locale.ROOT);
-        if (calories > 0 && quantityGrams > 0) {
-            this.calories = calories;
-            double cpg = calories / quantityGrams;
-            caloriesPerGramMap.put(key, cpg);
-            try {
-                saveFoods();
-            } catch (IOException e) {
-                // ignore save errors (could log)
-            }
-        } else {
-            Double cpg = caloriesPerGramMap.get(key);
-            if (cpg != null) {
-                this.calories = (int) Math.round(cpg * quantityGrams);
-            } else {
-                this.calories = 0; // unknown until user provides calories
-            }
-        }
+        this(LocalDate.now(), mealName, quantityGrams, calories, category);
     }
 
     // Convenience constructor when calories are omitted (lookup only)
@@ -92,23 +26,40 @@ public class CalorieTracker extends Tracker implements Savable {
 
     // New constructor allowing explicit date
     public CalorieTracker(LocalDate date, String mealName, double quantityGrams, int calories, String category) {
-        super(date);
+        this(UserContext.local(), date, mealName, quantityGrams, calories, category);
+    }
+
+    // New constructor allowing explicit date with calories omitted -> delegate to 5-arg ctor
+    public CalorieTracker(LocalDate date, String mealName, double quantityGrams, String category) {
+        this(date, mealName, quantityGrams, 0, category);
+    }
+
+    // Entry for a specific user; calories are learned into or looked up from that user's food catalog
+    public CalorieTracker(UserContext user, LocalDate date, String mealName, double quantityGrams, int calories, String category) {
+        super(user, date);
         this.mealName = mealName;
         this.quantityGrams = quantityGrams;
         this.category = category;
 
-        String key = (mealName == null) ? "" : mealName.toLowerCase(Locale.ROOT);
         if (calories > 0 && quantityGrams > 0) {
             this.calories = calories;
             double cpg = calories / quantityGrams;
-            caloriesPerGramMap.put(key, cpg);
             try {
-                saveFoods();
+                user.withPartition(p -> {
+                    p.foods().learn(mealName, cpg);
+                    return null;
+                });
             } catch (IOException e) {
                 // ignore save errors (could log)
             }
         } else {
-            Double cpg = caloriesPerGramMap.get(key);
+            Double cpg = null;
+            try {
+                // exact name only: a near miss ("ham" vs "jam") is a different food
+                cpg = user.withPartition(p -> p.foods().caloriesPerGram(mealName));
+            } catch (IOException e) {
+                // catalog unavailable; calories stay unknown
+            }
             if (cpg != null) {
                 this.calories = (int) Math.round(cpg * quantityGrams);
             } else {
@@ -117,11 +68,6 @@ public class CalorieTracker extends Tracker implements Savable {
         }
     }
 
-    // New constructor allowing explicit date with calories omitted -> delegate to 5-arg ctor
-    public CalorieTracker(LocalDate date, String mealName, double quantityGrams, String category) {
-        this(date, mealName, quantityGrams, 0, category);
-    }
-
     public int getCalories() {
         return calories;
     }
@@ -136,8 +82,17 @@ public class CalorieTracker extends Tracker implements Savable {
 
     @Override
     public void saveToFile() throws IOException {
-        FileWriter fw = new FileWriter(MEALS_FILE, true);
-        fw.write(getDataAsString() + System.lineSeparator());
-        fw.close();
+        DataStore.await(saveAsync());
+    }
+
+    // Queue the entry on the user's journal; the future completes once it is committed, and TrackerEvents then announces it
+    @Override
+    public CompletableFuture<Void> saveAsync() {
+        try {
+            CompletableFuture<Void> saved = user.withPartition(p -> p.store().submitMeal((int) date.toEpochDay(), mealName, category, calories, quantityGrams));
+            return TrackerEvents.publishOnCommit(saved, EntryLogged.meal(user, date, mealName, category, calories, quantityGrams));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
     }
 }
@@ -0,0 +1,80 @@
+package fitlife.core;
+
+import fitlife.data.UserContext;
+import java.time.LocalDate;
+
+/**
+ * Event published by {@link TrackerEvents} once a tracker entry has been committed.
+ */
+public final class EntryLogged {
+
+    public enum Kind { MEAL, STEPS, WATER }
+
+    private final Kind kind;
+    private final UserContext user;
+    private final LocalDate date;
+    private final String mealName;
+    private final String category;
+    private final double amount;
+    private final double grams;
+
+    EntryLogged(Kind kind, UserContext user, LocalDate date, String mealName, String category, double amount, double grams) {
+        this.kind = kind;
+        this.user = user;
+        this.date = date;
+        this.mealName = mealName;
+        this.category = category;
+        this.amount = amount;
+        this.grams = grams;
+    }
+
+    static EntryLogged meal(UserContext user, LocalDate date, String mealName, String category, double calories, double grams) {
+        return new EntryLogged(Kind.MEAL, user, date, mealName, category, calories, grams);
+    }
+
+    static EntryLogged steps(UserContext user, LocalDate date, double steps) {
+        return new EntryLogged(Kind.STEPS, user, date, null, null, steps, 0);
+    }
+
+    static EntryLogged water(UserContext user, LocalDate date, double liters) {
+        return new EntryLogged(Kind.WATER, user, date, null, null, liters, 0);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public UserContext getUser() {
+        return user;
+    }
+
+    // The day the entry was logged for, which may be in the past
+    public LocalDate getDate() {
+        return date;
+    }
+
+    // Meal name and category; null for steps and water
+    public String getMealName() {
+        return mealName;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    // Calories, steps or liters depending on the kind
+    public double getAmount() {
+        return amount;
+    }
+
+    // Meal quantity in grams, 0 for steps and water
+    public double getGrams() {
+        return grams;
+    }
+
+    @Override
+    public String toString() {
+        return "EntryLogged[" + kind + " " + user.getUserId() + " " + date + " " + amount
+                + (mealName != null ? " " + mealName : "") + "]";
+    }
+}
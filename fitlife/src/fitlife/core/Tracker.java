@@ -1,33 +1,43 @@
 package fitlife.core;
 
+import fitlife.data.TimeSeries;
+import fitlife.data.TimeSeries.Metric;
+import fitlife.data.UserContext;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
+import java.io.IOException;
 import java.util.Locale;
 import java.time.format.TextStyle;
 
 public abstract class Tracker {
+    protected final UserContext user;
     protected LocalDate date;
     protected String day;
 
     // removed the incorrect getDay() method that caused infinite recursion
 
     public Tracker() {
-        this.date = LocalDate.now();
-        this.day = this.date.getDayOfWeek().getDisplayName(TextStyle.FULL, Locale.ENGLISH);
-        // this.day initialization moved to constructor
+        this(UserContext.local(), LocalDate.now());
     }
 
     // New ctor to allow creating entries for a specific date
     public Tracker(LocalDate date) {
+        this(UserContext.local(), date);
+    }
+
+    // Entry for a specific user and date
+    public Tracker(UserContext user, LocalDate date) {
+        this.user = user;
         this.date = date;
         this.day = this.date.getDayOfWeek().getDisplayName(TextStyle.FULL, Locale.ENGLISH);
         // this.day initialization moved to constructor
     }
 
+    public UserContext getUser() {
+        return user;
+    }
+
     public LocalDate getDate() {
         return date;
     }
@@ -40,9 +50,13 @@ public abstract class Tracker {
     // Every tracker will save data, so force them to implement this
     public abstract String getDataAsString();
 
-    // Aggregate weekly summary across meals.txt, steps.txt, water.txt
+    // Aggregate weekly summary from the daily series of meals, steps and water
     // startDateIso must be yyyy-MM-dd
     public static String generateWeeklySummary(String startDateIso) {
+        return generateWeeklySummary(UserContext.local(), startDateIso);
+    }
+
+    public static String generateWeeklySummary(UserContext user, String startDateIso) {
         DateTimeFormatter fmt = DateTimeFormatter.ISO_LOCAL_DATE;
         LocalDate start;
         try {
@@ -55,80 +69,12 @@ public abstract class Tracker {
         int[] stepsPerDay = new int[7];
         double[] waterPerDay = new double[7]; // liters per day
 
-        // meals.txt expected format (new CalorieTracker): date,day,mealName,quantityGrams,calories,category
-        File meals = new File("meals.txt");
-        if (meals.exists()) {
-            try (BufferedReader br = new BufferedReader(new FileReader(meals))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    String[] p = line.split(",");
-                    if (p.length >= 5) {
-                        try {
-                            LocalDate d = LocalDate.parse(p[0].trim(), fmt);
-                            int idx = (int) java.time.Duration.between(start.atStartOfDay(), d.atStartOfDay()).toDays();
-                            if (idx >= 0 && idx < 7) {
-                                // calories expected at index 4 in the new format
-                                double kcal = Double.parseDouble(p[4].trim());
-                                calPerDay[idx] += kcal;
-                            }
-                        } catch (Exception e) {
-                            // skip malformed line
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                // ignore read errors
-            }
-        }
-
-        // steps.txt expected format: date,day,steps
-        File steps = new File("steps.txt");
-        if (steps.exists()) {
-            try (BufferedReader br = new BufferedReader(new FileReader(steps))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    String[] p = line.split(",");
-                    if (p.length >= 3) {
-                        try {
-                            LocalDate d = LocalDate.parse(p[0].trim(), fmt);
-                            int idx = (int) java.time.Duration.between(start.atStartOfDay(), d.atStartOfDay()).toDays();
-                            if (idx >= 0 && idx < 7) {
-                                int s = Integer.parseInt(p[2].trim());
-                                stepsPerDay[idx] += s;
-                            }
-                        } catch (Exception e) {
-                            // skip malformed line
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                // ignore
-            }
-        }
-
-        // water.txt expected format: date,day,liters  (tolerant parsing)
-        File water = new File("water.txt");
-        if (water.exists()) {
-            try (BufferedReader br = new BufferedReader(new FileReader(water))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    String[] p = line.split(",");
-                    if (p.length >= 3) {
-                        try {
-                            LocalDate d = LocalDate.parse(p[0].trim(), fmt);
-                            int idx = (int) java.time.Duration.between(start.atStartOfDay(), d.atStartOfDay()).toDays();
-                            if (idx >= 0 && idx < 7) {
-                                double liters = Double.parseDouble(p[2].trim());
-                                waterPerDay[idx] += liters;
-                            }
-                        } catch (Exception e) {
-                            // skip malformed line
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                // ignore
-            }
+        int startDay = (int) start.toEpochDay();
+        TimeSeries series = series(user);
+        for (int i = 0; i < 7; i++) {
+            calPerDay[i] = series.value(Metric.CALORIES, startDay + i);
+            stepsPerDay[i] = (int) series.value(Metric.STEPS, startDay + i);
+            waterPerDay[i] = series.value(Metric.LITERS, startDay + i);
         }
 
         StringBuilder sb = new StringBuilder();
@@ -178,4 +124,69 @@ public abstract class Tracker {
 
         return sb.toString();
     }
+
+    // Summary for any period, e.g. a month or a year: totals, averages, best/worst days,
+    // a per-day (up to 31 days) or per-month breakdown, and rolling averages up to endDate.
+    // Every figure is a constant-time lookup on the daily series, whatever the period length.
+    public static String generatePeriodSummary(UserContext user, LocalDate start, LocalDate end) {
+        if (end.isBefore(start)) {
+            return "End date must not be before the start date.";
+        }
+        int from = (int) start.toEpochDay();
+        int to = (int) end.toEpochDay();
+        long days = (long) to - from + 1;
+        TimeSeries series = series(user);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("Summary ").append(start).append(" to ").append(end)
+          .append(" (").append(days).append(" days)").append(System.lineSeparator());
+        sb.append(String.format("Calories: total %.0f kcal, %.2f kcal/day, highest day %.0f, lowest day %.0f%n",
+                series.sum(Metric.CALORIES, from, to), series.average(Metric.CALORIES, from, to),
+                orZero(series.max(Metric.CALORIES, from, to)), orZero(series.min(Metric.CALORIES, from, to))));
+        sb.append(String.format("Steps: total %.0f, %.2f steps/day, best day %.0f, lowest day %.0f%n",
+                series.sum(Metric.STEPS, from, to), series.average(Metric.STEPS, from, to),
+                orZero(series.max(Metric.STEPS, from, to)), orZero(series.min(Metric.STEPS, from, to))));
+        sb.append(String.format("Water: total %.2f L, %.2f L/day, best day %.2f L, lowest day %.2f L%n",
+                series.sum(Metric.LITERS, from, to), series.average(Metric.LITERS, from, to),
+                orZero(series.max(Metric.LITERS, from, to)), orZero(series.min(Metric.LITERS, from, to))));
+
+        sb.append(System.lineSeparator());
+        if (days <= 31) {
+            for (int d = from; d <= to; d++) {
+                sb.append(String.format("%s: calories=%.2f, steps=%.0f, water_liters=%.2f%n", LocalDate.ofEpochDay(d),
+                        series.value(Metric.CALORIES, d), series.value(Metric.STEPS, d), series.value(Metric.LITERS, d)));
+            }
+        } else {
+            sb.append("Per month (daily averages):").append(System.lineSeparator());
+            for (LocalDate m = start.withDayOfMonth(1); !m.isAfter(end); m = m.plusMonths(1)) {
+                int a = Math.max(from, (int) m.toEpochDay());
+                int b = Math.min(to, (int) m.plusMonths(1).minusDays(1).toEpochDay());
+                sb.append(String.format("%s: calories=%.2f, steps=%.2f, water_liters=%.2f%n", m.getMonth().getDisplayName(TextStyle.SHORT, Locale.ENGLISH) + " " + m.getYear(),
+                        series.average(Metric.CALORIES, a, b), series.average(Metric.STEPS, a, b), series.average(Metric.LITERS, a, b)));
+            }
+        }
+
+        sb.append(System.lineSeparator()).append("Rolling averages ending ").append(end).append(':').append(System.lineSeparator());
+        for (int window : new int[] {7, 30, 90, 365}) {
+            sb.append(String.format("%3d days: calories=%.2f, steps=%.2f, water_liters=%.2f%n", window,
+                    series.average(Metric.CALORIES, to - window + 1, to),
+                    series.average(Metric.STEPS, to - window + 1, to),
+                    series.average(Metric.LITERS, to - window + 1, to)));
+        }
+        return sb.toString();
+    }
+
+    // The user's current daily series; empty if the store cannot be opened
+    static TimeSeries series(UserContext user) {
+        try {
+            return user.withPartition(p -> p.store().series());
+        } catch (IOException e) {
+            // ignore read errors
+            return TimeSeries.empty();
+        }
+    }
+
+    private static double orZero(double v) {
+        return Double.isNaN(v) ? 0 : v;
+    }
 }
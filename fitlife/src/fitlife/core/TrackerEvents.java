@@ -0,0 +1,225 @@
+package fitlife.core;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * In-process stream of {@link EntryLogged} events, one per tracker entry, published once the
+ * entry is committed and visible to readers.
+ *
+ * Built on {@link SubmissionPublisher}: each subscriber gets its own bounded buffer, runs on its
+ * own delivery thread and receives only as many events as it has requested. Committed entries are
+ * handed to one publishing thread, in order, through a queue of at most {@link #HANDOFF} events,
+ * so the journals never wait on subscribers. The publishing thread waits up to
+ * {@link #MAX_WAIT_MILLIS} for a subscriber whose buffer is full.
+ *
+ * A subscriber that is still full after that, or every subscriber when the hand-off queue
+ * overflows, is never left to drift: it is unsubscribed at once (so it holds up no one), then
+ * subscribed afresh and told to resync before it gets the next event. Entries imported in bulk
+ * are not published.
+ */
+public final class TrackerEvents {
+
+    // per-subscriber buffer; grows on demand up to this, so a burst of entries fits
+    static final int BUFFER = 8192;
+    // committed entries waiting for the publishing thread
+    static final int HANDOFF = 4096;
+    // how long the publishing thread waits on a subscriber whose buffer is full
+    static final long MAX_WAIT_MILLIS = 100;
+
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static final AtomicLong RESYNCS = new AtomicLong();
+    private static final Set<Listener> LISTENERS = new CopyOnWriteArraySet<>();
+    // subscribers run on their own threads, so a slow one cannot starve the others
+    private static final ExecutorService DELIVERY = Executors.newCachedThreadPool(daemon("fitlife-events"));
+    private static final ExecutorService PUBLISHING = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(HANDOFF), daemon("fitlife-events-publish"), (r, pool) -> {
+                // the event is lost to everyone, so everyone resyncs
+                DROPPED.incrementAndGet();
+                for (Listener l : LISTENERS) l.overflow(null);
+            });
+    private static final SubmissionPublisher<EntryLogged> PUBLISHER = new SubmissionPublisher<>(DELIVERY, BUFFER);
+
+    private TrackerEvents() {
+    }
+
+    /**
+     * Call the action for every event, a few at a time. If events are lost (the listener fell
+     * more than {@link #BUFFER} events behind), onResync runs, on the same thread and before the
+     * next event, so the subscriber can rebuild what it keeps from the store. Events delivered
+     * after a resync may already be reflected in what it read. Cancel the returned listener to stop.
+     */
+    public static Listener subscribe(Consumer<EntryLogged> action, Runnable onResync) {
+        Listener l = new Listener(action, onResync);
+        LISTENERS.add(l);
+        l.start();
+        return l;
+    }
+
+    // Events that did not reach a subscriber and were covered by a resync instead
+    public static long droppedEvents() {
+        return DROPPED.get();
+    }
+
+    // Resyncs requested from subscribers
+    public static long resyncs() {
+        return RESYNCS.get();
+    }
+
+    // Publish the event once the save has committed (a failed save publishes nothing); returns saved
+    static CompletableFuture<Void> publishOnCommit(CompletableFuture<Void> saved, EntryLogged event) {
+        saved.thenRunAsync(() -> PUBLISHER.offer(event, MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS, (subscriber, dropped) -> {
+            DROPPED.incrementAndGet();
+            ((Listener.Subscription) subscriber).overflow();
+            return false;
+        }), PUBLISHING);
+        return saved;
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Feeds events to a callback, requesting them in small batches. Each subscription to the
+     * publisher is a fresh {@link Flow.Subscriber}; after an overflow the old one is cancelled
+     * and ignored, and the new one starts with a resync.
+     */
+    public static final class Listener {
+        private static final int BATCH = 32;
+
+        private final Consumer<EntryLogged> action;
+        private final Runnable onResync;
+        // held while calling back, so events and resyncs never overlap
+        private final Object delivery = new Object();
+        private Subscription current;       // guarded by this
+        private volatile boolean cancelled;
+
+        Listener(Consumer<EntryLogged> action, Runnable onResync) {
+            this.action = action;
+            this.onResync = onResync;
+        }
+
+        private void start() {
+            Subscription s;
+            synchronized (this) {
+                s = current = new Subscription(false);
+            }
+            PUBLISHER.subscribe(s);
+        }
+
+        // Replace the subscription `from` (any, when null) with a fresh one that resyncs first
+        void overflow(Subscription from) {
+            Subscription next;
+            Subscription old;
+            synchronized (this) {
+                if (cancelled || (from != null && from != current) || (current.resync && !current.resyncing)) {
+                    // already replaced, or the replacement has not read the store yet and so covers this
+                    return;
+                }
+                old = current;
+                next = current = new Subscription(true);
+            }
+            RESYNCS.incrementAndGet();
+            if (old != null) old.cancel();
+            PUBLISHER.subscribe(next);
+        }
+
+        public void cancel() {
+            Subscription s;
+            synchronized (this) {
+                cancelled = true;
+                s = current;
+            }
+            LISTENERS.remove(this);
+            if (s != null) s.cancel();
+        }
+
+        private synchronized boolean isCurrent(Subscription s) {
+            return s == current && !cancelled;
+        }
+
+        final class Subscription implements Flow.Subscriber<EntryLogged> {
+            final boolean resync;
+            volatile boolean resyncing;
+            volatile Flow.Subscription subscription;
+            private int untilRequest;
+
+            Subscription(boolean resync) {
+                this.resync = resync;
+            }
+
+            void overflow() {
+                Listener.this.overflow(this);
+            }
+
+            void cancel() {
+                Flow.Subscription s = subscription;
+                if (s != null) s.cancel();
+            }
+
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                subscription = s;
+                if (!isCurrent(this)) {
+                    s.cancel();
+                    return;
+                }
+                if (resync) {
+                    // after the stuck callback (if any) has returned, and before any new event
+                    synchronized (delivery) {
+                        resyncing = true;
+                        try {
+                            onResync.run();
+                        } catch (RuntimeException e) {
+                            // a failing callback must not end the subscription
+                        }
+                    }
+                }
+                untilRequest = BATCH / 2;
+                s.request(BATCH);
+            }
+
+            @Override
+            public void onNext(EntryLogged event) {
+                // events still buffered for a replaced subscription are covered by the resync
+                if (!isCurrent(this)) return;
+                synchronized (delivery) {
+                    try {
+                        action.accept(event);
+                    } catch (RuntimeException e) {
+                        // a failing callback must not end the subscription
+                    }
+                }
+                // top up by half a batch whenever half a batch has been handled
+                if (--untilRequest == 0) {
+                    untilRequest = BATCH / 2;
+                    subscription.request(BATCH / 2);
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        }
+    }
+}
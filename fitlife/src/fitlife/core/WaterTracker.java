@@ -1,28 +1,37 @@
 package fitlife.core;
 
+import fitlife.data.DataStore;
 import fitlife.data.Savable;
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import fitlife.data.TimeSeries;
+import fitlife.data.TimeSeries.Metric;
+import fitlife.data.UserContext;
 import java.io.IOException;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.time.format.TextStyle;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 
 public class WaterTracker extends Tracker implements Savable {
 
     // changed: store liters (double)
     private double liters;  // in liters
 
-    private static final String WATER_FILE = "water.txt";
     private static final DateTimeFormatter DATE_FMT = DateTimeFormatter.ISO_LOCAL_DATE;
 
     // Use today's date
     public WaterTracker(double liters) {
-        super();
+        this(LocalDate.now(), liters);
+    }
+
+    // Entry for a specific date
+    public WaterTracker(LocalDate date, double liters) {
+        this(UserContext.local(), date, liters);
+    }
+
+    public WaterTracker(UserContext user, LocalDate date, double liters) {
+        super(user, date);
         this.liters = liters;
     }
 
@@ -39,27 +48,41 @@ public class WaterTracker extends Tracker implements Savable {
 
     @Override
     public void saveToFile() throws IOException {
-        try (FileWriter fw = new FileWriter(WATER_FILE, true)) {
-            fw.write(getDataAsString() + System.lineSeparator());
+        DataStore.await(saveAsync());
+    }
+
+    // Queue the entry on the user's journal; the future completes once it is committed, and TrackerEvents then announces it
+    @Override
+    public CompletableFuture<Void> saveAsync() {
+        try {
+            CompletableFuture<Void> saved = user.withPartition(p -> p.store().submitWater((int) getDate().toEpochDay(), liters));
+            return TrackerEvents.publishOnCommit(saved, EntryLogged.water(user, getDate(), liters));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
         }
     }
 
-    // Log for a specific date (dateIso = "yyyy-MM-dd"), tolerant to old two-column format
+    // Log for a specific date (dateIso = "yyyy-MM-dd"), falls back to today on a bad date
     public static void logDaily(String dateIso, double liters) throws IOException {
+        logDaily(UserContext.local(), dateIso, liters);
+    }
+
+    public static void logDaily(UserContext user, String dateIso, double liters) throws IOException {
         LocalDate d;
         try {
             d = LocalDate.parse(dateIso, DATE_FMT);
         } catch (DateTimeParseException ex) {
             d = LocalDate.now();
         }
-        String dayName = d.getDayOfWeek().getDisplayName(TextStyle.FULL, Locale.ENGLISH);
-        try (FileWriter fw = new FileWriter(WATER_FILE, true)) {
-            fw.write(d.toString() + "," + dayName + "," + String.format(Locale.ROOT, "%.2f", liters) + System.lineSeparator());
-        }
+        new WaterTracker(user, d, liters).saveToFile();
     }
 
     // Generate a weekly report starting from startDateIso (inclusive). Average is over 7 days.
     public static String generateWeeklyReport(String startDateIso) {
+        return generateWeeklyReport(UserContext.local(), startDateIso);
+    }
+
+    public static String generateWeeklyReport(UserContext user, String startDateIso) {
         LocalDate start;
         try {
             start = LocalDate.parse(startDateIso, DATE_FMT);
@@ -68,35 +91,10 @@ public class WaterTracker extends Tracker implements Savable {
         }
 
         double[] waterPerDay = new double[7]; // liters per day
-
-        File f = new File(WATER_FILE);
-        if (f.exists()) {
-            try (BufferedReader br = new BufferedReader(new FileReader(f))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    String[] parts = line.split(",");
-                    if (parts.length >= 2) {
-                        try {
-                            LocalDate d = LocalDate.parse(parts[0].trim(), DATE_FMT);
-                            int idx = (int) java.time.Duration.between(start.atStartOfDay(), d.atStartOfDay()).toDays();
-                            if (idx >= 0 && idx < 7) {
-                                double val;
-                                if (parts.length >= 3) {
-                                    val = Double.parseDouble(parts[2].trim());
-                                } else {
-                                    // legacy format: date,amount (assume liters)
-                                    val = Double.parseDouble(parts[1].trim());
-                                }
-                                waterPerDay[idx] += val;
-                            }
-                        } catch (Exception e) {
-                            // skip malformed line
-                        }
-                    }
-                }
-            } catch (IOException e) {
-                // ignore read errors
-            }
+        int startDay = (int) start.toEpochDay();
+        TimeSeries series = series(user);
+        for (int i = 0; i < 7; i++) {
+            waterPerDay[i] = series.value(Metric.LITERS, startDay + i);
         }
 
         StringBuilder sb = new StringBuilder();
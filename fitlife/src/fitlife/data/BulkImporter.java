@@ -0,0 +1,464 @@
+package fitlife.data;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parallel bulk import of exported tracker history (meals, steps or water CSV files).
+ *
+ * The input is cut into line-aligned chunks which are parsed on a fork-join pool with
+ * {@link CsvLineParser}. Rows are validated, rows that are already stored are dropped, and the
+ * rest are sorted by date and written to the record store in one pass. Malformed, invalid and
+ * already-stored lines are written unchanged to a rejects file for review.
+ *
+ * Legacy rows carry no time of day, so two identical rows in one file (two coffees of the same
+ * size) are both kept. A row counts as already stored only while the store holds more copies of
+ * it than the rows before it in the file have used up, so importing the same file twice adds
+ * nothing the second time.
+ */
+public class BulkImporter {
+
+    private static final int CHUNK_BYTES = 8 << 20;
+    private static final int WRITE_BATCH = 1 << 16;
+
+    private final DataStore ds;
+    private final ForkJoinPool pool;
+    private boolean dedupe = true;
+
+    public BulkImporter(DataStore ds, int parallelism) {
+        this.ds = ds;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    public BulkImporter(DataStore ds) {
+        this(ds, Runtime.getRuntime().availableProcessors());
+    }
+
+    // Import every row, even those the store already holds
+    public BulkImporter keepDuplicates() {
+        this.dedupe = false;
+        return this;
+    }
+
+    // Stop the importer's worker threads
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Outcome of one import.
+     */
+    public static class Result {
+        public long linesRead;
+        public long imported;
+        public long duplicates;
+        public long malformed;
+        public long invalid;
+        public long elapsedNanos;
+        public Path rejectsFile;
+
+        public double rowsPerSecond() {
+            return elapsedNanos == 0 ? 0.0 : linesRead * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Read %d lines: imported %d, duplicates %d, malformed %d, invalid %d "
+                    + "in %.2f s (%.0f rows/s)%s", linesRead, imported, duplicates, malformed, invalid,
+                    elapsedNanos / 1e9, rowsPerSecond(),
+                    rejectsFile == null ? "" : System.lineSeparator() + "Rejected lines written to " + rejectsFile);
+        }
+    }
+
+    /**
+     * Import a CSV file into the given family (DataStore.MEALS, STEPS or WATER).
+     * Rejected lines go to {@code <input>.rejected}.
+     */
+    public Result importFile(Path input, String family) throws IOException {
+        return importFile(input, family, input.resolveSibling(input.getFileName() + ".rejected"));
+    }
+
+    public Result importFile(Path input, String family, Path rejectsFile) throws IOException {
+        ds.store(family); // validates the family name
+        long t0 = System.nanoTime();
+        Result result = new Result();
+
+        Rows rows;
+        try (FileChannel ch = FileChannel.open(input, StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(ch);
+            rows = pool.invoke(new ParseTask(ch, bounds, 0, bounds.length - 1, family));
+        } catch (RuntimeException ex) {
+            if (ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+            throw ex;
+        }
+        result.linesRead = rows.size + rows.rejected.size();
+        result.malformed = rows.malformed;
+        result.invalid = rows.invalid;
+
+        int[] order = sortedOrder(rows);
+        List<Integer> duplicates = new ArrayList<>();
+        int kept = dedupe ? dropStored(rows, order, family, duplicates) : order.length;
+        result.duplicates = duplicates.size();
+        write(rows, order, kept, family);
+        ds.flush();
+        result.imported = kept;
+
+        if (!rows.rejected.isEmpty() || !duplicates.isEmpty()) {
+            try (BufferedWriter w = Files.newBufferedWriter(rejectsFile, StandardCharsets.UTF_8);
+                 FileChannel ch = FileChannel.open(input, StandardOpenOption.READ)) {
+                for (String line : rows.rejected) {
+                    w.write(line);
+                    w.newLine();
+                }
+                duplicates.sort(null);
+                for (int i : duplicates) {
+                    w.write(readLine(ch, rows.offset[i], rows.length[i]));
+                    w.newLine();
+                }
+            }
+            result.rejectsFile = rejectsFile;
+        }
+        result.elapsedNanos = System.nanoTime() - t0;
+        return result;
+    }
+
+    // Chunk start offsets aligned to line starts, plus the file size as the final bound
+    private static long[] chunkBounds(FileChannel ch) throws IOException {
+        long size = ch.size();
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long pos = CHUNK_BYTES;
+        while (pos < size) {
+            // move forward to just past the next newline
+            long p = pos;
+            boolean found = false;
+            while (!found && p < size) {
+                probe.clear();
+                int n = ch.read(probe, p);
+                if (n <= 0) break;
+                for (int i = 0; i < n; i++) {
+                    if (probe.get(i) == '\n') {
+                        p += i + 1;
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) p += n;
+            }
+            if (p >= size) break;
+            bounds.add(p);
+            pos = p + CHUNK_BYTES;
+        }
+        bounds.add(size);
+        long[] out = new long[bounds.size()];
+        for (int i = 0; i < out.length; i++) out[i] = bounds.get(i);
+        return out;
+    }
+
+    // Parses chunks [from, to) of the file, splitting the range in half until one chunk is left
+    private class ParseTask extends RecursiveTask<Rows> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel ch;
+        private final long[] bounds;
+        private final int from;
+        private final int to;
+        private final String family;
+
+        ParseTask(FileChannel ch, long[] bounds, int from, int to, String family) {
+            this.ch = ch;
+            this.bounds = bounds;
+            this.from = from;
+            this.to = to;
+            this.family = family;
+        }
+
+        @Override
+        protected Rows compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                ParseTask left = new ParseTask(ch, bounds, from, mid, family);
+                ParseTask right = new ParseTask(ch, bounds, mid, to, family);
+                right.fork();
+                Rows rows = left.compute();
+                rows.addAll(right.join());
+                return rows;
+            }
+            try {
+                return parseChunk(bounds[from], bounds[to]);
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        private Rows parseChunk(long start, long end) throws IOException {
+            ByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            byte[] bytes = new byte[(int) (end - start)];
+            map.get(bytes);
+            Rows rows = new Rows(start);
+            CsvLineParser parser = new CsvLineParser();
+            Map<String, Integer> nameIds = new HashMap<>();
+            Map<String, Integer> categoryIds = new HashMap<>();
+            int lineStart = 0;
+            for (int i = 0; i <= bytes.length; i++) {
+                if (i < bytes.length && bytes[i] != '\n') continue;
+                int lineEnd = i;
+                if (lineEnd > lineStart && bytes[lineEnd - 1] == '\r') lineEnd--;
+                if (lineEnd > lineStart) {
+                    parseLine(parser, bytes, lineStart, lineEnd, rows, nameIds, categoryIds);
+                }
+                lineStart = i + 1;
+            }
+            return rows;
+        }
+
+        private void parseLine(CsvLineParser p, byte[] b, int start, int end, Rows rows,
+                               Map<String, Integer> nameIds, Map<String, Integer> categoryIds) throws IOException {
+            boolean ok;
+            switch (family) {
+                case DataStore.MEALS: ok = p.parseMeal(b, start, end); break;
+                case DataStore.STEPS: ok = p.parseSteps(b, start, end); break;
+                default: ok = p.parseWater(b, start, end); break;
+            }
+            if (!ok) {
+                rows.malformed++;
+                rows.rejected.add(new String(b, start, end - start, StandardCharsets.UTF_8));
+                return;
+            }
+            if (!isValid(family, p)) {
+                rows.invalid++;
+                rows.rejected.add(new String(b, start, end - start, StandardCharsets.UTF_8));
+                return;
+            }
+            int nameId = -1;
+            int categoryId = -1;
+            if (DataStore.MEALS.equals(family)) {
+                nameId = intern(nameIds, p.name(), ds.mealNames());
+                categoryId = intern(categoryIds, p.category(), ds.categories());
+            }
+            rows.add(p.epochDay, nameId, categoryId, p.value, p.quantity, start, end - start);
+        }
+    }
+
+    // Per-task cache in front of the shared (synchronized) dictionary
+    private static int intern(Map<String, Integer> cache, String value, StringDictionary dict) throws IOException {
+        Integer id = cache.get(value);
+        if (id == null) {
+            id = dict.idOf(value);
+            cache.put(value, id);
+        }
+        return id;
+    }
+
+    // Range checks applied to every parsed row
+    static boolean isValid(String family, CsvLineParser p) {
+        if (!DataStore.isValidDay(p.epochDay)) return false;
+        if (p.value < 0 || p.quantity < 0 || Double.isInfinite(p.value) || Double.isInfinite(p.quantity)) return false;
+        switch (family) {
+            case DataStore.MEALS: return p.value <= 20000 && p.quantity <= 10000;
+            case DataStore.STEPS: return p.value <= 200000;
+            default: return p.value <= 30;
+        }
+    }
+
+    // Row indices sorted by date, keeping file order within a day
+    private static int[] sortedOrder(Rows rows) {
+        long[] keys = new long[rows.size];
+        for (int i = 0; i < rows.size; i++) {
+            keys[i] = ((long) rows.day[i] << 32) | i;
+        }
+        Arrays.parallelSort(keys);
+        int[] order = new int[rows.size];
+        for (int i = 0; i < order.length; i++) order[i] = (int) keys[i];
+        return order;
+    }
+
+    // Compacts order[] to the rows the store does not hold yet, each stored copy matching one row;
+    // adds the dropped row indices to dropped and returns how many remain
+    private int dropStored(Rows rows, int[] order, String family, List<Integer> dropped) throws IOException {
+        if (order.length == 0) return 0;
+        Map<RowKey, Integer> stored = new HashMap<>();
+        int minDay = rows.day[order[0]];
+        int maxDay = rows.day[order[order.length - 1]];
+        ds.store(family).scan(minDay, maxDay,
+                (day, nameId, categoryId, value, quantity) -> stored.merge(new RowKey(day, nameId, categoryId, value, quantity), 1, Integer::sum));
+        int kept = 0;
+        for (int i : order) {
+            RowKey key = new RowKey(rows.day[i], rows.name[i], rows.category[i], rows.value[i], rows.quantity[i]);
+            Integer copies = stored.get(key);
+            if (copies == null) {
+                order[kept++] = i;
+            } else {
+                dropped.add(i);
+                if (copies == 1) stored.remove(key);
+                else stored.put(key, copies - 1);
+            }
+        }
+        return kept;
+    }
+
+    private static String readLine(FileChannel ch, long offset, int length) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(length);
+        while (b.hasRemaining()) {
+            if (ch.read(b, offset + b.position()) < 0) break;
+        }
+        return new String(b.array(), 0, b.position(), StandardCharsets.UTF_8);
+    }
+
+    private void write(Rows rows, int[] order, int count, String family) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(Math.min(count, WRITE_BATCH) * RecordStore.RECORD_BYTES);
+        for (int k = 0; k < count; k++) {
+            int i = order[k];
+            RecordStore.encode(buf, rows.day[i], rows.name[i], rows.category[i], rows.value[i], rows.quantity[i]);
+            if (!buf.hasRemaining()) {
+                ds.appendBatch(family, buf.flip());
+                buf.clear();
+            }
+        }
+        if (buf.position() > 0) ds.appendBatch(family, buf.flip());
+    }
+
+    // Parsed rows in primitive columns plus rejected lines, in file order
+    private static class Rows {
+        private final long base; // file offset of the chunk the line offsets are relative to
+        int size;
+        int[] day = new int[1024];
+        int[] name = new int[1024];
+        int[] category = new int[1024];
+        double[] value = new double[1024];
+        double[] quantity = new double[1024];
+        long[] offset = new long[1024]; // where each row's line is in the file, to report it
+        int[] length = new int[1024];
+        final List<String> rejected = new ArrayList<>();
+        long malformed;
+        long invalid;
+
+        Rows(long base) {
+            this.base = base;
+        }
+
+        void add(int d, int n, int c, double v, double q, int lineStart, int lineLength) {
+            ensure(size + 1);
+            day[size] = d;
+            name[size] = n;
+            category[size] = c;
+            value[size] = v;
+            quantity[size] = q;
+            offset[size] = base + lineStart;
+            length[size] = lineLength;
+            size++;
+        }
+
+        void addAll(Rows o) {
+            ensure(size + o.size);
+            System.arraycopy(o.day, 0, day, size, o.size);
+            System.arraycopy(o.name, 0, name, size, o.size);
+            System.arraycopy(o.category, 0, category, size, o.size);
+            System.arraycopy(o.value, 0, value, size, o.size);
+            System.arraycopy(o.quantity, 0, quantity, size, o.size);
+            System.arraycopy(o.offset, 0, offset, size, o.size);
+            System.arraycopy(o.length, 0, length, size, o.size);
+            size += o.size;
+            rejected.addAll(o.rejected);
+            malformed += o.malformed;
+            invalid += o.invalid;
+        }
+
+        private void ensure(int n) {
+            if (n <= day.length) return;
+            int cap = Math.max(n, day.length * 2);
+            day = Arrays.copyOf(day, cap);
+            name = Arrays.copyOf(name, cap);
+            category = Arrays.copyOf(category, cap);
+            value = Arrays.copyOf(value, cap);
+            quantity = Arrays.copyOf(quantity, cap);
+            offset = Arrays.copyOf(offset, cap);
+            length = Arrays.copyOf(length, cap);
+        }
+    }
+
+    private static class RowKey {
+        final int day;
+        final int name;
+        final int category;
+        final double value;
+        final double quantity;
+
+        RowKey(int day, int name, int category, double value, double quantity) {
+            this.day = day;
+            this.name = name;
+            this.category = category;
+            this.value = value;
+            this.quantity = quantity;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RowKey)) return false;
+            RowKey k = (RowKey) o;
+            return day == k.day && name == k.name && category == k.category
+                    && Double.compare(value, k.value) == 0 && Double.compare(quantity, k.quantity) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(day, name, category, value, quantity);
+        }
+    }
+
+    // CLI: java fitlife.data.BulkImporter <meals|steps|water> <file.csv> [--keep-duplicates] [--rejects <path>] [--user <id>]
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: BulkImporter <meals|steps|water> <file.csv> [--keep-duplicates] [--rejects <path>] [--user <id>]");
+            System.exit(2);
+        }
+        String family = args[0].toLowerCase(Locale.ROOT);
+        Path input = Paths.get(args[1]);
+        boolean keepDuplicates = false;
+        String user = UserRegistry.LOCAL_USER;
+        Path rejects = input.resolveSibling(input.getFileName() + ".rejected");
+        for (int i = 2; i < args.length; i++) {
+            if ("--keep-duplicates".equals(args[i])) {
+                keepDuplicates = true;
+            } else if ("--rejects".equals(args[i]) && i + 1 < args.length) {
+                rejects = Paths.get(args[++i]);
+            } else if ("--user".equals(args[i]) && i + 1 < args.length) {
+                user = args[++i];
+            }
+        }
+        boolean keep = keepDuplicates;
+        Path rejectsFile = rejects;
+        try {
+            Result result = UserContext.of(user).withPartition(p -> {
+                BulkImporter importer = new BulkImporter(p.store());
+                if (keep) importer.keepDuplicates();
+                try {
+                    return importer.importFile(input, family, rejectsFile);
+                } finally {
+                    importer.shutdown();
+                }
+            });
+            System.out.println(result);
+        } catch (IOException | IllegalArgumentException ex) {
+            System.err.println("Import failed: " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package fitlife.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Shared parser for the tracker CSV layouts. Works directly on byte buffers: dates are decoded
+ * straight to epoch-day ints and numbers are parsed in place, so parsing a row does not allocate.
+ *
+ * Supported layouts:
+ * <pre>
+ *   meals: date,day,mealName,quantityGrams,calories[,category]   (current)
+ *          date,mealName,calories[,category]                     (oldest)
+ *   steps: date,day,steps    or  date,steps
+ *   water: date,day,liters   or  date,amount
+ *   foods: name,caloriesPerGram
+ * </pre>
+ * An instance keeps the fields of the last parsed row and is not thread-safe; use one per thread.
+ */
+public class CsvLineParser {
+
+    public static final int INVALID_DAY = Integer.MIN_VALUE;
+
+    private static final int MAX_FIELDS = 8;
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+    };
+
+    // Receives each line of a file as a byte range, without the line terminator
+    @FunctionalInterface
+    public interface LineHandler {
+        void line(byte[] buf, int start, int end) throws IOException;
+    }
+
+    private final int[] fieldStart = new int[MAX_FIELDS];
+    private final int[] fieldEnd = new int[MAX_FIELDS];
+    private byte[] buf;
+    private int fields;
+
+    // Results of the last successful parseMeal/parseSteps/parseWater call
+    public int epochDay;
+    public double value;
+    public double quantity;
+    private int nameField = -1;
+    private int categoryField = -1;
+
+    /**
+     * Parse a meal row. On success value is calories and quantity is grams (0 for the oldest layout).
+     */
+    public boolean parseMeal(byte[] b, int start, int end) {
+        split(b, start, end);
+        if (fields < 3 || !parseDay()) return false;
+        if (fields >= 5) {
+            quantity = parseDecimal(buf, fieldStart[3], fieldEnd[3]);
+            value = parseDecimal(buf, fieldStart[4], fieldEnd[4]);
+            nameField = 2;
+            categoryField = fields >= 6 ? 5 : -1;
+        } else {
+            quantity = 0;
+            value = parseDecimal(buf, fieldStart[2], fieldEnd[2]);
+            nameField = 1;
+            categoryField = fields >= 4 ? 3 : -1;
+        }
+        return !Double.isNaN(value) && !Double.isNaN(quantity);
+    }
+
+    // Parse a steps row; value is the step count
+    public boolean parseSteps(byte[] b, int start, int end) {
+        return parseDayValue(b, start, end) && value == Math.rint(value);
+    }
+
+    // Parse a water row; value is liters
+    public boolean parseWater(byte[] b, int start, int end) {
+        return parseDayValue(b, start, end);
+    }
+
+    /**
+     * Parse a foods.txt row (name,caloriesPerGram); value is calories per gram.
+     */
+    public boolean parseFood(byte[] b, int start, int end) {
+        split(b, start, end);
+        if (fields < 2 || fieldStart[0] == fieldEnd[0]) return false;
+        nameField = 0;
+        categoryField = -1;
+        value = parseDecimal(buf, fieldStart[1], fieldEnd[1]);
+        return !Double.isNaN(value);
+    }
+
+    // Meal or food name of the last parsed row (allocates; only call when the text is needed)
+    public String name() {
+        return field(nameField);
+    }
+
+    // Meal category of the last parsed row, "" when the row has none
+    public String category() {
+        return field(categoryField);
+    }
+
+    public int nameStart() {
+        return nameField < 0 ? 0 : fieldStart[nameField];
+    }
+
+    public int nameEnd() {
+        return nameField < 0 ? 0 : fieldEnd[nameField];
+    }
+
+    private String field(int i) {
+        if (i < 0 || i >= fields) return "";
+        return new String(buf, fieldStart[i], fieldEnd[i] - fieldStart[i], StandardCharsets.UTF_8);
+    }
+
+    // date,day,value or legacy date,value
+    private boolean parseDayValue(byte[] b, int start, int end) {
+        split(b, start, end);
+        if (fields < 2 || !parseDay()) return false;
+        int f = fields >= 3 ? 2 : 1;
+        value = parseDecimal(buf, fieldStart[f], fieldEnd[f]);
+        quantity = 0;
+        nameField = -1;
+        categoryField = -1;
+        return !Double.isNaN(value);
+    }
+
+    private boolean parseDay() {
+        epochDay = parseEpochDay(buf, fieldStart[0], fieldEnd[0]);
+        return epochDay != INVALID_DAY;
+    }
+
+    // Record trimmed field boundaries; fields past MAX_FIELDS are ignored
+    private void split(byte[] b, int start, int end) {
+        buf = b;
+        fields = 0;
+        int s = start;
+        for (int i = start; i <= end && fields < MAX_FIELDS; i++) {
+            if (i == end || b[i] == ',') {
+                int fs = s;
+                int fe = i;
+                while (fs < fe && b[fs] == ' ') fs++;
+                while (fe > fs && b[fe - 1] == ' ') fe--;
+                fieldStart[fields] = fs;
+                fieldEnd[fields] = fe;
+                fields++;
+                s = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Decode an ISO yyyy-MM-dd date to its epoch day, or INVALID_DAY if malformed.
+     */
+    public static int parseEpochDay(byte[] b, int from, int to) {
+        if (to - from != 10 || b[from + 4] != '-' || b[from + 7] != '-') return INVALID_DAY;
+        int y = digits(b, from, from + 4);
+        int m = digits(b, from + 5, from + 7);
+        int d = digits(b, from + 8, from + 10);
+        if (y < 0 || m < 1 || m > 12 || d < 1 || d > lengthOfMonth(y, m)) return INVALID_DAY;
+        return epochDay(y, m, d);
+    }
+
+    // Days since 1970-01-01 for a proleptic Gregorian date (same result as LocalDate.toEpochDay)
+    public static int epochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yoe = y - era * 400;
+        int mp = (month + 9) % 12;
+        int doy = (153 * mp + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    private static int lengthOfMonth(int y, int m) {
+        switch (m) {
+            case 2: return ((y % 4 == 0 && y % 100 != 0) || y % 400 == 0) ? 29 : 28;
+            case 4: case 6: case 9: case 11: return 30;
+            default: return 31;
+        }
+    }
+
+    private static int digits(byte[] b, int from, int to) {
+        int v = 0;
+        for (int i = from; i < to; i++) {
+            int c = b[i] - '0';
+            if (c < 0 || c > 9) return -1;
+            v = v * 10 + c;
+        }
+        return v;
+    }
+
+    /**
+     * Parse a plain decimal number ([-+]digits[.digits]) in place; returns NaN if malformed.
+     * Numbers with more than 18 significant digits fall back to Double.parseDouble.
+     */
+    public static double parseDecimal(byte[] b, int from, int to) {
+        int i = from;
+        if (i >= to) return Double.NaN;
+        boolean neg = false;
+        if (b[i] == '-' || b[i] == '+') {
+            neg = b[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digitCount = 0;
+        int fractionDigits = 0;
+        boolean seenDot = false;
+        boolean overflow = false;
+        boolean anyDigit = false;
+        for (; i < to; i++) {
+            byte c = b[i];
+            if (c == '.') {
+                if (seenDot) return Double.NaN;
+                seenDot = true;
+            } else if (c >= '0' && c <= '9') {
+                anyDigit = true;
+                if (digitCount < 18 && fractionDigits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0) digitCount++;
+                    if (seenDot) fractionDigits++;
+                } else {
+                    overflow = true;
+                }
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (!anyDigit) return Double.NaN;
+        if (overflow || mantissa >= (1L << 53)) {
+            try {
+                return Double.parseDouble(new String(b, from, to - from, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException ex) {
+                return Double.NaN;
+            }
+        }
+        // mantissa and 10^k are both exact doubles, so this division rounds once (correctly)
+        double v = mantissa / POW10[fractionDigits];
+        return neg ? -v : v;
+    }
+
+    /**
+     * Feed every line of a file to the handler. Lines are handed out as ranges of a reused
+     * buffer with any trailing '\r' removed; the buffer contents are only valid during the call.
+     */
+    public static void forEachLine(Path file, LineHandler handler) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            forEachLine(in, handler);
+        }
+    }
+
+    public static void forEachLine(InputStream in, LineHandler handler) throws IOException {
+        byte[] buf = new byte[64 * 1024];
+        int len = 0;
+        int n;
+        while ((n = in.read(buf, len, buf.length - len)) > 0) {
+            len += n;
+            int lineStart = 0;
+            for (int i = 0; i < len; i++) {
+                if (buf[i] == '\n') {
+                    emit(buf, lineStart, i, handler);
+                    lineStart = i + 1;
+                }
+            }
+            // keep the partial last line for the next read
+            len -= lineStart;
+            System.arraycopy(buf, lineStart, buf, 0, len);
+            if (len == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        if (len > 0) emit(buf, 0, len, handler);
+    }
+
+    private static void emit(byte[] buf, int start, int end, LineHandler handler) throws IOException {
+        if (end > start && buf[end - 1] == '\r') end--;
+        if (end > start) handler.line(buf, start, end);
+    }
+}
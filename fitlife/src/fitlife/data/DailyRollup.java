@@ -0,0 +1,536 @@
+package fitlife.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Materialized per-day totals for meals, steps and water, keyed by epoch-day.
+ *
+ * Updated by {@link DataStore} in the same call that appends a record, so summaries read one
+ * row per day instead of every raw record. The table is persisted to {@code rollup.dat} together
+ * with the number of records of each store it has absorbed; on open, any records appended after
+ * the last snapshot are replayed, and {@link #rebuild} recomputes everything from the raw stores.
+ *
+ * Each day also keeps exact per-food meal counts. From those, a {@link TopKSketch} per month and
+ * per year is maintained in memory (rebuilt from the days on open), so "top foods in a range"
+ * merges a few bucket sketches plus the partial months at the edges instead of scanning meals.
+ * Percentiles of daily calories, steps and water work the same way with a {@link QuantileSketch}
+ * per bucket; since a day's totals keep changing while it is logged, those are built from the
+ * rows on first query and dropped whenever a day in their bucket changes.
+ *
+ * The same three daily totals also live in a {@link DayAggregateTree} each, updated in place by
+ * every entry whatever its date, for range aggregates and calendar heatmaps.
+ */
+public class DailyRollup {
+
+    private static final int MAGIC = 0x464c5232; // "FLR2"
+    private static final int SAVE_EVERY = 256;
+    // counters per month/year food sketch
+    static final int SKETCH_CAPACITY = 64;
+
+    private final Path file;
+    private boolean readOnly; // opened over a read-only DataStore: snapshots are never written
+    private final TreeMap<Integer, Day> days = new TreeMap<>();
+    // food sketches keyed by year * 12 + month - 1, and by year
+    private final Map<Integer, TopKSketch<Integer>> monthFoods = new HashMap<>();
+    private final Map<Integer, TopKSketch<Integer>> yearFoods = new HashMap<>();
+    // daily totals of calories, steps and liters, indexed by dailySlot()
+    private final DayAggregateTree[] dayTrees = {new DayAggregateTree(), new DayAggregateTree(), new DayAggregateTree()};
+    // daily-total quantile sketches per bucket (same keys), indexed by dailySlot()
+    private final Map<Integer, QuantileSketch[]> monthQuantiles = new HashMap<>();
+    private final Map<Integer, QuantileSketch[]> yearQuantiles = new HashMap<>();
+    // records absorbed from the meals, steps and water stores
+    private long appliedMeals;
+    private long appliedSteps;
+    private long appliedWater;
+    private int unsaved;
+    private boolean stale;     // an entry was only partly absorbed: rebuild before saving again
+    private long version;      // bumped on every change; the cached series is rebuilt when it moves
+    private TimeSeries series;
+    private long seriesVersion = -1;
+
+    /**
+     * Totals for one day. Min/max are over the individual entries logged that day.
+     */
+    public static class Day {
+        public final int epochDay;
+        public double calories;
+        public int meals;
+        public double steps;
+        public int stepEntries;
+        public double minSteps;
+        public double maxSteps;
+        public double liters;
+        public int waterEntries;
+        public double minLiters;
+        public double maxLiters;
+        private int[] categoryIds = new int[0];
+        private double[] categoryCalories = new double[0];
+        private int[] foodIds = new int[0];
+        private int[] foodMeals = new int[0];
+
+        Day(int epochDay) {
+            this.epochDay = epochDay;
+        }
+
+        public int categoryCount() {
+            return categoryIds.length;
+        }
+
+        public int categoryId(int i) {
+            return categoryIds[i];
+        }
+
+        public double categoryCalories(int i) {
+            return categoryCalories[i];
+        }
+
+        // Distinct meal names logged that day, with how many meals used each
+        public int foodCount() {
+            return foodIds.length;
+        }
+
+        public int foodId(int i) {
+            return foodIds[i];
+        }
+
+        public int foodMeals(int i) {
+            return foodMeals[i];
+        }
+
+        void addFood(int nameId) {
+            for (int i = 0; i < foodIds.length; i++) {
+                if (foodIds[i] == nameId) {
+                    foodMeals[i]++;
+                    return;
+                }
+            }
+            int n = foodIds.length;
+            foodIds = Arrays.copyOf(foodIds, n + 1);
+            foodMeals = Arrays.copyOf(foodMeals, n + 1);
+            foodIds[n] = nameId;
+            foodMeals[n] = 1;
+        }
+
+        void addCategory(int categoryId, double kcal) {
+            for (int i = 0; i < categoryIds.length; i++) {
+                if (categoryIds[i] == categoryId) {
+                    categoryCalories[i] += kcal;
+                    return;
+                }
+            }
+            int n = categoryIds.length;
+            categoryIds = Arrays.copyOf(categoryIds, n + 1);
+            categoryCalories = Arrays.copyOf(categoryCalories, n + 1);
+            categoryIds[n] = categoryId;
+            categoryCalories[n] = kcal;
+        }
+    }
+
+    DailyRollup(Path file) {
+        this.file = file;
+    }
+
+    // Load the snapshot (if any) and absorb records appended since it was written
+    static DailyRollup open(Path file, DataStore ds) throws IOException {
+        DailyRollup r = new DailyRollup(file);
+        r.readOnly = ds.isReadOnly();
+        if (!r.load() || r.appliedMeals > ds.meals().size() || r.appliedSteps > ds.steps().size()
+                || r.appliedWater > ds.water().size()) {
+            r.clear();
+        }
+        r.catchUp(ds);
+        return r;
+    }
+
+    synchronized void addMeal(int epochDay, int nameId, int categoryId, double calories) {
+        Day d = day(epochDay);
+        d.calories += calories;
+        d.meals++;
+        d.addCategory(categoryId, calories);
+        d.addFood(nameId);
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        sketch(monthFoods, monthKey(date)).add(nameId);
+        sketch(yearFoods, date.getYear()).add(nameId);
+        dropQuantiles(date);
+        dayTrees[0].set(epochDay, d.calories);
+        appliedMeals++;
+        unsaved++;
+        version++;
+    }
+
+    synchronized void addSteps(int epochDay, double steps) {
+        Day d = day(epochDay);
+        d.minSteps = d.stepEntries == 0 ? steps : Math.min(d.minSteps, steps);
+        d.maxSteps = d.stepEntries == 0 ? steps : Math.max(d.maxSteps, steps);
+        d.steps += steps;
+        d.stepEntries++;
+        dropQuantiles(LocalDate.ofEpochDay(epochDay));
+        dayTrees[1].set(epochDay, d.steps);
+        appliedSteps++;
+        unsaved++;
+        version++;
+    }
+
+    synchronized void addWater(int epochDay, double liters) {
+        Day d = day(epochDay);
+        d.minLiters = d.waterEntries == 0 ? liters : Math.min(d.minLiters, liters);
+        d.maxLiters = d.waterEntries == 0 ? liters : Math.max(d.maxLiters, liters);
+        d.liters += liters;
+        d.waterEntries++;
+        dropQuantiles(LocalDate.ofEpochDay(epochDay));
+        dayTrees[2].set(epochDay, d.liters);
+        appliedWater++;
+        unsaved++;
+        version++;
+    }
+
+    // Snapshot every few hundred updates so a restart replays only a short tail
+    synchronized void saveIfDirty(boolean force) throws IOException {
+        if (unsaved > 0 && (force || unsaved >= SAVE_EVERY)) save();
+    }
+
+    // Folding an entry failed part-way; the rows cannot be trusted until the next rebuild
+    synchronized void markStale() {
+        stale = true;
+    }
+
+    // Rebuild from the stores if a fold failed since the last rebuild; returns whether it did
+    synchronized boolean rebuildIfStale(DataStore ds) throws IOException {
+        if (!stale) return false;
+        rebuild(ds);
+        return true;
+    }
+
+    /**
+     * Visit the rows for days in [fromDay, toDay] that have any data, in date order.
+     * The rows must not be retained or modified by the caller.
+     */
+    public synchronized void forEach(int fromDay, int toDay, Consumer<Day> action) {
+        if (fromDay > toDay) return;
+        for (Day d : days.subMap(fromDay, true, toDay, true).values()) {
+            action.accept(d);
+        }
+    }
+
+    /**
+     * The rows as a {@link TimeSeries}. The snapshot is cached and only rebuilt (O(days with data))
+     * after the rollup has changed, so repeated range queries between writes cost O(log days) each.
+     */
+    public synchronized TimeSeries series() {
+        if (series == null || seriesVersion != version) {
+            series = TimeSeries.of(days.values());
+            seriesVersion = version;
+        }
+        return series;
+    }
+
+    /**
+     * Meal counts per name id for days in [fromDay, toDay]. Whole years and whole months inside
+     * the range come from their bucket sketches; only the days of partial months at the edges are
+     * read. Counts are exact unless a merged bucket saw more than {@link #SKETCH_CAPACITY} foods,
+     * in which case each entry carries its error bound.
+     */
+    public synchronized TopKSketch<Integer> topFoods(int fromDay, int toDay) {
+        TopKSketch<Integer> out = new TopKSketch<>(SKETCH_CAPACITY);
+        // days of partial months are counted exactly and merged in as one sketch at the end
+        Map<Integer, Long> edges = new HashMap<>();
+        walkBuckets(fromDay, toDay, new BucketVisitor() {
+            @Override
+            public void year(int year) {
+                TopKSketch<Integer> y = yearFoods.get(year);
+                if (y != null) out.merge(y);
+            }
+
+            @Override
+            public void month(int monthKey) {
+                TopKSketch<Integer> m = monthFoods.get(monthKey);
+                if (m != null) out.merge(m);
+            }
+
+            @Override
+            public void days(int from, int to) {
+                for (Day day : days.subMap(from, true, to, true).values()) {
+                    for (int i = 0; i < day.foodIds.length; i++) edges.merge(day.foodIds[i], (long) day.foodMeals[i], Long::sum);
+                }
+            }
+        });
+        if (!edges.isEmpty()) out.merge(TopKSketch.ofCounts(edges, SKETCH_CAPACITY));
+        return out;
+    }
+
+    /**
+     * Distribution of daily totals of CALORIES, STEPS or LITERS over the days in [fromDay, toDay]
+     * that have any of that metric logged. Bucket sketches are merged as in {@link #topFoods};
+     * the error bound is the one documented on {@link QuantileSketch}, and ranges spanning fewer
+     * than {@link QuantileSketch#DEFAULT_K} logged days are exact.
+     */
+    public synchronized QuantileSketch dailyQuantiles(TimeSeries.Metric metric, int fromDay, int toDay) {
+        int slot = dailySlot(metric);
+        QuantileSketch out = new QuantileSketch();
+        walkBuckets(fromDay, toDay, new BucketVisitor() {
+            @Override
+            public void year(int year) {
+                LocalDate first = LocalDate.ofYearDay(year, 1);
+                out.merge(quantiles(yearQuantiles, year, first, first.plusYears(1))[slot]);
+            }
+
+            @Override
+            public void month(int monthKey) {
+                LocalDate first = LocalDate.of(monthKey / 12, monthKey % 12 + 1, 1);
+                out.merge(quantiles(monthQuantiles, monthKey, first, first.plusMonths(1))[slot]);
+            }
+
+            @Override
+            public void days(int from, int to) {
+                for (Day day : days.subMap(from, true, to, true).values()) out.add(dailyTotal(day, slot));
+            }
+        });
+        return out;
+    }
+
+    /**
+     * Sum, min, max and number of logged days of a daily total (CALORIES, STEPS or LITERS) over
+     * [fromDay, toDay], in O(log n) and current as of the latest entry, backdated ones included.
+     */
+    public synchronized DayAggregateTree.Summary summarize(TimeSeries.Metric metric, int fromDay, int toDay) {
+        return dayTrees[dailySlot(metric)].query(fromDay, toDay);
+    }
+
+    /**
+     * One value per day of [fromDay, toDay] (e.g. the cells of a calendar heatmap): the day's
+     * total, or NaN when nothing of that metric was logged.
+     */
+    public synchronized double[] dailyTotals(TimeSeries.Metric metric, int fromDay, int toDay) {
+        DayAggregateTree tree = dayTrees[dailySlot(metric)];
+        double[] out = new double[Math.max(toDay - fromDay + 1, 0)];
+        for (int i = 0; i < out.length; i++) out[i] = tree.get(fromDay + i);
+        return out;
+    }
+
+    // Splits a day range into whole years, whole months and runs of days inside one month
+    private interface BucketVisitor {
+        void year(int year);
+
+        void month(int monthKey);
+
+        void days(int fromDay, int toDay);
+    }
+
+    private static void walkBuckets(int fromDay, int toDay, BucketVisitor visitor) {
+        int d = fromDay;
+        while (d <= toDay) {
+            LocalDate date = LocalDate.ofEpochDay(d);
+            int yearEnd = (int) date.withDayOfYear(date.lengthOfYear()).toEpochDay();
+            int monthEnd = (int) date.withDayOfMonth(date.lengthOfMonth()).toEpochDay();
+            if (date.getDayOfYear() == 1 && yearEnd <= toDay) {
+                visitor.year(date.getYear());
+                d = yearEnd + 1;
+            } else if (date.getDayOfMonth() == 1 && monthEnd <= toDay) {
+                visitor.month(monthKey(date));
+                d = monthEnd + 1;
+            } else {
+                int end = Math.min(monthEnd, toDay);
+                visitor.days(d, end);
+                d = end + 1;
+            }
+        }
+    }
+
+    private static int monthKey(LocalDate date) {
+        return date.getYear() * 12 + date.getMonthValue() - 1;
+    }
+
+    private static int dailySlot(TimeSeries.Metric metric) {
+        switch (metric) {
+            case CALORIES: return 0;
+            case STEPS: return 1;
+            case LITERS: return 2;
+            default: throw new IllegalArgumentException("Daily-total queries support only CALORIES, STEPS and LITERS.");
+        }
+    }
+
+    // A day's total for the metric, NaN (skipped by the sketch) when none was logged
+    private static double dailyTotal(Day d, int slot) {
+        switch (slot) {
+            case 0: return d.meals > 0 ? d.calories : Double.NaN;
+            case 1: return d.stepEntries > 0 ? d.steps : Double.NaN;
+            default: return d.waterEntries > 0 ? d.liters : Double.NaN;
+        }
+    }
+
+    // The bucket's sketches, built from its rows [first, end) if not cached
+    private QuantileSketch[] quantiles(Map<Integer, QuantileSketch[]> buckets, int key, LocalDate first, LocalDate end) {
+        QuantileSketch[] q = buckets.get(key);
+        if (q == null) {
+            q = new QuantileSketch[] {new QuantileSketch(), new QuantileSketch(), new QuantileSketch()};
+            for (Day day : days.subMap((int) first.toEpochDay(), (int) end.toEpochDay()).values()) {
+                for (int slot = 0; slot < q.length; slot++) q[slot].add(dailyTotal(day, slot));
+            }
+            buckets.put(key, q);
+        }
+        return q;
+    }
+
+    private void dropQuantiles(LocalDate date) {
+        if (!monthQuantiles.isEmpty()) monthQuantiles.remove(monthKey(date));
+        if (!yearQuantiles.isEmpty()) yearQuantiles.remove(date.getYear());
+    }
+
+    private static TopKSketch<Integer> sketch(Map<Integer, TopKSketch<Integer>> buckets, int key) {
+        return buckets.computeIfAbsent(key, k -> new TopKSketch<>(SKETCH_CAPACITY));
+    }
+
+    /**
+     * Change counter: moves with every absorbed entry and every rebuild. Together with the
+     * rollup instance (a reopened partition has a new one) it stamps results derived from it.
+     */
+    public synchronized long version() {
+        return version;
+    }
+
+    public synchronized int size() {
+        return days.size();
+    }
+
+    /**
+     * Recompute every row from the raw record stores.
+     */
+    public synchronized void rebuild(DataStore ds) throws IOException {
+        clear();
+        catchUp(ds);
+        save();
+    }
+
+    private void catchUp(DataStore ds) throws IOException {
+        ds.meals().scanFrom(appliedMeals, (day, nameId, categoryId, value, quantity) -> addMeal(day, nameId, categoryId, value));
+        ds.steps().scanFrom(appliedSteps, (day, nameId, categoryId, value, quantity) -> addSteps(day, value));
+        ds.water().scanFrom(appliedWater, (day, nameId, categoryId, value, quantity) -> addWater(day, value));
+    }
+
+    private Day day(int epochDay) {
+        return days.computeIfAbsent(epochDay, Day::new);
+    }
+
+    private void clear() {
+        days.clear();
+        monthFoods.clear();
+        yearFoods.clear();
+        monthQuantiles.clear();
+        yearQuantiles.clear();
+        for (DayAggregateTree t : dayTrees) t.clear();
+        appliedMeals = appliedSteps = appliedWater = 0;
+        unsaved = 0;
+        stale = false;
+        version++;
+    }
+
+    private void save() throws IOException {
+        // a stale table is never written: the last snapshot plus the stores still add up
+        if (readOnly || stale) return;
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(appliedMeals);
+            out.writeLong(appliedSteps);
+            out.writeLong(appliedWater);
+            out.writeInt(days.size());
+            for (Map.Entry<Integer, Day> e : days.entrySet()) {
+                Day d = e.getValue();
+                out.writeInt(d.epochDay);
+                out.writeDouble(d.calories);
+                out.writeInt(d.meals);
+                out.writeDouble(d.steps);
+                out.writeInt(d.stepEntries);
+                out.writeDouble(d.minSteps);
+                out.writeDouble(d.maxSteps);
+                out.writeDouble(d.liters);
+                out.writeInt(d.waterEntries);
+                out.writeDouble(d.minLiters);
+                out.writeDouble(d.maxLiters);
+                out.writeInt(d.categoryIds.length);
+                for (int i = 0; i < d.categoryIds.length; i++) {
+                    out.writeInt(d.categoryIds[i]);
+                    out.writeDouble(d.categoryCalories[i]);
+                }
+                out.writeInt(d.foodIds.length);
+                for (int i = 0; i < d.foodIds.length; i++) {
+                    out.writeInt(d.foodIds[i]);
+                    out.writeInt(d.foodMeals[i]);
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        unsaved = 0;
+    }
+
+    // Returns false when there is no usable snapshot
+    private boolean load() {
+        if (!Files.exists(file)) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) return false;
+            appliedMeals = in.readLong();
+            appliedSteps = in.readLong();
+            appliedWater = in.readLong();
+            int n = in.readInt();
+            for (int k = 0; k < n; k++) {
+                Day d = new Day(in.readInt());
+                d.calories = in.readDouble();
+                d.meals = in.readInt();
+                d.steps = in.readDouble();
+                d.stepEntries = in.readInt();
+                d.minSteps = in.readDouble();
+                d.maxSteps = in.readDouble();
+                d.liters = in.readDouble();
+                d.waterEntries = in.readInt();
+                d.minLiters = in.readDouble();
+                d.maxLiters = in.readDouble();
+                int cats = in.readInt();
+                d.categoryIds = new int[cats];
+                d.categoryCalories = new double[cats];
+                for (int i = 0; i < cats; i++) {
+                    d.categoryIds[i] = in.readInt();
+                    d.categoryCalories[i] = in.readDouble();
+                }
+                int foods = in.readInt();
+                d.foodIds = new int[foods];
+                d.foodMeals = new int[foods];
+                for (int i = 0; i < foods; i++) {
+                    d.foodIds[i] = in.readInt();
+                    d.foodMeals[i] = in.readInt();
+                }
+                days.put(d.epochDay, d);
+            }
+            // the bucket sketches and day trees are derived from the days
+            for (Day d : days.values()) {
+                for (int slot = 0; slot < dayTrees.length; slot++) dayTrees[slot].set(d.epochDay, dailyTotal(d, slot));
+                LocalDate date = LocalDate.ofEpochDay(d.epochDay);
+                TopKSketch<Integer> month = sketch(monthFoods, monthKey(date));
+                TopKSketch<Integer> year = sketch(yearFoods, date.getYear());
+                for (int i = 0; i < d.foodIds.length; i++) {
+                    month.add(d.foodIds[i], d.foodMeals[i]);
+                    year.add(d.foodIds[i], d.foodMeals[i]);
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            // corrupt or truncated snapshot: rebuild from the stores
+            days.clear();
+            monthFoods.clear();
+            yearFoods.clear();
+            return false;
+        }
+    }
+}
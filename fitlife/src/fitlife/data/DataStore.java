@@ -0,0 +1,264 @@
+package fitlife.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.format.TextStyle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Holds the record stores for meals, steps and water, the meal dictionaries and the
+ * {@link DailyRollup}. Entries are written through one {@link GroupCommitJournal} per store (the
+ * submit* and log* methods), which appends each batch and updates the rollup in the same commit.
+ * Each user has one store in their partition directory (see {@link UserRegistry}); the local
+ * user's store also imports the legacy CSV files once (see {@link LegacyCsvImporter}).
+ *
+ * {@link #openReadOnly} gives a view for tools that only read (e.g. {@link TrackerQuery}): it takes
+ * no file locks and has no journals, so it works while another process has the data open, and
+ * sees what had been committed when it was opened.
+ */
+public class DataStore {
+
+    public static final String MEALS = "meals";
+    public static final String STEPS = "steps";
+    public static final String WATER = "water";
+
+    public static final Path DEFAULT_DIR = Paths.get("data");
+
+    // Dates an entry may carry; anything else is a typo ("0202-05-01") and is refused on write
+    public static final LocalDate MIN_DATE = LocalDate.of(1900, 1, 1);
+    public static final LocalDate MAX_DATE = LocalDate.of(2199, 12, 31);
+
+    private final RecordStore meals;
+    private final RecordStore steps;
+    private final RecordStore water;
+    private final StringDictionary mealNames;
+    private final StringDictionary categories;
+    private final DailyRollup rollup;
+    private final GroupCommitJournal mealsJournal;
+    private final GroupCommitJournal stepsJournal;
+    private final GroupCommitJournal waterJournal;
+    private final boolean readOnly;
+
+    // Fails if another store or process already has the directory open (see RecordStore)
+    public DataStore(Path dir) throws IOException {
+        this(dir, false);
+    }
+
+    /**
+     * Read-only view of the data in dir; every write fails. Close it when done.
+     */
+    public static DataStore openReadOnly(Path dir) throws IOException {
+        return new DataStore(dir, true);
+    }
+
+    private DataStore(Path dir, boolean readOnly) throws IOException {
+        this.readOnly = readOnly;
+        List<RecordStore> opened = new ArrayList<>();
+        try {
+            this.meals = open(opened, dir, MEALS, readOnly);
+            this.steps = open(opened, dir, STEPS, readOnly);
+            this.water = open(opened, dir, WATER, readOnly);
+            this.mealNames = new StringDictionary(dir.resolve("meals.names"));
+            this.categories = new StringDictionary(dir.resolve("meals.categories"));
+            this.rollup = DailyRollup.open(dir.resolve("rollup.dat"), this);
+        } catch (IOException | RuntimeException e) {
+            for (RecordStore store : opened) {
+                try {
+                    store.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+        if (readOnly) {
+            this.mealsJournal = this.stepsJournal = this.waterJournal = null;
+            return;
+        }
+        JournalPolicy policy = JournalPolicy.fromSystemProperties();
+        this.mealsJournal = new GroupCommitJournal(this, meals, policy);
+        this.stepsJournal = new GroupCommitJournal(this, steps, policy);
+        this.waterJournal = new GroupCommitJournal(this, water, policy);
+    }
+
+    private static RecordStore open(List<RecordStore> opened, Path dir, String family, boolean readOnly) throws IOException {
+        RecordStore store = new RecordStore(dir, family, readOnly);
+        opened.add(store);
+        return store;
+    }
+
+    // Queue a meal record; the journal appends it and folds it into the daily rollup
+    public CompletableFuture<Void> submitMeal(int epochDay, String mealName, String category, double calories, double grams)
+            throws IOException {
+        if (readOnly) return readOnlyFailure();
+        if (!isValidDay(epochDay)) return dateFailure(epochDay);
+        return mealsJournal.submit(epochDay, mealNames.idOf(mealName), categories.idOf(category), calories, grams);
+    }
+
+    public CompletableFuture<Void> submitSteps(int epochDay, double stepCount) {
+        if (readOnly) return readOnlyFailure();
+        if (!isValidDay(epochDay)) return dateFailure(epochDay);
+        return stepsJournal.submit(epochDay, -1, -1, stepCount, 0);
+    }
+
+    public CompletableFuture<Void> submitWater(int epochDay, double liters) {
+        if (readOnly) return readOnlyFailure();
+        if (!isValidDay(epochDay)) return dateFailure(epochDay);
+        return waterJournal.submit(epochDay, -1, -1, liters, 0);
+    }
+
+    // Blocking variants: return once the record is committed and visible to readers
+    public void logMeal(int epochDay, String mealName, String category, double calories, double grams) throws IOException {
+        await(submitMeal(epochDay, mealName, category, calories, grams));
+    }
+
+    public void logSteps(int epochDay, double stepCount) throws IOException {
+        await(submitSteps(epochDay, stepCount));
+    }
+
+    public void logWater(int epochDay, double liters) throws IOException {
+        await(submitWater(epochDay, liters));
+    }
+
+    /**
+     * Bulk path: append records encoded with {@link RecordStore#encode} through the family's writer
+     * in one commit, waiting until they are visible.
+     */
+    void appendBatch(String family, ByteBuffer records) throws IOException {
+        if (readOnly) await(readOnlyFailure());
+        await(journal(family).submitBatch(records));
+    }
+
+    /**
+     * Wait for a journal future, unwrapping the IOException that failed it.
+     */
+    public static void await(CompletableFuture<Void> f) throws IOException {
+        try {
+            f.join();
+        } catch (CompletionException | CancellationException ex) {
+            Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    // Commit queued entries, force the stores to disk and persist the rollup snapshot
+    public void flush() throws IOException {
+        if (readOnly) return;
+        await(CompletableFuture.allOf(mealsJournal.barrier(), stepsJournal.barrier(), waterJournal.barrier()));
+        synchronized (rollup) {
+            meals.sync();
+            steps.sync();
+            water.sync();
+            if (!rollup.rebuildIfStale(this)) rollup.saveIfDirty(true);
+        }
+    }
+
+    // Flush, stop the journal threads and release the stores' file locks
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if (!readOnly) {
+                mealsJournal.close();
+                stepsJournal.close();
+                waterJournal.close();
+            }
+            meals.close();
+            steps.close();
+            water.close();
+        }
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    private CompletableFuture<Void> readOnlyFailure() {
+        return CompletableFuture.failedFuture(new IOException(getDirectory() + " is open read-only"));
+    }
+
+    public static boolean isValidDay(long epochDay) {
+        return epochDay >= MIN_DATE.toEpochDay() && epochDay <= MAX_DATE.toEpochDay();
+    }
+
+    private static CompletableFuture<Void> dateFailure(int epochDay) {
+        return CompletableFuture.failedFuture(new IllegalArgumentException("Date " + LocalDate.ofEpochDay(epochDay)
+                + " is out of range; it must be between " + MIN_DATE + " and " + MAX_DATE + "."));
+    }
+
+    public DailyRollup rollup() {
+        return rollup;
+    }
+
+    // Current per-day series for range, rolling-window and min/max queries
+    public TimeSeries series() {
+        return rollup.series();
+    }
+
+    // Record store for a family name (MEALS, STEPS or WATER)
+    public RecordStore store(String family) {
+        switch (family) {
+            case MEALS: return meals;
+            case STEPS: return steps;
+            case WATER: return water;
+            default: throw new IllegalArgumentException("Unknown record family: " + family);
+        }
+    }
+
+    private GroupCommitJournal journal(String family) {
+        switch (family) {
+            case MEALS: return mealsJournal;
+            case STEPS: return stepsJournal;
+            case WATER: return waterJournal;
+            default: throw new IllegalArgumentException("Unknown record family: " + family);
+        }
+    }
+
+    public RecordStore meals() {
+        return meals;
+    }
+
+    public RecordStore steps() {
+        return steps;
+    }
+
+    public RecordStore water() {
+        return water;
+    }
+
+    public StringDictionary mealNames() {
+        return mealNames;
+    }
+
+    public StringDictionary categories() {
+        return categories;
+    }
+
+    // Render a record in the same CSV layout the trackers used to write (date,day,...)
+    public String formatRecord(String family, int epochDay, int nameId, int categoryId, double value, double quantity) {
+        LocalDate d = LocalDate.ofEpochDay(epochDay);
+        String prefix = d + "," + d.getDayOfWeek().getDisplayName(TextStyle.FULL, Locale.ENGLISH) + ",";
+        switch (family) {
+            case MEALS:
+                return prefix + mealNames.valueOf(nameId) + "," + Math.round(quantity) + "," + Math.round(value)
+                        + "," + categories.valueOf(categoryId);
+            case STEPS:
+                return prefix + Math.round(value);
+            default:
+                return prefix + String.format(Locale.ROOT, "%.2f", value);
+        }
+    }
+
+    public Path getDirectory() {
+        return meals.getDirectory();
+    }
+}
@@ -0,0 +1,165 @@
+package fitlife.data;
+
+import java.util.Arrays;
+
+/**
+ * Segment tree over epoch days holding one value per day, with O(log n) point updates and
+ * O(log n) sum / min / max / day-count queries over any day range.
+ *
+ * Unlike the prefix sums in {@link TimeSeries}, a change to a past day (an entry logged with an
+ * old date) costs one leaf-to-root walk instead of a rebuild. Like the series it is sparse: the
+ * leaves are the days that have been set, in date order, and a range query maps its bounds to
+ * leaf ranks by binary search, so one stray date decades away costs one leaf, not the span.
+ * A day later than all others is appended in place; an earlier new day shifts the leaves after
+ * it and re-sums the tree. Not thread-safe; {@link DailyRollup} guards its trees with its own
+ * lock.
+ */
+public final class DayAggregateTree {
+
+    private static final int MIN_CAPACITY = 64;
+
+    // heap layout: node 1 is the root, leaf for keys[r] is capacity + r
+    private int[] keys = new int[0];
+    private int size;
+    private int capacity;
+    private double[] sum = new double[0];
+    private double[] min = new double[0];
+    private double[] max = new double[0];
+    private int[] days = new int[0];
+
+    /**
+     * Aggregates over a day range. Min and max are NaN when no day in the range has a value.
+     */
+    public static final class Summary {
+        public final double sum;
+        public final double min;
+        public final double max;
+        public final int days;
+
+        Summary(double sum, double min, double max, int days) {
+            this.sum = sum;
+            this.min = days > 0 ? min : Double.NaN;
+            this.max = days > 0 ? max : Double.NaN;
+            this.days = days;
+        }
+
+        // Mean over the days that have a value, 0 when there are none
+        public double average() {
+            return days > 0 ? sum / days : 0;
+        }
+    }
+
+    // Set a day's value, or clear it with NaN
+    public void set(int epochDay, double value) {
+        boolean has = !Double.isNaN(value);
+        int r = Arrays.binarySearch(keys, 0, size, epochDay);
+        boolean shifted = false;
+        if (r < 0) {
+            if (!has) return;
+            r = -r - 1;
+            if (size == capacity) grow();
+            if (r < size) {
+                // make room for the new leaf; the sums above it are redone below
+                System.arraycopy(keys, r, keys, r + 1, size - r);
+                System.arraycopy(sum, capacity + r, sum, capacity + r + 1, size - r);
+                System.arraycopy(min, capacity + r, min, capacity + r + 1, size - r);
+                System.arraycopy(max, capacity + r, max, capacity + r + 1, size - r);
+                System.arraycopy(days, capacity + r, days, capacity + r + 1, size - r);
+                shifted = true;
+            }
+            keys[r] = epochDay;
+            size++;
+        }
+        int i = capacity + r;
+        sum[i] = has ? value : 0;
+        min[i] = has ? value : Double.POSITIVE_INFINITY;
+        max[i] = has ? value : Double.NEGATIVE_INFINITY;
+        days[i] = has ? 1 : 0;
+        if (shifted) {
+            for (i = capacity - 1; i > 0; i--) pull(i);
+        } else {
+            for (i >>= 1; i > 0; i >>= 1) pull(i);
+        }
+    }
+
+    // A day's value, NaN when none
+    public double get(int epochDay) {
+        int r = Arrays.binarySearch(keys, 0, size, epochDay);
+        if (r < 0) return Double.NaN;
+        int i = capacity + r;
+        return days[i] > 0 ? sum[i] : Double.NaN;
+    }
+
+    public Summary query(int fromDay, int toDay) {
+        double s = 0;
+        double lo = Double.POSITIVE_INFINITY;
+        double hi = Double.NEGATIVE_INFINITY;
+        int n = 0;
+        // leaf ranks of the first day >= fromDay and the first day > toDay
+        int from = Arrays.binarySearch(keys, 0, size, fromDay);
+        from = from >= 0 ? from : -from - 1;
+        int to = Arrays.binarySearch(keys, 0, size, toDay);
+        to = to >= 0 ? to + 1 : -to - 1;
+        if (fromDay <= toDay && from < to) {
+            // half-open [l, r) over the leaves, narrowed level by level
+            int l = from + capacity;
+            int r = to + capacity;
+            for (; l < r; l >>= 1, r >>= 1) {
+                if ((l & 1) == 1) {
+                    s += sum[l];
+                    lo = Math.min(lo, min[l]);
+                    hi = Math.max(hi, max[l]);
+                    n += days[l];
+                    l++;
+                }
+                if ((r & 1) == 1) {
+                    r--;
+                    s += sum[r];
+                    lo = Math.min(lo, min[r]);
+                    hi = Math.max(hi, max[r]);
+                    n += days[r];
+                }
+            }
+        }
+        return new Summary(s, lo, hi, n);
+    }
+
+    public void clear() {
+        keys = new int[0];
+        size = 0;
+        capacity = 0;
+        sum = new double[0];
+        min = new double[0];
+        max = new double[0];
+        days = new int[0];
+    }
+
+    // Double the number of leaves, keeping the days already set at the same ranks
+    private void grow() {
+        int newCapacity = Math.max(MIN_CAPACITY, capacity * 2);
+        double[] s = new double[2 * newCapacity];
+        double[] mn = new double[2 * newCapacity];
+        double[] mx = new double[2 * newCapacity];
+        int[] d = new int[2 * newCapacity];
+        Arrays.fill(mn, Double.POSITIVE_INFINITY);
+        Arrays.fill(mx, Double.NEGATIVE_INFINITY);
+        System.arraycopy(sum, capacity, s, newCapacity, size);
+        System.arraycopy(min, capacity, mn, newCapacity, size);
+        System.arraycopy(max, capacity, mx, newCapacity, size);
+        System.arraycopy(days, capacity, d, newCapacity, size);
+        keys = Arrays.copyOf(keys, newCapacity);
+        capacity = newCapacity;
+        sum = s;
+        min = mn;
+        max = mx;
+        days = d;
+        for (int i = capacity - 1; i > 0; i--) pull(i);
+    }
+
+    private void pull(int i) {
+        sum[i] = sum[2 * i] + sum[2 * i + 1];
+        min[i] = Math.min(min[2 * i], min[2 * i + 1]);
+        max[i] = Math.max(max[2 * i], max[2 * i + 1]);
+        days[i] = days[2 * i] + days[2 * i + 1];
+    }
+}
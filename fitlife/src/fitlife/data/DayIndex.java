@@ -0,0 +1,213 @@
+package fitlife.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sidecar index for a {@link RecordStore}: maps epoch-day to the runs of consecutive records
+ * logged for that day, so date-range queries only touch the matching records.
+ *
+ * The sidecar file ({@code <family>.idx}) holds one 16-byte entry per run:
+ * <pre>
+ *   int  epochDay
+ *   int  count       (records in the run)
+ *   long firstRecord (global record number of the first record)
+ * </pre>
+ * Appending a record for the same day as the previous append extends the last run in place,
+ * so in the usual "log today" case the index grows by one entry per day, not per record.
+ * Changed entries are written out together by {@link #flush()}, once per appended batch.
+ * The in-memory runs are guarded by the index's own monitor, so readers asking for ranges
+ * only wait for other index calls, never for the store's file writes.
+ *
+ * A read-only index loads the sidecar if there is one and never writes it; if it is stale, the
+ * runs are rebuilt in memory.
+ */
+class DayIndex implements Closeable {
+
+    private static final int ENTRY_BYTES = 16;
+
+    private final Path file;
+    private FileChannel channel; // null when read-only
+    private ByteBuffer entryBuf = ByteBuffer.allocate(ENTRY_BYTES);
+    private final TreeMap<Integer, RunList> runsByDay = new TreeMap<>();
+
+    private int[] runDay = new int[64];
+    private int[] runCount = new int[64];
+    private long[] runStart = new long[64];
+    private int runs;
+    private long coveredRecords;
+    private int dirtyFrom; // first run whose entry has not been written since it changed
+
+    DayIndex(Path file, boolean readOnly) throws IOException {
+        this.file = file;
+        if (readOnly) {
+            if (Files.isRegularFile(file)) {
+                try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                    channel = ch;
+                    load();
+                } finally {
+                    channel = null;
+                }
+            }
+            return;
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        load();
+    }
+
+    // Number of store records the index describes
+    synchronized long coveredRecords() {
+        return coveredRecords;
+    }
+
+    private void load() throws IOException {
+        long size = channel.size();
+        if (size % ENTRY_BYTES != 0) {
+            reset();
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) size);
+        while (buf.hasRemaining() && channel.read(buf, buf.position()) > 0) { }
+        buf.flip();
+        while (buf.remaining() >= ENTRY_BYTES) {
+            int day = buf.getInt();
+            int count = buf.getInt();
+            long start = buf.getLong();
+            if (start != coveredRecords || count <= 0) {
+                // runs must tile the store without gaps; anything else means a stale file
+                reset();
+                return;
+            }
+            addRun(day, start, count);
+        }
+        dirtyFrom = runs;
+    }
+
+    // Drop all entries; the caller re-indexes from the store
+    synchronized void reset() throws IOException {
+        if (channel != null) channel.truncate(0);
+        runsByDay.clear();
+        runs = 0;
+        coveredRecords = 0;
+        dirtyFrom = 0;
+    }
+
+    // Record that global record number `record` was appended for `epochDay`
+    synchronized void add(int epochDay, long record) {
+        if (record != coveredRecords) {
+            throw new IllegalStateException("Index out of step with " + file + ": expected record "
+                    + coveredRecords + " but got " + record);
+        }
+        int last = runs - 1;
+        if (last >= 0 && runDay[last] == epochDay) {
+            runCount[last]++;
+            coveredRecords++;
+            dirtyFrom = Math.min(dirtyFrom, last);
+        } else {
+            addRun(epochDay, record, 1);
+            dirtyFrom = Math.min(dirtyFrom, runs - 1);
+        }
+    }
+
+    // Write the entries changed since the last flush in one positional write
+    void flush() throws IOException {
+        long pos;
+        synchronized (this) {
+            if (dirtyFrom >= runs) return;
+            if (channel == null) {
+                dirtyFrom = runs;
+                return;
+            }
+            int n = runs - dirtyFrom;
+            if (entryBuf.capacity() < n * ENTRY_BYTES) entryBuf = ByteBuffer.allocate(n * ENTRY_BYTES);
+            entryBuf.clear();
+            for (int run = dirtyFrom; run < runs; run++) {
+                entryBuf.putInt(runDay[run]).putInt(runCount[run]).putLong(runStart[run]);
+            }
+            entryBuf.flip();
+            pos = (long) dirtyFrom * ENTRY_BYTES;
+            dirtyFrom = runs;
+        }
+        while (entryBuf.hasRemaining()) {
+            pos += channel.write(entryBuf, pos);
+        }
+    }
+
+    // Forget records from global record number `records` on, after a failed append
+    synchronized void truncate(long records) throws IOException {
+        if (records >= coveredRecords) return;
+        // ids are added in increasing order, so a run is the last id in its day's list
+        while (runs > 0 && runStart[runs - 1] >= records) {
+            runs--;
+            RunList l = runsByDay.get(runDay[runs]);
+            if (--l.size == 0) runsByDay.remove(runDay[runs]);
+        }
+        if (runs > 0) runCount[runs - 1] = (int) (records - runStart[runs - 1]);
+        coveredRecords = records;
+        dirtyFrom = Math.min(dirtyFrom, Math.max(0, runs - 1));
+        if (channel != null) channel.truncate((long) runs * ENTRY_BYTES);
+    }
+
+    /**
+     * Record ranges ({start, count} pairs, in append order) holding records for days in [fromDay, toDay].
+     */
+    synchronized long[] ranges(int fromDay, int toDay) {
+        if (fromDay > toDay) return new long[0];
+        int total = 0;
+        for (RunList l : runsByDay.subMap(fromDay, true, toDay, true).values()) total += l.size;
+        int[] ids = new int[total];
+        int k = 0;
+        for (Map.Entry<Integer, RunList> e : runsByDay.subMap(fromDay, true, toDay, true).entrySet()) {
+            RunList l = e.getValue();
+            System.arraycopy(l.ids, 0, ids, k, l.size);
+            k += l.size;
+        }
+        Arrays.sort(ids);
+        long[] out = new long[total * 2];
+        for (int i = 0; i < total; i++) {
+            out[2 * i] = runStart[ids[i]];
+            out[2 * i + 1] = runCount[ids[i]];
+        }
+        return out;
+    }
+
+    private void addRun(int day, long start, int count) {
+        if (runs == runDay.length) {
+            int n = runs * 2;
+            runDay = Arrays.copyOf(runDay, n);
+            runCount = Arrays.copyOf(runCount, n);
+            runStart = Arrays.copyOf(runStart, n);
+        }
+        runDay[runs] = day;
+        runCount[runs] = count;
+        runStart[runs] = start;
+        runsByDay.computeIfAbsent(day, d -> new RunList()).add(runs);
+        runs++;
+        coveredRecords += count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) channel.close();
+    }
+
+    // Growable list of run ids for one day
+    private static class RunList {
+        int[] ids = new int[2];
+        int size;
+
+        void add(int id) {
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package fitlife.data;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calories-per-gram catalog of known foods, keyed by lowercase name.
+ *
+ * foods.txt is treated as an append-only change log ({@code name,caloriesPerGram}, later lines
+ * win), so learning a food costs one small append instead of rewriting the file. A background
+ * task compacts the log back to one line per food once it has grown well past the catalog size;
+ * all catalogs share one compactor thread, however many user partitions are open.
+ * Lookups and updates are safe from any thread. Each user partition owns one catalog (see
+ * {@link UserPartition}). Names are also kept in a {@link FoodSearchIndex}
+ * for autocomplete and typo-tolerant suggestions; calories are only ever taken from an exact name.
+ */
+public class FoodCatalog {
+
+    private static final long COMPACT_CHECK_MINUTES = 5;
+    private static final ScheduledExecutorService COMPACTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "fitlife-food-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Path file;
+    private final Map<String, Double> caloriesPerGram = new ConcurrentHashMap<>();
+    private final FoodSearchIndex searchIndex = new FoodSearchIndex();
+    private final Object logLock = new Object();
+    private final ScheduledFuture<?> compactCheck;
+    private FileChannel log;
+    private int logLines;
+    private boolean closed; // guarded by logLock
+
+    public FoodCatalog(Path file) throws IOException {
+        this.file = file;
+        if (Files.exists(file)) {
+            CsvLineParser parser = new CsvLineParser();
+            CsvLineParser.forEachLine(file, (buf, start, end) -> {
+                logLines++;
+                // malformed lines are skipped (and dropped on the next compaction)
+                if (parser.parseFood(buf, start, end)) {
+                    caloriesPerGram.put(key(parser.name()), parser.value);
+                }
+            });
+        }
+        for (String name : caloriesPerGram.keySet()) {
+            searchIndex.add(name);
+        }
+        this.compactCheck = COMPACTOR.scheduleWithFixedDelay(this::compactIfNeeded,
+                COMPACT_CHECK_MINUTES, COMPACT_CHECK_MINUTES, TimeUnit.MINUTES);
+    }
+
+    public static String key(String name) {
+        return name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // Calories per gram for a food, or null if unknown
+    public Double caloriesPerGram(String name) {
+        return caloriesPerGram.get(key(name));
+    }
+
+    /**
+     * Autocomplete suggestions: names starting with the text, or close misspellings when none do.
+     */
+    public List<String> suggest(String text, int limit) {
+        List<String> out = searchIndex.complete(text, limit);
+        if (out.isEmpty() && key(text).length() >= 3) {
+            out = searchIndex.fuzzy(text, 2, limit);
+        }
+        return out;
+    }
+
+    public FoodSearchIndex searchIndex() {
+        return searchIndex;
+    }
+
+    public int size() {
+        return caloriesPerGram.size();
+    }
+
+    public Map<String, Double> asMap() {
+        return Collections.unmodifiableMap(caloriesPerGram);
+    }
+
+    /**
+     * Record a food's calories per gram. Appends one line to the log when the value changed.
+     */
+    public void learn(String name, double cpg) throws IOException {
+        String k = key(name);
+        byte[] line = (k + "," + cpg + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+        boolean compact;
+        // map and log change together, so the log's last line for a food is always the map's value
+        synchronized (logLock) {
+            Double previous = caloriesPerGram.get(k);
+            if (previous != null && previous == cpg) return;
+            if (log == null) {
+                log = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            ByteBuffer buf = ByteBuffer.wrap(line);
+            while (buf.hasRemaining()) {
+                log.write(buf);
+            }
+            logLines++;
+            caloriesPerGram.put(k, cpg);
+            if (previous == null) searchIndex.add(k);
+            compact = needsCompaction();
+        }
+        if (compact) COMPACTOR.execute(this::compactIfNeeded);
+    }
+
+    private boolean needsCompaction() {
+        return logLines > 2 * caloriesPerGram.size() + 64;
+    }
+
+    private void compactIfNeeded() {
+        synchronized (logLock) {
+            if (closed || !needsCompaction()) return;
+            try {
+                compact();
+            } catch (IOException e) {
+                // keep appending to the uncompacted log; retried on the next check
+            }
+        }
+    }
+
+    /**
+     * Rewrite the log as one line per food. Appends wait while this runs.
+     */
+    public void compact() throws IOException {
+        synchronized (logLock) {
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            int lines = 0;
+            try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Double> e : caloriesPerGram.entrySet()) {
+                    w.write(e.getKey() + "," + e.getValue());
+                    w.newLine();
+                    lines++;
+                }
+            }
+            if (log != null) {
+                log.close();
+                log = null;
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logLines = lines;
+        }
+    }
+
+    // Stop the periodic check, fold the log down if it has grown and release the file
+    public void close() throws IOException {
+        compactCheck.cancel(false);
+        synchronized (logLock) {
+            closed = true;
+            if (needsCompaction()) compact();
+            if (log != null) {
+                log.close();
+                log = null;
+            }
+        }
+    }
+}
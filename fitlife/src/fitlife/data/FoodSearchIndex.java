@@ -0,0 +1,279 @@
+package fitlife.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory search over food names: prefix completion through an array-backed trie, and
+ * typo-tolerant lookup through a trigram index whose candidates are verified with edit distance.
+ * Terms can be added at any time; queries and updates may run concurrently.
+ */
+public class FoodSearchIndex {
+
+    private static final int NO_NODE = -1;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // trie nodes as parallel arrays; children of a node are a sibling list sorted by label
+    private char[] label = new char[1024];
+    private int[] firstChild = new int[1024];
+    private int[] nextSibling = new int[1024];
+    private int[] termAt = new int[1024];
+    private int nodes;
+
+    private final List<String> terms = new ArrayList<>();
+    // trigram -> [size, entry, entry, ...], entry = termId << 6 | position of the trigram in the term
+    private final Map<Integer, int[]> postings = new HashMap<>();
+
+    // how many of the scanned trigram lists a fuzzy candidate must appear in
+    private static final int PROBE_HITS = 2;
+    private static final ThreadLocal<int[]> HIT_COUNTS = ThreadLocal.withInitial(() -> new int[0]);
+
+    public FoodSearchIndex() {
+        newNode('\0'); // root
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return terms.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Add a food name (normalized with {@link FoodCatalog#key}). Adding a known name does nothing.
+     */
+    public void add(String name) {
+        String term = FoodCatalog.key(name);
+        if (term.isEmpty()) return;
+        lock.writeLock().lock();
+        try {
+            int node = 0;
+            for (int i = 0; i < term.length(); i++) {
+                node = childOrInsert(node, term.charAt(i));
+            }
+            if (termAt[node] != NO_NODE) return;
+            int id = terms.size();
+            terms.add(term);
+            termAt[node] = id;
+            int[] grams = trigrams(term);
+            for (int pos = 0; pos < grams.length; pos++) {
+                int[] list = postings.get(grams[pos]);
+                if (list == null) {
+                    list = new int[4];
+                } else if (list[0] + 1 == list.length) {
+                    list = Arrays.copyOf(list, list.length * 2);
+                }
+                list[++list[0]] = (id << 6) | Math.min(pos, 63);
+                postings.put(grams[pos], list);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Up to limit known names starting with prefix, in alphabetical order.
+     */
+    public List<String> complete(String prefix, int limit) {
+        String p = FoodCatalog.key(prefix);
+        List<String> out = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            int node = 0;
+            for (int i = 0; i < p.length() && node != NO_NODE; i++) {
+                node = child(node, p.charAt(i));
+            }
+            if (node != NO_NODE) collect(node, limit, out);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return out;
+    }
+
+    /**
+     * Up to limit known names within maxEdits edits of query, closest first.
+     */
+    public List<String> fuzzy(String query, int maxEdits, int limit) {
+        String q = FoodCatalog.key(query);
+        List<String> out = new ArrayList<>();
+        if (q.isEmpty()) return out;
+        lock.readLock().lock();
+        try {
+            int[] grams = trigrams(q);
+            // each edit changes at most three trigrams, so a match shares at least minShared of them.
+            // Scanning only the rarest lists, a match must still be hit `required` times there.
+            int minShared = Math.max(1, grams.length - 3 * maxEdits);
+            int[][] lists = new int[grams.length][];
+            int[] listPos = new int[grams.length];
+            int listCount = 0;
+            for (int pos = 0; pos < grams.length; pos++) {
+                int[] list = postings.get(grams[pos]);
+                if (list != null) {
+                    lists[listCount] = list;
+                    listPos[listCount++] = pos;
+                }
+            }
+            if (listCount < minShared) return out;
+            Integer[] byLength = new Integer[listCount];
+            for (int i = 0; i < listCount; i++) byLength[i] = i;
+            Arrays.sort(byLength, (x, y) -> Integer.compare(lists[x][0], lists[y][0]));
+            int required = Math.min(PROBE_HITS, minShared);
+            int probe = listCount - minShared + required;
+            int[] counts = scratch(terms.size());
+            int[] touched = new int[64];
+            int touchedCount = 0;
+            for (int l = 0; l < probe; l++) {
+                int[] list = lists[byLength[l]];
+                int qpos = Math.min(listPos[byLength[l]], 63);
+                int lastId = -1;
+                for (int k = 1; k <= list[0]; k++) {
+                    int entry = list[k];
+                    int id = entry >>> 6;
+                    // a shared trigram can move by at most maxEdits positions; count a term once per list
+                    if (id == lastId || Math.abs((entry & 63) - qpos) > maxEdits) continue;
+                    lastId = id;
+                    if (counts[id]++ == 0) {
+                        if (touchedCount == touched.length) touched = Arrays.copyOf(touched, touchedCount * 2);
+                        touched[touchedCount++] = id;
+                    }
+                }
+            }
+            // (distance, id) packed so a plain sort orders by distance, then insertion order
+            long[] matches = new long[Math.min(touchedCount, 256)];
+            int matchCount = 0;
+            for (int t = 0; t < touchedCount; t++) {
+                int id = touched[t];
+                int hitCount = counts[id];
+                counts[id] = 0;
+                if (hitCount < required) continue;
+                String term = terms.get(id);
+                if (Math.abs(term.length() - q.length()) > maxEdits) continue;
+                int d = boundedDistance(q, term, maxEdits);
+                if (d <= maxEdits) {
+                    if (matchCount == matches.length) matches = Arrays.copyOf(matches, matchCount * 2);
+                    matches[matchCount++] = ((long) d << 32) | id;
+                }
+            }
+            Arrays.sort(matches, 0, matchCount);
+            for (int i = 0; i < matchCount && out.size() < limit; i++) {
+                out.add(terms.get((int) matches[i]));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return out;
+    }
+
+    private void collect(int node, int limit, List<String> out) {
+        // iterative pre-order walk, so results come out in alphabetical order
+        int[] stack = new int[64];
+        int sp = 0;
+        stack[sp++] = node;
+        while (sp > 0 && out.size() < limit) {
+            int n = stack[--sp];
+            if (termAt[n] != NO_NODE) out.add(terms.get(termAt[n]));
+            // push children in reverse so the smallest label is visited first
+            int count = 0;
+            for (int c = firstChild[n]; c != NO_NODE; c = nextSibling[c]) count++;
+            if (sp + count > stack.length) stack = Arrays.copyOf(stack, Math.max(stack.length * 2, sp + count));
+            int pos = sp + count;
+            for (int c = firstChild[n]; c != NO_NODE; c = nextSibling[c]) stack[--pos] = c;
+            sp += count;
+        }
+    }
+
+    private int child(int node, char c) {
+        for (int n = firstChild[node]; n != NO_NODE && label[n] <= c; n = nextSibling[n]) {
+            if (label[n] == c) return n;
+        }
+        return NO_NODE;
+    }
+
+    private int childOrInsert(int node, char c) {
+        int prev = NO_NODE;
+        int n = firstChild[node];
+        while (n != NO_NODE && label[n] < c) {
+            prev = n;
+            n = nextSibling[n];
+        }
+        if (n != NO_NODE && label[n] == c) return n;
+        int created = newNode(c);
+        nextSibling[created] = n;
+        if (prev == NO_NODE) firstChild[node] = created;
+        else nextSibling[prev] = created;
+        return created;
+    }
+
+    private int newNode(char c) {
+        if (nodes == label.length) {
+            int cap = nodes * 2;
+            label = Arrays.copyOf(label, cap);
+            firstChild = Arrays.copyOf(firstChild, cap);
+            nextSibling = Arrays.copyOf(nextSibling, cap);
+            termAt = Arrays.copyOf(termAt, cap);
+        }
+        label[nodes] = c;
+        firstChild[nodes] = NO_NODE;
+        nextSibling[nodes] = NO_NODE;
+        termAt[nodes] = NO_NODE;
+        return nodes++;
+    }
+
+    // Per-thread hit counters; every counter a query touches is reset before it returns
+    private static int[] scratch(int n) {
+        int[] counts = HIT_COUNTS.get();
+        if (counts.length < n) {
+            counts = new int[Math.max(n, counts.length * 2)];
+            HIT_COUNTS.set(counts);
+        }
+        return counts;
+    }
+
+    // Trigrams of the term padded with one leading and trailing space
+    private static int[] trigrams(String term) {
+        String s = " " + term + " ";
+        int[] out = new int[Math.max(1, s.length() - 2)];
+        for (int i = 0; i + 3 <= s.length(); i++) {
+            out[i] = (s.charAt(i) * 65599 + s.charAt(i + 1)) * 65599 + s.charAt(i + 2);
+        }
+        return out;
+    }
+
+    // Levenshtein distance restricted to a diagonal band of width 2*max+1; returns max + 1 once it must exceed max
+    static int boundedDistance(String a, String b, int max) {
+        int n = a.length();
+        int m = b.length();
+        if (Math.abs(n - m) > max) return max + 1;
+        int big = max + 1;
+        int[] prev = new int[m + 1];
+        int[] cur = new int[m + 1];
+        for (int j = 0; j <= m; j++) prev[j] = j <= max ? j : big;
+        for (int i = 1; i <= n; i++) {
+            int from = Math.max(1, i - max);
+            int to = Math.min(m, i + max);
+            cur[0] = i <= max ? i : big;
+            if (from > 1) cur[from - 1] = big;
+            int rowMin = cur[0];
+            char ca = a.charAt(i - 1);
+            for (int j = from; j <= to; j++) {
+                int cost = ca == b.charAt(j - 1) ? 0 : 1;
+                int v = Math.min(prev[j - 1] + cost, Math.min(cur[j - 1], prev[j]) + 1);
+                cur[j] = Math.min(v, big);
+                rowMin = Math.min(rowMin, cur[j]);
+            }
+            if (to < m) cur[to + 1] = big;
+            if (rowMin > max) return big;
+            int[] t = prev;
+            prev = cur;
+            cur = t;
+        }
+        return prev[m];
+    }
+}
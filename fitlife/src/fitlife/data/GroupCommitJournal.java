@@ -0,0 +1,279 @@
+package fitlife.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Write-behind journal in front of one {@link RecordStore}: the store's only writer.
+ *
+ * Callers enqueue entries on a lock-free queue and get a future back; a dedicated thread drains
+ * the queue and group-commits each batch: one write to the store, rollup updates, and (if the
+ * policy asks for it) one fsync, after which every future in the batch completes. Producers never
+ * block each other or the writer; the writer parks when the queue is empty and the next producer
+ * to see it parked wakes it.
+ *
+ * A future fails only if its records were not stored (or, with fsync on, not forced to disk).
+ * The rollup snapshot written along the way is a cache rebuilt from the stores, so failing to
+ * write it fails no entry; see {@link #snapshotFailure()}.
+ */
+public class GroupCommitJournal implements Closeable {
+
+    private static final byte RECORD = 0;
+    private static final byte BATCH = 1;
+    private static final byte BARRIER = 2;
+    private static final byte STOP = 3;
+
+    private final DataStore ds;
+    private final RecordStore store;
+    private final JournalPolicy policy;
+    private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final Thread writer;
+    private volatile boolean parked;
+    private volatile boolean closed;
+    private volatile Exception snapshotFailure;
+
+    // encode buffer, reused between batches
+    private ByteBuffer buf = ByteBuffer.allocate(0);
+
+    private static class Entry {
+        final byte kind;
+        final int epochDay;
+        final int nameId;
+        final int categoryId;
+        final double value;
+        final double quantity;
+        final ByteBuffer records; // BATCH only
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Entry(byte kind, int epochDay, int nameId, int categoryId, double value, double quantity, ByteBuffer records) {
+            this.kind = kind;
+            this.epochDay = epochDay;
+            this.nameId = nameId;
+            this.categoryId = categoryId;
+            this.value = value;
+            this.quantity = quantity;
+            this.records = records;
+        }
+    }
+
+    GroupCommitJournal(DataStore ds, RecordStore store, JournalPolicy policy) {
+        this.ds = ds;
+        this.store = store;
+        this.policy = policy;
+        this.writer = new Thread(this::run, "fitlife-journal-" + store.getFamily());
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public CompletableFuture<Void> submit(int epochDay, int nameId, int categoryId, double value, double quantity) {
+        return submit(new Entry(RECORD, epochDay, nameId, categoryId, value, quantity, null));
+    }
+
+    /**
+     * Queue records already encoded with {@link RecordStore#encode}. The buffer must not be
+     * touched until the returned future completes.
+     */
+    public CompletableFuture<Void> submitBatch(ByteBuffer records) {
+        if (records.remaining() % RecordStore.RECORD_BYTES != 0) {
+            throw new IllegalArgumentException("Batch is not a whole number of records: " + records.remaining() + " bytes");
+        }
+        return submit(new Entry(BATCH, 0, 0, 0, 0, 0, records));
+    }
+
+    /**
+     * Future that completes once every entry submitted before this call has been committed.
+     */
+    public CompletableFuture<Void> barrier() {
+        return submit(new Entry(BARRIER, 0, 0, 0, 0, 0, null));
+    }
+
+    private CompletableFuture<Void> submit(Entry e) {
+        if (closed) {
+            e.done.completeExceptionally(new IOException("Journal is closed"));
+            return e.done;
+        }
+        queue.offer(e);
+        if (parked) LockSupport.unpark(writer);
+        return e.done;
+    }
+
+    // Next entry, parking until one arrives; with a timeout, null once it has passed
+    private Entry take(long timeoutNanos) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (true) {
+            Entry e = queue.poll();
+            if (e != null) return e;
+            parked = true;
+            // re-check after announcing: a producer that missed the flag has already enqueued
+            e = queue.poll();
+            if (e == null) {
+                if (timeoutNanos < 0) {
+                    LockSupport.park(this);
+                } else {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) {
+                        parked = false;
+                        return null;
+                    }
+                    LockSupport.parkNanos(this, left);
+                }
+            }
+            parked = false;
+            if (e != null) return e;
+        }
+    }
+
+    private void run() {
+        List<Entry> batch = new ArrayList<>();
+        int max = policy.getMaxBatchRecords();
+        long delayNanos = TimeUnit.MILLISECONDS.toNanos(policy.getMaxDelayMillis());
+        boolean stop = false;
+        while (!stop) {
+            batch.add(take(-1));
+            long deadline = System.nanoTime() + delayNanos;
+            while (batch.size() < max) {
+                Entry next = queue.poll();
+                if (next == null) {
+                    long wait = deadline - System.nanoTime();
+                    next = wait > 0 ? take(wait) : null;
+                    if (next == null) break;
+                }
+                batch.add(next);
+            }
+            for (Entry e : batch) {
+                if (e.kind == STOP) stop = true;
+            }
+            commit(batch);
+            batch.clear();
+        }
+        // entries that raced with close() are failed rather than left pending
+        for (Entry e; (e = queue.poll()) != null; ) {
+            e.done.completeExceptionally(new IOException("Journal is closed"));
+        }
+    }
+
+    private void commit(List<Entry> batch) {
+        List<Entry> stored = new ArrayList<>(batch.size());
+        DailyRollup rollup = ds.rollup();
+        // same lock order as everywhere else: rollup, then store
+        synchronized (rollup) {
+            // single records go out in one append, bulk batches in one each; an append is all or
+            // nothing, so only the entries of a failed append fail
+            int records = 0;
+            for (Entry e : batch) {
+                if (e.kind == RECORD) records++;
+            }
+            if (records > 0) {
+                try {
+                    buf = prepare(buf, records);
+                    for (Entry e : batch) {
+                        if (e.kind == RECORD) RecordStore.encode(buf, e.epochDay, e.nameId, e.categoryId, e.value, e.quantity);
+                    }
+                    buf.flip();
+                    store.append(buf);
+                    for (Entry e : batch) {
+                        if (e.kind == RECORD) stored.add(e);
+                    }
+                } catch (IOException | RuntimeException ex) {
+                    for (Entry e : batch) {
+                        if (e.kind == RECORD) e.done.completeExceptionally(ex);
+                    }
+                }
+            }
+            for (Entry e : batch) {
+                if (e.kind != BATCH) continue;
+                try {
+                    store.append(e.records.duplicate());
+                    stored.add(e);
+                } catch (IOException | RuntimeException ex) {
+                    e.done.completeExceptionally(ex);
+                }
+            }
+            try {
+                // a rebuild reads the stores, so it covers this batch as well
+                if (!stored.isEmpty() && !rollup.rebuildIfStale(ds)) {
+                    for (Entry e : stored) {
+                        if (e.kind == RECORD) {
+                            fold(rollup, e.epochDay, e.nameId, e.categoryId, e.value);
+                        } else {
+                            ByteBuffer r = e.records;
+                            for (int off = r.position(); off < r.limit(); off += RecordStore.RECORD_BYTES) {
+                                fold(rollup, r.getInt(off), r.getInt(off + 4), r.getInt(off + 8), r.getDouble(off + 16));
+                            }
+                        }
+                    }
+                }
+            } catch (IOException | RuntimeException ex) {
+                // the entries are in the store but the rollup may hold only part of them, so it is
+                // rebuilt from the stores by the next commit or flush (or on open, from the last snapshot)
+                rollup.markStale();
+                IOException failure = new IOException("Entry stored, but the daily totals could not be updated; they will be rebuilt.", ex);
+                for (Entry e : stored) e.done.completeExceptionally(failure);
+            }
+            try {
+                rollup.saveIfDirty(false);
+                snapshotFailure = null;
+            } catch (IOException | RuntimeException ex) {
+                // the rollup stays dirty, so the next commit or flush writes it again
+                snapshotFailure = ex;
+            }
+        }
+        if (policy.isFsync() && !stored.isEmpty()) {
+            try {
+                store.sync();
+            } catch (IOException | RuntimeException ex) {
+                for (Entry e : stored) e.done.completeExceptionally(ex);
+            }
+        }
+        // stored entries, barriers and the stop marker; failed entries are already done
+        for (Entry e : batch) e.done.complete(null);
+    }
+
+    /**
+     * The error from the last attempt to write the rollup snapshot, or null if it succeeded.
+     * Entries are stored either way; {@link DataStore#flush()} writes the snapshot again and
+     * throws if it still fails.
+     */
+    public Exception snapshotFailure() {
+        return snapshotFailure;
+    }
+
+    private void fold(DailyRollup rollup, int epochDay, int nameId, int categoryId, double value) {
+        switch (store.getFamily()) {
+            case DataStore.MEALS: rollup.addMeal(epochDay, nameId, categoryId, value); break;
+            case DataStore.STEPS: rollup.addSteps(epochDay, value); break;
+            default: rollup.addWater(epochDay, value); break;
+        }
+    }
+
+    private static ByteBuffer prepare(ByteBuffer buf, int records) {
+        int bytes = records * RecordStore.RECORD_BYTES;
+        if (buf.capacity() < bytes) buf = ByteBuffer.allocate(bytes);
+        buf.clear();
+        return buf;
+    }
+
+    /**
+     * Commit everything still queued and stop the writer thread.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        queue.offer(new Entry(STOP, 0, 0, 0, 0, 0, null));
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing journal", ex);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package fitlife.data;
+
+/**
+ * Group-commit settings for {@link GroupCommitJournal}.
+ *
+ * A batch is committed when it reaches maxBatchRecords or when maxDelayMillis has passed since
+ * its first entry arrived, whichever comes first. With a delay of 0 a batch is committed as soon
+ * as the queue is drained, so batches form only from entries that arrive during the previous
+ * commit.
+ *
+ * With fsync enabled every batch is forced to disk before its futures complete; otherwise data
+ * reaches disk on {@link DataStore#flush()}.
+ */
+public class JournalPolicy {
+
+    private final int maxBatchRecords;
+    private final long maxDelayMillis;
+    private final boolean fsync;
+
+    public JournalPolicy(int maxBatchRecords, long maxDelayMillis, boolean fsync) {
+        if (maxBatchRecords < 1) {
+            throw new IllegalArgumentException("maxBatchRecords must be at least 1.");
+        }
+        if (maxDelayMillis < 0) {
+            throw new IllegalArgumentException("maxDelayMillis cannot be negative.");
+        }
+        this.maxBatchRecords = maxBatchRecords;
+        this.maxDelayMillis = maxDelayMillis;
+        this.fsync = fsync;
+    }
+
+    /**
+     * Policy from system properties fitlife.journal.maxBatch (default 512),
+     * fitlife.journal.maxDelayMs (default 0) and fitlife.journal.fsync (default false).
+     */
+    public static JournalPolicy fromSystemProperties() {
+        return new JournalPolicy(
+                Integer.getInteger("fitlife.journal.maxBatch", 512),
+                Long.getLong("fitlife.journal.maxDelayMs", 0L),
+                Boolean.getBoolean("fitlife.journal.fsync"));
+    }
+
+    public int getMaxBatchRecords() {
+        return maxBatchRecords;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public boolean isFsync() {
+        return fsync;
+    }
+}
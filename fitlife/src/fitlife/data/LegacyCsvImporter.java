@@ -0,0 +1,171 @@
+package fitlife.data;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One-shot import of the old meals.txt / steps.txt / water.txt files into the binary record store.
+ * A marker file ({@code <family>.imported}) in the data directory records that a family has been
+ * imported so the CSV rows are never loaded twice. The marker is written only once every row has
+ * been committed, so an import that fails is tried again on the next open. The CSV files
+ * themselves are left untouched.
+ *
+ * Rows are committed a chunk at a time, and after each chunk {@code <family>.imported.partial}
+ * records which lines are in the store: every line before a point, plus any later line that
+ * committed while an earlier one failed. A retried import skips those lines, so rows that made it
+ * in the first time are not added again.
+ */
+public class LegacyCsvImporter {
+
+    private static final int CHUNK = 4096;
+
+    public static void importIfNeeded(DataStore ds, Path legacyDir) throws IOException {
+        importFamily(ds, legacyDir, DataStore.MEALS);
+        importFamily(ds, legacyDir, DataStore.STEPS);
+        importFamily(ds, legacyDir, DataStore.WATER);
+    }
+
+    private static void importFamily(DataStore ds, Path legacyDir, String family) throws IOException {
+        Path marker = ds.getDirectory().resolve(family + ".imported");
+        if (Files.exists(marker)) return;
+        Path csv = legacyDir.resolve(family + ".txt");
+        Progress progress = Progress.read(ds.getDirectory().resolve(family + ".imported.partial"));
+        if (Files.exists(csv)) {
+            CsvLineParser parser = new CsvLineParser();
+            List<CompletableFuture<Void>> pending = new ArrayList<>();
+            List<Long> lines = new ArrayList<>();
+            long[] line = {0};
+            CsvLineParser.forEachLine(csv, (buf, start, end) -> {
+                long n = line[0]++;
+                if (progress.contains(n)) return;
+                CompletableFuture<Void> saved = importLine(ds, family, parser, buf, start, end);
+                if (saved == null) return;
+                pending.add(saved);
+                lines.add(n);
+                if (pending.size() == CHUNK) settle(ds, progress, line[0], pending, lines);
+            });
+            settle(ds, progress, line[0], pending, lines);
+        }
+        Files.writeString(marker, progress.rows + System.lineSeparator());
+        Files.deleteIfExists(progress.file);
+    }
+
+    // Wait for the queued rows, flush them and record which lines are now stored; lines before
+    // upTo are all accounted for unless a row failed, in which case this throws
+    private static void settle(DataStore ds, Progress progress, long upTo,
+                               List<CompletableFuture<Void>> pending, List<Long> lines) throws IOException {
+        IOException failure = null;
+        for (int i = 0; i < pending.size(); i++) {
+            try {
+                DataStore.await(pending.get(i));
+                progress.add(lines.get(i));
+            } catch (IOException ex) {
+                if (failure == null) failure = ex;
+            }
+        }
+        pending.clear();
+        lines.clear();
+        if (failure == null) progress.advance(upTo);
+        ds.flush();
+        progress.write();
+        if (failure != null) throw failure;
+    }
+
+    // Parse and queue one legacy row; returns its commit future, or null for a malformed line or
+    // one dated outside the range the store accepts
+    private static CompletableFuture<Void> importLine(DataStore ds, String family, CsvLineParser p,
+                                                      byte[] buf, int start, int end) throws IOException {
+        switch (family) {
+            case DataStore.MEALS:
+                if (!p.parseMeal(buf, start, end) || !DataStore.isValidDay(p.epochDay)) return null;
+                return ds.submitMeal(p.epochDay, p.name(), p.category(), p.value, p.quantity);
+            case DataStore.STEPS:
+                if (!p.parseSteps(buf, start, end) || !DataStore.isValidDay(p.epochDay)) return null;
+                return ds.submitSteps(p.epochDay, p.value);
+            case DataStore.WATER:
+                if (!p.parseWater(buf, start, end) || !DataStore.isValidDay(p.epochDay)) return null;
+                return ds.submitWater(p.epochDay, p.value);
+            default:
+                return null;
+        }
+    }
+
+    // Lines of one legacy file that are already in the store
+    private static final class Progress {
+        final Path file;
+        long before;                                  // every line before this one
+        final TreeSet<Long> after = new TreeSet<>();  // and these lines after it
+        long rows;                                    // rows imported so far
+
+        private Progress(Path file) {
+            this.file = file;
+        }
+
+        static Progress read(Path file) throws IOException {
+            Progress p = new Progress(file);
+            if (!Files.exists(file)) return p;
+            try (BufferedReader in = Files.newBufferedReader(file)) {
+                String first = in.readLine();
+                if (first == null) throw new IOException("Empty import progress file " + file);
+                String[] head = first.trim().split(" ");
+                p.before = Long.parseLong(head[0]);
+                p.rows = Long.parseLong(head[1]);
+                for (String s; (s = in.readLine()) != null; ) {
+                    if (!s.isBlank()) p.after.add(Long.parseLong(s.trim()));
+                }
+            } catch (RuntimeException ex) {
+                throw new IOException("Corrupt import progress file " + file, ex);
+            }
+            return p;
+        }
+
+        boolean contains(long line) {
+            return line < before || after.contains(line);
+        }
+
+        void add(long line) {
+            if (after.add(line)) rows++;
+        }
+
+        void advance(long upTo) {
+            before = Math.max(before, upTo);
+            after.headSet(before).clear();
+        }
+
+        void write() throws IOException {
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (BufferedWriter out = Files.newBufferedWriter(tmp)) {
+                out.write(before + " " + rows);
+                out.newLine();
+                for (long line : after) {
+                    out.write(Long.toString(line));
+                    out.newLine();
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    // Run the import by hand into the local user's store: java fitlife.data.LegacyCsvImporter [legacyDir]
+    public static void main(String[] args) {
+        Path legacyDir = Paths.get(args.length > 0 ? args[0] : ".");
+        try {
+            DataStore ds = new DataStore(DataStore.DEFAULT_DIR);
+            importIfNeeded(ds, legacyDir);
+            ds.close();
+            System.out.println("Records: meals=" + ds.meals().size() + ", steps=" + ds.steps().size()
+                    + ", water=" + ds.water().size());
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package fitlife.data;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Calories, grams and meal counts per category and per meal name over a day range.
+ *
+ * Categories and meal names are interned into the user's {@link StringDictionary}s when a meal is
+ * written, so records carry int ids. The totals here are primitive arrays indexed by those ids,
+ * filled in one scan of the range without hashing or building a String per record; names are
+ * looked up only for the ids a caller reads back.
+ */
+public final class MealBreakdown {
+
+    private final Totals categories;
+    private final Totals foods;
+    private int meals;
+    private double calories;
+    private double grams;
+
+    private MealBreakdown(DataStore ds) {
+        this.categories = new Totals(ds.categories());
+        this.foods = new Totals(ds.mealNames());
+    }
+
+    /**
+     * Totals over the meals logged in [fromDay, toDay].
+     */
+    public static MealBreakdown of(DataStore ds, int fromDay, int toDay) throws IOException {
+        MealBreakdown b = new MealBreakdown(ds);
+        ds.meals().scan(fromDay, toDay, (day, nameId, categoryId, value, quantity) -> {
+            b.categories.add(categoryId, value, quantity);
+            b.foods.add(nameId, value, quantity);
+            b.meals++;
+            b.calories += value;
+            b.grams += quantity;
+        });
+        return b;
+    }
+
+    public Totals categories() {
+        return categories;
+    }
+
+    public Totals foods() {
+        return foods;
+    }
+
+    public int meals() {
+        return meals;
+    }
+
+    public double calories() {
+        return calories;
+    }
+
+    public double grams() {
+        return grams;
+    }
+
+    /**
+     * Per-id totals for one dictionary. Slot 0 holds meals without an id.
+     */
+    public static final class Totals {
+        private final StringDictionary names;
+        private int[] meals;
+        private double[] calories;
+        private double[] grams;
+        private double totalCalories;
+
+        Totals(StringDictionary names) {
+            this.names = names;
+            int slots = names.size() + 1;
+            this.meals = new int[slots];
+            this.calories = new double[slots];
+            this.grams = new double[slots];
+        }
+
+        void add(int id, double kcal, double g) {
+            int i = id + 1;
+            // ids interned after the arrays were sized
+            if (i >= meals.length) {
+                int slots = Math.max(i + 1, meals.length * 2);
+                meals = Arrays.copyOf(meals, slots);
+                calories = Arrays.copyOf(calories, slots);
+                grams = Arrays.copyOf(grams, slots);
+            }
+            meals[i]++;
+            calories[i] += kcal;
+            grams[i] += g;
+            totalCalories += kcal;
+        }
+
+        /**
+         * Ids with at least one meal, most calories first (ties by more meals); -1 for meals
+         * without an id.
+         */
+        public int[] ids() {
+            int n = 0;
+            for (int m : meals) if (m > 0) n++;
+            Integer[] order = new Integer[n];
+            for (int i = 0, k = 0; i < meals.length; i++) {
+                if (meals[i] > 0) order[k++] = i;
+            }
+            Arrays.sort(order, (a, b) -> calories[a] != calories[b] ? Double.compare(calories[b], calories[a]) : Integer.compare(meals[b], meals[a]));
+            int[] out = new int[n];
+            for (int k = 0; k < n; k++) out[k] = order[k] - 1;
+            return out;
+        }
+
+        // Display name; blank for meals logged without one
+        public String name(int id) {
+            return id < 0 ? "" : names.valueOf(id);
+        }
+
+        public int meals(int id) {
+            return slot(id) < meals.length ? meals[slot(id)] : 0;
+        }
+
+        public double calories(int id) {
+            return slot(id) < calories.length ? calories[slot(id)] : 0;
+        }
+
+        public double grams(int id) {
+            return slot(id) < grams.length ? grams[slot(id)] : 0;
+        }
+
+        // Fraction of the range's calories, 0 when none were logged
+        public double share(int id) {
+            return totalCalories > 0 ? calories(id) / totalCalories : 0;
+        }
+
+        private static int slot(int id) {
+            return Math.max(id, -1) + 1;
+        }
+    }
+}
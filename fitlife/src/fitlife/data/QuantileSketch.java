@@ -0,0 +1,185 @@
+package fitlife.data;
+
+import java.util.Arrays;
+
+/**
+ * KLL quantile sketch over doubles: answers "value at rank q" for a stream of any length while
+ * keeping O(k) values, and can be merged with sketches built over other data.
+ *
+ * Values sit in levels; a value on level h stands for 2^h of the originals. When a level fills up
+ * it is sorted and every other value (alternating start) is promoted, halving its weight count.
+ * The rank error of a query is at most about 1.65% of the number of values with the default
+ * k = 200 (99% confidence, shrinking roughly as 1/k), and zero while fewer than k values were
+ * added. Min and max are always exact. Not thread-safe.
+ */
+public class QuantileSketch {
+
+    public static final int DEFAULT_K = 200;
+    // each level below the top holds 2/3 of the one above it
+    private static final double SHRINK = 2.0 / 3.0;
+
+    private final int k;
+    private double[][] levels = new double[1][];
+    private int[] sizes = new int[1];
+    private int retained;
+    private int maxRetained;
+    private long count;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+    private long coin = 0x9E3779B97F4A7C15L;
+
+    public QuantileSketch() {
+        this(DEFAULT_K);
+    }
+
+    public QuantileSketch(int k) {
+        if (k < 8) {
+            throw new IllegalArgumentException("k must be at least 8.");
+        }
+        this.k = k;
+        levels[0] = new double[capacity(0)];
+        maxRetained = capacity(0);
+    }
+
+    public void add(double value) {
+        if (Double.isNaN(value)) return;
+        if (count == 0 || value < min) min = value;
+        if (count == 0 || value > max) max = value;
+        count++;
+        push(0, value);
+        retained++;
+        if (retained >= maxRetained) compress();
+    }
+
+    /**
+     * Fold in a sketch built over other data; the result answers queries over both.
+     */
+    public void merge(QuantileSketch other) {
+        if (other.count == 0) return;
+        while (levels.length < other.levels.length) grow();
+        for (int h = 0; h < other.levels.length; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) push(h, other.levels[h][i]);
+        }
+        retained += other.retained;
+        min = count == 0 ? other.min : Math.min(min, other.min);
+        max = count == 0 ? other.max : Math.max(max, other.max);
+        count += other.count;
+        while (retained >= maxRetained) compress();
+    }
+
+    // Number of values added, including merged ones
+    public long count() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public double min() {
+        return min;
+    }
+
+    public double max() {
+        return max;
+    }
+
+    // Value at fraction q (0..1) of the sorted data, NaN when empty
+    public double quantile(double q) {
+        return quantiles(q)[0];
+    }
+
+    /**
+     * Several quantiles from one pass: for each q the smallest retained value whose cumulative
+     * weight reaches q * count, so the median of an even count is the lower middle value.
+     */
+    public double[] quantiles(double... qs) {
+        double[] out = new double[qs.length];
+        for (double q : qs) {
+            if (!(q >= 0 && q <= 1)) {
+                throw new IllegalArgumentException("Quantile must be between 0 and 1: " + q);
+            }
+        }
+        if (count == 0) {
+            Arrays.fill(out, Double.NaN);
+            return out;
+        }
+        double[][] sorted = new double[levels.length][];
+        for (int h = 0; h < levels.length; h++) {
+            sorted[h] = Arrays.copyOf(levels[h], sizes[h]);
+            Arrays.sort(sorted[h]);
+        }
+        for (int j = 0; j < qs.length; j++) {
+            out[j] = qs[j] == 0 ? min : qs[j] == 1 ? max : valueAtWeight(sorted, qs[j] * count);
+        }
+        return out;
+    }
+
+    // Walk the sorted levels in value order until the cumulative weight reaches target
+    private double valueAtWeight(double[][] sorted, double target) {
+        int[] pos = new int[sorted.length];
+        long cum = 0;
+        while (true) {
+            int next = -1;
+            for (int h = 0; h < sorted.length; h++) {
+                if (pos[h] < sorted[h].length && (next < 0 || sorted[h][pos[h]] < sorted[next][pos[next]])) next = h;
+            }
+            if (next < 0) return max;
+            double v = sorted[next][pos[next]++];
+            cum += 1L << next;
+            if (cum >= target) return v;
+        }
+    }
+
+    public QuantileSketch copy() {
+        QuantileSketch c = new QuantileSketch(k);
+        c.merge(this);
+        return c;
+    }
+
+    private int capacity(int h) {
+        int depth = levels.length - h - 1;
+        return Math.max(2, (int) Math.ceil(k * Math.pow(SHRINK, depth))) + 1;
+    }
+
+    private void push(int h, double value) {
+        if (sizes[h] == levels[h].length) levels[h] = Arrays.copyOf(levels[h], Math.max(4, sizes[h] * 2));
+        levels[h][sizes[h]++] = value;
+    }
+
+    private void grow() {
+        int h = levels.length;
+        levels = Arrays.copyOf(levels, h + 1);
+        sizes = Arrays.copyOf(sizes, h + 1);
+        levels[h] = new double[4];
+        maxRetained = 0;
+        for (int i = 0; i <= h; i++) maxRetained += capacity(i);
+    }
+
+    // Compact the lowest full level into the one above it
+    private void compress() {
+        for (int h = 0; h < levels.length; h++) {
+            if (sizes[h] >= capacity(h)) {
+                if (h + 1 == levels.length) grow();
+                double[] level = levels[h];
+                int size = sizes[h];
+                Arrays.sort(level, 0, size);
+                // an odd value out stays behind at this level
+                int keep = size % 2;
+                int start = keep + (flip() ? 1 : 0);
+                for (int i = start; i < size; i += 2) push(h + 1, level[i]);
+                sizes[h] = keep;
+                retained -= (size - keep) / 2;
+                return;
+            }
+        }
+    }
+
+    // Unbiased choice of which half survives, deterministic per sketch
+    private boolean flip() {
+        coin ^= coin << 13;
+        coin ^= coin >>> 7;
+        coin ^= coin << 17;
+        return (coin & 1) != 0;
+    }
+}
@@ -0,0 +1,88 @@
+package fitlife.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Rows returned by a {@link TrackerQuery}. Cells are LocalDate (day), String (weekday, name,
+ * category), Integer (month, year), Long (count()), Double (measures and aggregates), or null
+ * for an aggregate over no rows.
+ */
+public final class QueryResult {
+
+    private final List<String> columns;
+    private final List<Object[]> rows;
+
+    QueryResult(List<String> columns, List<Object[]> rows) {
+        this.columns = Collections.unmodifiableList(new ArrayList<>(columns));
+        this.rows = Collections.unmodifiableList(rows);
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    // The cells of each row, in column order; the arrays must not be modified
+    public List<Object[]> getRows() {
+        return rows;
+    }
+
+    public int size() {
+        return rows.size();
+    }
+
+    public Object get(int row, int column) {
+        return rows.get(row)[column];
+    }
+
+    // Plain-text table: numbers right-aligned, whole numbers without decimals
+    @Override
+    public String toString() {
+        String[][] cells = new String[rows.size()][columns.size()];
+        int[] widths = new int[columns.size()];
+        for (int c = 0; c < widths.length; c++) widths[c] = columns.get(c).length();
+        for (int r = 0; r < cells.length; r++) {
+            for (int c = 0; c < widths.length; c++) {
+                cells[r][c] = format(rows.get(r)[c]);
+                widths[c] = Math.max(widths[c], cells[r][c].length());
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int c = 0; c < widths.length; c++) pad(sb, columns.get(c), widths[c], false, c);
+        sb.append('\n');
+        for (int c = 0; c < widths.length; c++) {
+            if (c > 0) sb.append("  ");
+            for (int i = 0; i < widths[c]; i++) sb.append('-');
+        }
+        sb.append('\n');
+        for (int r = 0; r < cells.length; r++) {
+            for (int c = 0; c < widths.length; c++) pad(sb, cells[r][c], widths[c], rows.get(r)[c] instanceof Number, c);
+            sb.append('\n');
+        }
+        sb.append('(').append(rows.size()).append(rows.size() == 1 ? " row)" : " rows)").append('\n');
+        return sb.toString();
+    }
+
+    private static void pad(StringBuilder sb, String cell, int width, boolean right, int column) {
+        if (column > 0) sb.append("  ");
+        if (right) {
+            for (int i = cell.length(); i < width; i++) sb.append(' ');
+            sb.append(cell);
+        } else {
+            sb.append(cell);
+            for (int i = cell.length(); i < width; i++) sb.append(' ');
+        }
+    }
+
+    private static String format(Object cell) {
+        if (cell == null) return "-";
+        if (cell instanceof Double) {
+            double v = (Double) cell;
+            if (v == Math.rint(v) && Math.abs(v) < 1e15) return String.format(Locale.ROOT, "%.0f", v);
+            return String.format(Locale.ROOT, "%.2f", v);
+        }
+        return cell.toString();
+    }
+}
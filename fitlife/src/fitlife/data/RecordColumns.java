@@ -0,0 +1,249 @@
+package fitlife.data;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Column-wise in-memory copy of a {@link RecordStore}: one primitive array per field instead of
+ * one object per record, so scans walk a few dense arrays.
+ *
+ * Columns are kept as narrow as the data allows, and every value reads back exactly as written:
+ * <ul>
+ *   <li>values and quantities are {@code float[]} until a value needs a double to round-trip,
+ *       and the quantity column does not exist while every quantity is 0;</li>
+ *   <li>name and category ids are {@code char[]} (id + 1) until an id passes 65534, and do not
+ *       exist while every id is -1 (steps and water).</li>
+ * </ul>
+ * That is 8 bytes per steps or water record and 16 per meal, against 32 on disk.
+ *
+ * An instance is an immutable snapshot of the first {@link #size()} records. The store's writer
+ * appends past the end of the shared arrays and then publishes a new snapshot, so readers never
+ * lock and never see a half-written batch.
+ */
+public final class RecordColumns {
+
+    private final int size;
+    private final int[] days;
+    private final Numbers values;
+    private final Numbers quantities;
+    private final Ids nameIds;
+    private final Ids categoryIds;
+
+    private RecordColumns(int size, int[] days, Numbers values, Numbers quantities, Ids nameIds, Ids categoryIds) {
+        this.size = size;
+        this.days = days;
+        this.values = values;
+        this.quantities = quantities;
+        this.nameIds = nameIds;
+        this.categoryIds = categoryIds;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int epochDay(int i) {
+        return days[i];
+    }
+
+    public int nameId(int i) {
+        return nameIds.get(i);
+    }
+
+    public int categoryId(int i) {
+        return categoryIds.get(i);
+    }
+
+    public double value(int i) {
+        return values.get(i);
+    }
+
+    public double quantity(int i) {
+        return quantities.get(i);
+    }
+
+    // Visit records [from, to) in append order
+    public void visit(int from, int to, RecordVisitor visitor) {
+        for (int i = from; i < to; i++) {
+            visitor.visit(days[i], nameIds.get(i), categoryIds.get(i), values.get(i), quantities.get(i));
+        }
+    }
+
+    // Bulk copies of records [from, to) into out[0 ..], for readers that work a batch at a time
+    public void copyEpochDays(int from, int to, int[] out) {
+        System.arraycopy(days, from, out, 0, to - from);
+    }
+
+    public void copyNameIds(int from, int to, int[] out) {
+        nameIds.copy(from, to, out);
+    }
+
+    public void copyCategoryIds(int from, int to, int[] out) {
+        categoryIds.copy(from, to, out);
+    }
+
+    public void copyValues(int from, int to, double[] out) {
+        values.copy(from, to, out);
+    }
+
+    public void copyQuantities(int from, int to, double[] out) {
+        quantities.copy(from, to, out);
+    }
+
+    // Approximate heap held by the columns' used part
+    public long heapBytes() {
+        return (long) size * (4 + values.width() + quantities.width() + nameIds.width() + categoryIds.width());
+    }
+
+    // float[] until a value does not survive the round trip, then double[]; absent while all 0
+    private static final class Numbers {
+        static final Numbers ZERO = new Numbers(null, null);
+
+        final float[] narrow;
+        final double[] wide;
+
+        Numbers(float[] narrow, double[] wide) {
+            this.narrow = narrow;
+            this.wide = wide;
+        }
+
+        double get(int i) {
+            return narrow != null ? narrow[i] : wide != null ? wide[i] : 0;
+        }
+
+        int width() {
+            return narrow != null ? 4 : wide != null ? 8 : 0;
+        }
+
+        void copy(int from, int to, double[] out) {
+            if (narrow != null) {
+                for (int i = from; i < to; i++) out[i - from] = narrow[i];
+            } else if (wide != null) {
+                System.arraycopy(wide, from, out, 0, to - from);
+            } else {
+                Arrays.fill(out, 0, to - from, 0);
+            }
+        }
+
+        // Column able to hold v at index i with room for capacity records
+        Numbers fit(int i, double v, int capacity) {
+            if (narrow != null) {
+                if ((float) v == v || Double.isNaN(v)) return narrow.length >= capacity ? this : new Numbers(Arrays.copyOf(narrow, capacity), null);
+                double[] w = new double[capacity];
+                for (int j = 0; j < i; j++) w[j] = narrow[j];
+                return new Numbers(null, w);
+            }
+            if (wide != null) return wide.length >= capacity ? this : new Numbers(null, Arrays.copyOf(wide, capacity));
+            if (v == 0 && Double.doubleToRawLongBits(v) == 0) return this;
+            // first non-zero value: earlier records were all 0
+            return (float) v == v ? new Numbers(new float[capacity], null) : new Numbers(null, new double[capacity]);
+        }
+
+        void set(int i, double v) {
+            if (narrow != null) narrow[i] = (float) v;
+            else if (wide != null) wide[i] = v;
+        }
+    }
+
+    // char[] of id + 1 until an id passes 65534, then int[]; absent while all -1
+    private static final class Ids {
+        static final Ids UNUSED = new Ids(null, null);
+
+        final char[] narrow;
+        final int[] wide;
+
+        Ids(char[] narrow, int[] wide) {
+            this.narrow = narrow;
+            this.wide = wide;
+        }
+
+        int get(int i) {
+            return narrow != null ? narrow[i] - 1 : wide != null ? wide[i] : -1;
+        }
+
+        int width() {
+            return narrow != null ? 2 : wide != null ? 4 : 0;
+        }
+
+        void copy(int from, int to, int[] out) {
+            if (narrow != null) {
+                for (int i = from; i < to; i++) out[i - from] = narrow[i] - 1;
+            } else if (wide != null) {
+                System.arraycopy(wide, from, out, 0, to - from);
+            } else {
+                Arrays.fill(out, 0, to - from, -1);
+            }
+        }
+
+        Ids fit(int i, int id, int capacity) {
+            boolean small = id >= -1 && id < Character.MAX_VALUE;
+            if (narrow != null) {
+                if (small) return narrow.length >= capacity ? this : new Ids(Arrays.copyOf(narrow, capacity), null);
+                int[] w = new int[capacity];
+                for (int j = 0; j < i; j++) w[j] = narrow[j] - 1;
+                return new Ids(null, w);
+            }
+            if (wide != null) return wide.length >= capacity ? this : new Ids(null, Arrays.copyOf(wide, capacity));
+            if (id == -1) return this;
+            // first real id: earlier records had none
+            if (small) return new Ids(new char[capacity], null);
+            int[] w = new int[capacity];
+            Arrays.fill(w, 0, i, -1);
+            return new Ids(null, w);
+        }
+
+        void set(int i, int id) {
+            if (narrow != null) narrow[i] = (char) (id + 1);
+            else if (wide != null) wide[i] = id;
+        }
+    }
+
+    /**
+     * Writer side: owned by the store's single writer, which appends and then publishes.
+     */
+    static final class Builder {
+        private int size;
+        private int[] days = new int[16];
+        private Numbers values = new Numbers(new float[16], null);
+        private Numbers quantities = Numbers.ZERO;
+        private Ids nameIds = Ids.UNUSED;
+        private Ids categoryIds = Ids.UNUSED;
+
+        // Append records in the on-disk layout from the buffer's position to its limit
+        void append(ByteBuffer records) {
+            int n = records.remaining() / RecordStore.RECORD_BYTES;
+            int capacity = days.length;
+            if (size + n > capacity) {
+                capacity = Math.max(size + n, capacity + (capacity >> 1));
+                days = Arrays.copyOf(days, capacity);
+            }
+            for (int k = 0, off = records.position(); k < n; k++, off += RecordStore.RECORD_BYTES) {
+                add(capacity, records.getInt(off), records.getInt(off + 4), records.getInt(off + 8),
+                        records.getDouble(off + 16), records.getDouble(off + 24));
+            }
+        }
+
+        private void add(int capacity, int epochDay, int nameId, int categoryId, double value, double quantity) {
+            int i = size;
+            days[i] = epochDay;
+            nameIds = nameIds.fit(i, nameId, capacity);
+            nameIds.set(i, nameId);
+            categoryIds = categoryIds.fit(i, categoryId, capacity);
+            categoryIds.set(i, categoryId);
+            values = values.fit(i, value, capacity);
+            values.set(i, value);
+            quantities = quantities.fit(i, quantity, capacity);
+            quantities.set(i, quantity);
+            size++;
+        }
+
+        // Drop records from `size` on; they were never published
+        void truncate(int size) {
+            this.size = Math.min(this.size, size);
+        }
+
+        RecordColumns publish() {
+            return new RecordColumns(size, days, values, quantities, nameIds, categoryIds);
+        }
+    }
+}
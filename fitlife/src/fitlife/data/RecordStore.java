@@ -0,0 +1,418 @@
+package fitlife.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only binary store for one tracker type (a "segment family").
+ *
+ * Records are fixed width so readers can scan memory-mapped segments without any
+ * string parsing. Layout (big-endian, 32 bytes):
+ * <pre>
+ *   int    epochDay
+ *   int    nameId      (meal name dictionary id, -1 when unused)
+ *   int    categoryId  (meal category dictionary id, -1 when unused)
+ *   int    reserved
+ *   double value       (calories / steps / liters)
+ *   double quantity    (grams for meals, 0 otherwise)
+ * </pre>
+ * Segments are named {@code <family>-NNNNNN.seg} and roll over every {@link #SEGMENT_RECORDS} records.
+ * A {@link DayIndex} sidecar ({@code <family>.idx}) is kept in step with every append so that
+ * date-range scans only read the records for the requested days.
+ *
+ * A store has a single writer: its {@link GroupCommitJournal} thread. The store holds an OS file
+ * lock on {@code <family>.lock} while it is open, so a second process (or a second store in this
+ * one) cannot open the same family for writing. Readers never take the writer's lock; they see
+ * records up to the published high-water mark, which only moves after a batch has been fully
+ * written. A batch that fails part way is cut back off the segments, so the next append starts
+ * where the last committed one ended.
+ *
+ * A read-only store takes no lock and writes nothing, so it can be opened (e.g. by a command-line
+ * query) while another process is writing; it sees the records committed when it was opened.
+ *
+ * Reads go through a {@link RecordColumns} copy of the records, loaded from the segments on first
+ * use and extended by every append, so scans never decode the on-disk layout.
+ */
+public class RecordStore implements Closeable {
+
+    public static final int RECORD_BYTES = 32;
+    public static final int SEGMENT_RECORDS = 1 << 20;
+
+    private final Path dir;
+    private final String family;
+    private final List<Segment> segments = new ArrayList<>();
+    private final ByteBuffer writeBuf = ByteBuffer.allocate(RECORD_BYTES);
+    private final DayIndex index;
+    private final boolean readOnly;
+    private final FileChannel lockChannel; // null when read-only
+    private final FileLock fileLock;
+    private FileChannel writer; // channel on the last segment, opened lazily
+    private Exception broken;   // a failed batch that could not be rolled back; no more writes
+    private long recordCount;   // written records, writer side
+    private RecordColumns.Builder columnsBuilder; // null until the columns are first read
+
+    // Published to readers: segments first, then the high-water mark
+    private volatile Segment[] published = new Segment[0];
+    private volatile long committed;
+    private volatile RecordColumns columns;
+
+    public RecordStore(Path dir, String family) throws IOException {
+        this(dir, family, false);
+    }
+
+    // Read-only: no file lock, no writes; a missing directory reads as an empty store
+    public RecordStore(Path dir, String family, boolean readOnly) throws IOException {
+        this.dir = dir;
+        this.family = family;
+        this.readOnly = readOnly;
+        if (readOnly) {
+            this.lockChannel = null;
+            this.fileLock = null;
+            index = open();
+            return;
+        }
+        Files.createDirectories(dir);
+        this.lockChannel = FileChannel.open(dir.resolve(family + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.fileLock = lock(lockChannel, dir.resolve(family + ".lock"));
+        try {
+            index = open();
+        } catch (IOException | RuntimeException e) {
+            lockChannel.close();
+            throw e;
+        }
+    }
+
+    private static FileLock lock(FileChannel channel, Path file) throws IOException {
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IOException(file + " is locked: the data directory is already open in another store or process");
+        }
+        return lock;
+    }
+
+    // Load the segments (dropping any torn tail) and the day index; runs with the file lock held
+    // unless read-only
+    private DayIndex open() throws IOException {
+
+        List<Path> files = new ArrayList<>();
+        if (!readOnly || Files.isDirectory(dir)) {
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, family + "-*.seg")) {
+                for (Path p : ds) files.add(p);
+            }
+        }
+        files.sort(null);
+        long total = 0;
+        for (Path p : files) {
+            long size = Files.size(p);
+            if (size % RECORD_BYTES != 0) {
+                // drop a torn record left behind by a crash mid-append; a reader just ignores
+                // it, since the writer may still be in the middle of that append
+                size -= size % RECORD_BYTES;
+                if (!readOnly) {
+                    try (FileChannel ch = FileChannel.open(p, StandardOpenOption.WRITE)) {
+                        ch.truncate(size);
+                    }
+                }
+            }
+            Segment s = new Segment(p, size / RECORD_BYTES);
+            segments.add(s);
+            total += s.records;
+        }
+        recordCount = total;
+        publish();
+
+        DayIndex idx = new DayIndex(dir.resolve(family + ".idx"), readOnly);
+        catchUpIndex(idx);
+        return idx;
+    }
+
+    // Bring the sidecar index up to date with records it has not seen (missing or stale .idx file)
+    private void catchUpIndex(DayIndex idx) throws IOException {
+        if (idx.coveredRecords() > recordCount) idx.reset();
+        List<ByteBuffer> views = views();
+        for (long r = idx.coveredRecords(); r < recordCount; r++) {
+            ByteBuffer buf = views.get((int) (r / SEGMENT_RECORDS));
+            idx.add(buf.getInt((int) (r % SEGMENT_RECORDS) * RECORD_BYTES), r);
+        }
+        idx.flush();
+    }
+
+    // Make everything written so far visible to readers
+    private void publish() {
+        if (published.length != segments.size()) {
+            published = segments.toArray(new Segment[0]);
+        }
+        committed = recordCount;
+    }
+
+    public String getFamily() {
+        return family;
+    }
+
+    public Path getDirectory() {
+        return dir;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    // Total number of committed records across all segments (the high-water mark)
+    public long size() {
+        return committed;
+    }
+
+    public synchronized void append(int epochDay, int nameId, int categoryId, double value, double quantity) throws IOException {
+        writeBuf.clear();
+        encode(writeBuf, epochDay, nameId, categoryId, value, quantity);
+        writeBuf.flip();
+        append(writeBuf);
+    }
+
+    /**
+     * Append a batch of records already encoded with {@link #encode}, using one write per segment touched.
+     * The records become visible to readers once the whole batch has been written. If the batch
+     * fails part way, none of it is kept: the segments, index and columns are cut back to the last
+     * committed record and the batch's position is restored before the error is rethrown.
+     */
+    public synchronized void append(ByteBuffer batch) throws IOException {
+        if (batch.remaining() % RECORD_BYTES != 0) {
+            throw new IllegalArgumentException("Batch is not a whole number of records: " + batch.remaining() + " bytes");
+        }
+        if (readOnly) {
+            throw new IOException("The " + family + " store in " + dir + " is open read-only");
+        }
+        if (broken != null) {
+            throw new IOException("The " + family + " store could not undo an earlier failed write; reopen it", broken);
+        }
+        int start = batch.position();
+        int segmentCount = segments.size();
+        long before = recordCount;
+        try {
+            write(batch);
+            index.flush();
+        } catch (IOException | RuntimeException e) {
+            batch.position(start);
+            rollback(before, segmentCount, e);
+            throw e;
+        }
+        if (columnsBuilder != null) columns = columnsBuilder.publish();
+        publish();
+    }
+
+    private void write(ByteBuffer batch) throws IOException {
+        while (batch.hasRemaining()) {
+            Segment active = activeSegment();
+            int n = (int) Math.min(SEGMENT_RECORDS - active.records, batch.remaining() / RECORD_BYTES);
+            int base = batch.position();
+            ByteBuffer slice = batch.slice();
+            slice.limit(n * RECORD_BYTES);
+            while (slice.hasRemaining()) {
+                writer.write(slice);
+            }
+            if (columnsBuilder != null) {
+                slice.flip();
+                columnsBuilder.append(slice);
+            }
+            for (int i = 0; i < n; i++) {
+                index.add(batch.getInt(base + i * RECORD_BYTES), recordCount + i);
+            }
+            active.records += n;
+            recordCount += n;
+            batch.position(base + n * RECORD_BYTES);
+        }
+    }
+
+    // Cut the segments, index and columns back to the first `records` records and drop segments
+    // the failed batch created. Nothing past `records` was published, so no reader or mapping
+    // covers what is cut.
+    private void rollback(long records, int segmentCount, Exception failure) {
+        try {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+            while (segments.size() > segmentCount) {
+                Files.deleteIfExists(segments.remove(segments.size() - 1).path);
+            }
+            if (!segments.isEmpty()) {
+                // every segment but the last is full
+                Segment last = segments.get(segments.size() - 1);
+                last.records = records - (long) (segments.size() - 1) * SEGMENT_RECORDS;
+                try (FileChannel ch = FileChannel.open(last.path, StandardOpenOption.WRITE)) {
+                    ch.truncate(last.records * RECORD_BYTES);
+                }
+            }
+            recordCount = records;
+            index.truncate(records);
+            if (columnsBuilder != null) columnsBuilder.truncate((int) records);
+        } catch (IOException | RuntimeException e) {
+            failure.addSuppressed(e);
+            broken = failure;
+        }
+    }
+
+    // Write one record in the on-disk layout at the buffer's position
+    public static void encode(ByteBuffer buf, int epochDay, int nameId, int categoryId, double value, double quantity) {
+        buf.putInt(epochDay).putInt(nameId).putInt(categoryId).putInt(0)
+                .putDouble(value).putDouble(quantity);
+    }
+
+    // Force appended records to disk
+    public synchronized void sync() throws IOException {
+        // read-only stores never open a writer
+        if (writer != null) writer.force(false);
+    }
+
+    /**
+     * The committed records as columns. The first call loads them from the segments; after that
+     * each append publishes a new snapshot, so this is a volatile read.
+     */
+    public RecordColumns columns() throws IOException {
+        RecordColumns c = columns;
+        return c != null ? c : loadColumns();
+    }
+
+    // Runs under the writer's lock, so no batch is half-written while the segments are copied
+    private synchronized RecordColumns loadColumns() throws IOException {
+        if (columns == null) {
+            if (recordCount > Integer.MAX_VALUE) {
+                throw new IOException(family + " has too many records to hold in memory: " + recordCount);
+            }
+            RecordColumns.Builder b = new RecordColumns.Builder();
+            for (ByteBuffer view : views(recordCount)) b.append(view);
+            columnsBuilder = b;
+            columns = b.publish();
+        }
+        return columns;
+    }
+
+    /**
+     * Visit every committed record in append order.
+     */
+    public void scan(RecordVisitor visitor) throws IOException {
+        RecordColumns cols = columns();
+        cols.visit(0, cols.size(), visitor);
+    }
+
+    /**
+     * Visit every committed record whose epoch day lies in [fromDay, toDay], in append order.
+     * Only the record runs listed in the day index for that range are read.
+     */
+    public void scan(int fromDay, int toDay, RecordVisitor visitor) throws IOException {
+        long[] ranges = index.ranges(fromDay, toDay);
+        if (ranges.length == 0) return;
+        // the index may already list records of a batch that is still being written
+        RecordColumns cols = columns();
+        for (int i = 0; i < ranges.length; i += 2) {
+            long end = Math.min(ranges[i] + ranges[i + 1], cols.size());
+            if (ranges[i] < end) cols.visit((int) ranges[i], (int) end, visitor);
+        }
+    }
+
+    /**
+     * Visit committed records from global record number `first` onwards, in append order.
+     */
+    public void scanFrom(long first, RecordVisitor visitor) throws IOException {
+        RecordColumns cols = columns();
+        cols.visit((int) Math.min(first, cols.size()), cols.size(), visitor);
+    }
+
+    /**
+     * Visit the last n committed records, oldest first.
+     */
+    public void scanLast(int n, RecordVisitor visitor) throws IOException {
+        RecordColumns cols = columns();
+        cols.visit(Math.max(0, cols.size() - n), cols.size(), visitor);
+    }
+
+    // Capture a consistent view of the segments; records appended afterwards are not visited
+    List<ByteBuffer> views() throws IOException {
+        return views(committed);
+    }
+
+    // Views covering the first hwm records. Every segment but the last is full, so the
+    // high-water mark alone says how much of each one is committed.
+    private List<ByteBuffer> views(long hwm) throws IOException {
+        Segment[] segs = published;
+        List<ByteBuffer> out = new ArrayList<>(segs.length);
+        for (int i = 0; i < segs.length; i++) {
+            long count = Math.min(SEGMENT_RECORDS, hwm - (long) i * SEGMENT_RECORDS);
+            if (count <= 0) break;
+            out.add(segs[i].view(count));
+        }
+        return out;
+    }
+
+    private Segment activeSegment() throws IOException {
+        Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (last == null || last.records >= SEGMENT_RECORDS) {
+            if (writer != null) writer.close();
+            Path p = dir.resolve(String.format("%s-%06d.seg", family, segments.size()));
+            last = new Segment(p, 0);
+            segments.add(last);
+            writer = null;
+        }
+        if (writer == null) {
+            writer = FileChannel.open(last.path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return last;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            index.close();
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+        } finally {
+            if (fileLock != null && fileLock.isValid()) fileLock.release();
+            if (lockChannel != null) lockChannel.close();
+        }
+    }
+
+    private static class Segment {
+        final Path path;
+        long records;
+        private MappedByteBuffer map;
+        private long mappedRecords;
+
+        Segment(Path path, long records) {
+            this.path = path;
+            this.records = records;
+        }
+
+        // Read-only mapping covering the first `need` records; remapped only when the segment grew
+        synchronized ByteBuffer view(long need) throws IOException {
+            if (map == null || mappedRecords < need) {
+                try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+                    map = ch.map(FileChannel.MapMode.READ_ONLY, 0, need * RECORD_BYTES);
+                }
+                mappedRecords = need;
+            }
+            ByteBuffer buf = map.duplicate();
+            buf.limit((int) (need * RECORD_BYTES));
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package fitlife.data;
+
+/**
+ * Callback for scanning fixed-width tracker records without allocating a row object.
+ */
+@FunctionalInterface
+public interface RecordVisitor {
+    void visit(int epochDay, int nameId, int categoryId, double value, double quantity);
+}
@@ -1,7 +1,19 @@
 package fitlife.data;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 public interface Savable {
     void saveToFile() throws IOException;
+
+    // Queue the save and return a future that completes once it is committed.
+    // The default saves synchronously.
+    default CompletableFuture<Void> saveAsync() {
+        try {
+            saveToFile();
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 }
@@ -0,0 +1,72 @@
+package fitlife.data;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only string dictionary backing the name/category ids stored in {@link RecordStore}.
+ * One string per line; the id of a string is its line number.
+ */
+public class StringDictionary {
+
+    private final Path file;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    public StringDictionary(Path file) throws IOException {
+        this.file = file;
+        if (Files.exists(file)) {
+            try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    ids.putIfAbsent(line, values.size());
+                    values.add(line);
+                }
+            }
+        }
+    }
+
+    // Id for value, adding it to the dictionary on first use. Null maps to the empty string.
+    public synchronized int idOf(String value) throws IOException {
+        String v = normalize(value);
+        Integer id = ids.get(v);
+        if (id != null) return id;
+        try (BufferedWriter bw = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            bw.write(v);
+            bw.newLine();
+        }
+        int newId = values.size();
+        values.add(v);
+        ids.put(v, newId);
+        return newId;
+    }
+
+    // Id for value, or -1 if it has never been stored
+    public synchronized int find(String value) {
+        Integer id = ids.get(normalize(value));
+        return id == null ? -1 : id;
+    }
+
+    public synchronized String valueOf(int id) {
+        return (id >= 0 && id < values.size()) ? values.get(id) : "";
+    }
+
+    public synchronized int size() {
+        return values.size();
+    }
+
+    private static String normalize(String value) {
+        if (value == null) return "";
+        return value.replace('\n', ' ').replace('\r', ' ');
+    }
+}
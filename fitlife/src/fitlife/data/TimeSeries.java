@@ -0,0 +1,225 @@
+package fitlife.data;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Immutable per-day snapshot of the {@link DailyRollup} as primitive arrays over the days that
+ * have data, in date order. Days without data take no space, so one stray date far from the rest
+ * costs one slot rather than every day in between.
+ *
+ * Each metric keeps a prefix-sum array, so the total or average over any [fromDay, toDay] is two
+ * binary searches and two array reads. Min/max queries use sparse tables (built on first use per
+ * metric) and are also two lookups. Days without data count as empty. Get a current snapshot
+ * from {@link DataStore#series()}; it is rebuilt only after new entries.
+ */
+public final class TimeSeries {
+
+    /**
+     * Per-day values. Each total is paired with the entry count that says whether a day has data.
+     */
+    public enum Metric {
+        CALORIES(1), MEALS(1), STEPS(3), STEP_ENTRIES(3), LITERS(5), WATER_ENTRIES(5);
+
+        private final int countIndex;
+
+        Metric(int countIndex) {
+            this.countIndex = countIndex;
+        }
+    }
+
+    private static final int METRICS = Metric.values().length;
+    private static final double NONE = Double.NaN;
+
+    private final int[] epochDays;     // days with data, ascending
+    private final int days;
+    private final double[][] values;   // [metric][i], for epochDays[i]
+    private final double[][] prefix;   // [metric][i] = sum of values[metric][0 .. i-1]
+    // per-entry extremes for steps and liters: [0] min steps, [1] max steps, [2] min liters, [3] max liters
+    private final double[][] entryExtremes;
+    private final double[][][] tables = new double[METRICS * 2 + 4][][];
+
+    private TimeSeries(int[] epochDays, double[][] values, double[][] entryExtremes) {
+        this.epochDays = epochDays;
+        this.days = epochDays.length;
+        this.values = values;
+        this.entryExtremes = entryExtremes;
+        this.prefix = new double[METRICS][];
+        for (int m = 0; m < METRICS; m++) {
+            double[] p = new double[days + 1];
+            for (int i = 0; i < days; i++) p[i + 1] = p[i] + values[m][i];
+            prefix[m] = p;
+        }
+    }
+
+    // rows in ascending date order, one per day
+    static TimeSeries of(Collection<DailyRollup.Day> rows) {
+        int n = rows.size();
+        int[] epochDays = new int[n];
+        double[][] v = new double[METRICS][n];
+        double[][] ext = new double[4][n];
+        for (double[] e : ext) Arrays.fill(e, NONE);
+        int i = 0;
+        for (DailyRollup.Day d : rows) {
+            epochDays[i] = d.epochDay;
+            v[Metric.CALORIES.ordinal()][i] = d.calories;
+            v[Metric.MEALS.ordinal()][i] = d.meals;
+            v[Metric.STEPS.ordinal()][i] = d.steps;
+            v[Metric.STEP_ENTRIES.ordinal()][i] = d.stepEntries;
+            v[Metric.LITERS.ordinal()][i] = d.liters;
+            v[Metric.WATER_ENTRIES.ordinal()][i] = d.waterEntries;
+            if (d.stepEntries > 0) {
+                ext[0][i] = d.minSteps;
+                ext[1][i] = d.maxSteps;
+            }
+            if (d.waterEntries > 0) {
+                ext[2][i] = d.minLiters;
+                ext[3][i] = d.maxLiters;
+            }
+            i++;
+        }
+        return new TimeSeries(epochDays, v, ext);
+    }
+
+    public static TimeSeries empty() {
+        return of(Collections.emptyList());
+    }
+
+    public boolean isEmpty() {
+        return days == 0;
+    }
+
+    // First and last epoch-day with any data; lastDay() < firstDay() when empty
+    public int firstDay() {
+        return days == 0 ? 0 : epochDays[0];
+    }
+
+    public int lastDay() {
+        return days == 0 ? -1 : epochDays[days - 1];
+    }
+
+    // Value for one day (0 for days without data)
+    public double value(Metric m, int epochDay) {
+        int i = Arrays.binarySearch(epochDays, epochDay);
+        return i < 0 ? 0 : values[m.ordinal()][i];
+    }
+
+    // Total over [fromDay, toDay]
+    public double sum(Metric m, int fromDay, int toDay) {
+        int lo = firstIndex(fromDay);
+        int hi = lastIndex(toDay);
+        if (lo > hi) return 0;
+        double[] p = prefix[m.ordinal()];
+        return p[hi + 1] - p[lo];
+    }
+
+    // Average per calendar day over [fromDay, toDay]; days without data count as 0
+    public double average(Metric m, int fromDay, int toDay) {
+        if (fromDay > toDay) return 0;
+        return sum(m, fromDay, toDay) / ((long) toDay - fromDay + 1);
+    }
+
+    // Smallest / largest daily total over the days in range that have data, NaN if none
+    public double min(Metric m, int fromDay, int toDay) {
+        return query(dailyTable(m, false), fromDay, toDay, false);
+    }
+
+    public double max(Metric m, int fromDay, int toDay) {
+        return query(dailyTable(m, true), fromDay, toDay, true);
+    }
+
+    // Smallest / largest single entry logged in range (STEPS or LITERS only), NaN if none
+    public double minEntry(Metric m, int fromDay, int toDay) {
+        return query(entryTable(m, false), fromDay, toDay, false);
+    }
+
+    public double maxEntry(Metric m, int fromDay, int toDay) {
+        return query(entryTable(m, true), fromDay, toDay, true);
+    }
+
+    /**
+     * Rolling average over the trailing window (in days) ending on each day of [fromDay, toDay].
+     * Element i is the average for the window ending on fromDay + i.
+     */
+    public double[] rollingAverage(Metric m, int window, int fromDay, int toDay) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be at least 1 day.");
+        }
+        int n = Math.max(toDay - fromDay + 1, 0);
+        double[] out = new double[n];
+        for (int i = 0; i < n; i++) {
+            int end = fromDay + i;
+            out[i] = sum(m, end - window + 1, end) / window;
+        }
+        return out;
+    }
+
+    private double[][] dailyTable(Metric m, boolean max) {
+        int slot = m.ordinal() * 2 + (max ? 1 : 0);
+        synchronized (tables) {
+            if (tables[slot] == null) {
+                double[] v = values[m.ordinal()];
+                double[] count = values[m.countIndex];
+                double[] base = new double[days];
+                for (int i = 0; i < days; i++) base[i] = count[i] > 0 ? v[i] : NONE;
+                tables[slot] = sparseTable(base, max);
+            }
+            return tables[slot];
+        }
+    }
+
+    private double[][] entryTable(Metric m, boolean max) {
+        int e;
+        if (m == Metric.STEPS) e = max ? 1 : 0;
+        else if (m == Metric.LITERS) e = max ? 3 : 2;
+        else throw new IllegalArgumentException("Per-entry extremes are only kept for STEPS and LITERS.");
+        int slot = METRICS * 2 + e;
+        synchronized (tables) {
+            if (tables[slot] == null) tables[slot] = sparseTable(entryExtremes[e], max);
+            return tables[slot];
+        }
+    }
+
+    // table[k][i] = min (or max) of base[i .. i + 2^k - 1], ignoring NaN gaps
+    private static double[][] sparseTable(double[] base, boolean max) {
+        int n = base.length;
+        int levels = n == 0 ? 1 : 32 - Integer.numberOfLeadingZeros(n);
+        double[][] t = new double[levels][];
+        t[0] = base;
+        for (int k = 1; k < levels; k++) {
+            int half = 1 << (k - 1);
+            double[] prev = t[k - 1];
+            double[] cur = new double[n - (1 << k) + 1];
+            for (int i = 0; i < cur.length; i++) cur[i] = pick(prev[i], prev[i + half], max);
+            t[k] = cur;
+        }
+        return t;
+    }
+
+    private double query(double[][] t, int fromDay, int toDay, boolean max) {
+        int lo = firstIndex(fromDay);
+        int hi = lastIndex(toDay);
+        if (lo > hi) return NONE;
+        int k = 31 - Integer.numberOfLeadingZeros(hi - lo + 1);
+        return pick(t[k][lo], t[k][hi - (1 << k) + 1], max);
+    }
+
+    // Index of the first day with data on or after epochDay (days if none)
+    private int firstIndex(int epochDay) {
+        int i = Arrays.binarySearch(epochDays, epochDay);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    // Index of the last day with data on or before epochDay (-1 if none)
+    private int lastIndex(int epochDay) {
+        int i = Arrays.binarySearch(epochDays, epochDay);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    private static double pick(double a, double b, boolean max) {
+        if (Double.isNaN(a)) return b;
+        if (Double.isNaN(b)) return a;
+        return max ? Math.max(a, b) : Math.min(a, b);
+    }
+}
@@ -0,0 +1,225 @@
+package fitlife.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Space-Saving heavy-hitters sketch: keeps at most {@code capacity} counters, whatever the number
+ * of distinct items added.
+ *
+ * Each counter's count is an upper bound on the item's true count and {@code count - error} a
+ * lower bound. Any item whose true count exceeds total / capacity is guaranteed to be present.
+ * Sketches over disjoint data (time buckets, users) can be merged and keep these guarantees.
+ * Not thread-safe.
+ */
+public class TopKSketch<K> {
+
+    private final int capacity;
+    private final Map<K, Integer> slots;
+    private final Object[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    private int size;
+    private long total;
+
+    /**
+     * One counter: an item, its estimated count and how much of that count may be overestimate.
+     */
+    public static class Entry<K> {
+        public final K key;
+        public final long count;
+        public final long error;
+
+        Entry(K key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        // Guaranteed lower bound on the true count
+        public long minCount() {
+            return count - error;
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + count + (error > 0 ? "(+/-" + error + ")" : "");
+        }
+    }
+
+    public TopKSketch(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1.");
+        }
+        this.capacity = capacity;
+        this.slots = new HashMap<>(capacity * 2);
+        this.keys = new Object[capacity];
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+    }
+
+    /**
+     * Sketch holding the capacity largest of some exact counts. Every dropped item counted at most
+     * the smallest kept one, so the result has zero error and merges like any other sketch.
+     */
+    public static <K> TopKSketch<K> ofCounts(Map<K, Long> exact, int capacity) {
+        TopKSketch<K> out = new TopKSketch<>(capacity);
+        List<Map.Entry<K, Long>> entries = new ArrayList<>(exact.entrySet());
+        if (entries.size() > capacity) entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        for (Map.Entry<K, Long> e : entries) {
+            out.total += e.getValue();
+            if (out.size < capacity) out.put(out.size++, e.getKey(), e.getValue(), 0);
+        }
+        return out;
+    }
+
+    public void add(K key) {
+        add(key, 1);
+    }
+
+    public void add(K key, long by) {
+        total += by;
+        Integer slot = slots.get(key);
+        if (slot != null) {
+            counts[slot] += by;
+        } else if (size < capacity) {
+            put(size++, key, by, 0);
+        } else {
+            // evict the smallest counter; the newcomer inherits its count as possible overestimate
+            int min = minSlot();
+            slots.remove(keys[min]);
+            put(min, key, counts[min] + by, counts[min]);
+        }
+    }
+
+    /**
+     * Fold in a sketch built over other data. An item missing from one side may still have been
+     * counted up to that side's smallest counter, so that amount is added to its count and error.
+     */
+    public void merge(TopKSketch<K> other) {
+        long minThis = size < capacity ? 0 : counts[minSlot()];
+        long minOther = other.size < other.capacity ? 0 : other.counts[other.minSlot()];
+        int n = size;
+        Object[] k = Arrays.copyOf(keys, size + other.size);
+        long[] c = new long[k.length];
+        long[] e = new long[k.length];
+        for (int i = 0; i < size; i++) {
+            c[i] = counts[i] + minOther;
+            e[i] = errors[i] + minOther;
+        }
+        for (int j = 0; j < other.size; j++) {
+            Integer slot = slots.get(other.key(j));
+            if (slot != null) {
+                c[slot] += other.counts[j] - minOther;
+                e[slot] += other.errors[j] - minOther;
+            } else {
+                k[n] = other.keys[j];
+                c[n] = other.counts[j] + minThis;
+                e[n] = other.errors[j] + minThis;
+                n++;
+            }
+        }
+        total += other.total;
+        if (n <= capacity) {
+            // everything fits: update in place and append the newcomers
+            for (int i = 0; i < n; i++) {
+                if (i < size) {
+                    counts[i] = c[i];
+                    errors[i] = e[i];
+                } else {
+                    put(i, key(k, i), c[i], e[i]);
+                }
+            }
+            size = n;
+            return;
+        }
+        // keep the capacity largest: everything above the cut-off count, then ties until full
+        long[] sorted = Arrays.copyOf(c, n);
+        Arrays.sort(sorted);
+        long cut = sorted[n - capacity];
+        slots.clear();
+        size = 0;
+        for (int i = 0; i < n; i++) {
+            if (c[i] > cut) put(size++, key(k, i), c[i], e[i]);
+        }
+        for (int i = 0; i < n && size < capacity; i++) {
+            if (c[i] == cut) put(size++, key(k, i), c[i], e[i]);
+        }
+    }
+
+    /**
+     * The n largest counters, highest count first.
+     */
+    public List<Entry<K>> top(int n) {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(counts[b], counts[a]));
+        List<Entry<K>> out = new ArrayList<>(Math.min(n, size));
+        for (int i = 0; i < size && out.size() < n; i++) {
+            int s = order[i];
+            out.add(new Entry<>(key(s), counts[s], errors[s]));
+        }
+        return out;
+    }
+
+    /**
+     * Copy with every key mapped, e.g. from a user's dictionary ids to food names so that sketches
+     * of different users can be merged. Keys that map to the same value are combined.
+     */
+    public <J> TopKSketch<J> mapKeys(Function<K, J> fn) {
+        TopKSketch<J> out = new TopKSketch<>(capacity);
+        for (int i = 0; i < size; i++) {
+            J k = fn.apply(key(i));
+            Integer slot = out.slots.get(k);
+            if (slot != null) {
+                out.counts[slot] += counts[i];
+                out.errors[slot] += errors[i];
+            } else {
+                out.put(out.size++, k, counts[i], errors[i]);
+            }
+        }
+        out.total = total;
+        return out;
+    }
+
+    // Number of items added, including those no longer tracked
+    public long total() {
+        return total;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    private K key(int slot) {
+        return key(keys, slot);
+    }
+
+    @SuppressWarnings("unchecked")
+    private K key(Object[] from, int slot) {
+        return (K) from[slot];
+    }
+
+    private void put(int slot, K key, long count, long error) {
+        keys[slot] = key;
+        counts[slot] = count;
+        errors[slot] = error;
+        slots.put(key, slot);
+    }
+
+    private int minSlot() {
+        int min = 0;
+        for (int i = 1; i < size; i++) {
+            if (counts[i] < counts[min]) min = i;
+        }
+        return min;
+    }
+}
@@ -0,0 +1,901 @@
+package fitlife.data;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DateTimeException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.format.TextStyle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Ad-hoc queries over one user's tracker data in a small SQL-like language:
+ * <pre>
+ *   SELECT item, ... FROM table [JOIN table ...]
+ *       [WHERE column op value [AND ...]] [GROUP BY column [, column]]
+ *       [ORDER BY item [ASC|DESC]] [LIMIT n]
+ * </pre>
+ * Tables are {@code meals} (day, weekday, month, year, name, category, calories, grams),
+ * {@code steps} (day, weekday, month, year, steps) and {@code water} (day, weekday, month, year,
+ * liters). Joined tables are totalled per day and joined on the day, one row per day that has
+ * entries in all of them, with the columns calories, meals (number of meals), steps and liters.
+ * An item is a column or one of count(), sum(c), avg(c), min(c), max(c); op is one of
+ * {@code = != < <= > >=}. Names and categories are quoted ('Oatmeal'), days are 'yyyy-MM-dd',
+ * weekdays and months are names or numbers.
+ *
+ * Queries never build an object per record. Rows are copied from the store's
+ * {@link RecordColumns} into primitive column batches of {@link #BATCH} rows (only the columns the
+ * query uses); each WHERE condition narrows the batch's selection vector in one loop, group ids are
+ * computed for the selection, and each aggregate is one loop over it into per-group arrays. Names
+ * and categories stay dictionary ids, the literals being looked up once, until the result is built.
+ */
+public final class TrackerQuery {
+
+    // Rows per batch: small enough that a batch's columns stay in cache
+    public static final int BATCH = 1024;
+
+    private static final List<String> TABLES = Arrays.asList(DataStore.MEALS, DataStore.STEPS, DataStore.WATER);
+    private static final int MAX_GROUP_KEYS = 2;
+    // dictionary id no record carries, for literals the dictionary has never seen
+    private static final int NO_ID = -2;
+
+    private enum Column {
+        DAY(true), WEEKDAY(true), MONTH(true), YEAR(true), NAME(true), CATEGORY(true),
+        CALORIES(false), GRAMS(false), MEALS(false), STEPS(false), LITERS(false);
+
+        // int-valued and groupable; the others are double measures
+        final boolean key;
+
+        Column(boolean key) {
+            this.key = key;
+        }
+
+        boolean calendar() {
+            return this == WEEKDAY || this == MONTH || this == YEAR;
+        }
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private enum Aggregate { COUNT, SUM, AVG, MIN, MAX }
+
+    // A SELECT item: a column, or an aggregate over one (no column for count())
+    private static final class Item {
+        final Aggregate aggregate;
+        final Column column;
+        final String label;
+
+        Item(Aggregate aggregate, Column column) {
+            this.aggregate = aggregate;
+            this.column = column;
+            String name = column == null ? "" : column.label();
+            this.label = aggregate == null ? name : aggregate.name().toLowerCase(Locale.ROOT) + "(" + name + ")";
+        }
+    }
+
+    // A WHERE condition as written; bound to the user's dictionaries when the query runs
+    private static final class Condition {
+        final Column column;
+        final String op;
+        final String literal;
+        final boolean quoted;
+
+        Condition(Column column, String op, String literal, boolean quoted) {
+            this.column = column;
+            this.op = op;
+            this.literal = literal;
+            this.quoted = quoted;
+        }
+    }
+
+    private final List<String> tables;
+    private final List<Item> items;
+    private final List<Condition> where;
+    private final List<Column> groupBy;
+    private final int orderBy;
+    private final boolean descending;
+    private final int limit;
+    private final boolean aggregating;
+    private final EnumSet<Column> used = EnumSet.noneOf(Column.class);
+
+    private TrackerQuery(List<String> tables, List<Item> items, List<Condition> where, List<Column> groupBy,
+                         int orderBy, boolean descending, int limit) {
+        this.tables = tables;
+        this.items = items;
+        this.where = where;
+        this.groupBy = groupBy;
+        this.orderBy = orderBy;
+        this.descending = descending;
+        this.limit = limit;
+        boolean anyAggregate = false;
+        for (Item item : items) anyAggregate |= item.aggregate != null;
+        this.aggregating = anyAggregate || !groupBy.isEmpty();
+        validate();
+    }
+
+    /**
+     * Parse a query; syntax errors and columns the tables do not have are reported as
+     * IllegalArgumentException.
+     */
+    public static TrackerQuery parse(String text) {
+        Parser p = new Parser(tokenize(text));
+        p.expect("select");
+        List<Item> items = new ArrayList<>();
+        do items.add(p.item()); while (p.accept(","));
+        p.expect("from");
+        List<String> tables = new ArrayList<>();
+        do {
+            String table = p.next();
+            if (!TABLES.contains(table)) {
+                throw new IllegalArgumentException("Unknown table '" + table + "'; expected meals, steps or water.");
+            }
+            if (tables.contains(table)) {
+                throw new IllegalArgumentException("Table '" + table + "' appears twice.");
+            }
+            tables.add(table);
+        } while (p.accept("join"));
+        List<Condition> where = new ArrayList<>();
+        if (p.accept("where")) {
+            do where.add(p.condition()); while (p.accept("and"));
+        }
+        List<Column> groupBy = new ArrayList<>();
+        if (p.accept("group")) {
+            p.expect("by");
+            do groupBy.add(p.column()); while (p.accept(","));
+        }
+        int orderBy = -1;
+        boolean descending = false;
+        if (p.accept("order")) {
+            p.expect("by");
+            String label = p.item().label;
+            for (int i = 0; i < items.size() && orderBy < 0; i++) {
+                if (items.get(i).label.equals(label)) orderBy = i;
+            }
+            if (orderBy < 0) {
+                throw new IllegalArgumentException("ORDER BY " + label + " must be one of the selected items.");
+            }
+            descending = p.accept("desc");
+            if (!descending) p.accept("asc");
+        }
+        int limit = -1;
+        if (p.accept("limit")) {
+            String n = p.next();
+            try {
+                limit = Integer.parseInt(n);
+            } catch (NumberFormatException ex) {
+                limit = -1;
+            }
+            if (limit < 0) {
+                throw new IllegalArgumentException("LIMIT must be a whole number, not '" + n + "'.");
+            }
+        }
+        if (!p.atEnd()) {
+            throw new IllegalArgumentException("Unexpected " + p.describe() + " after the end of the query.");
+        }
+        return new TrackerQuery(tables, items, where, groupBy, orderBy, descending, limit);
+    }
+
+    private void validate() {
+        EnumSet<Column> available = available(tables);
+        String from = String.join(" join ", tables);
+        if (groupBy.size() > MAX_GROUP_KEYS) {
+            throw new IllegalArgumentException("GROUP BY supports at most " + MAX_GROUP_KEYS + " columns.");
+        }
+        for (Column c : groupBy) {
+            if (!c.key) {
+                throw new IllegalArgumentException("Cannot group by " + c.label() + "; group by day, weekday, month, year, name or category.");
+            }
+            use(c, available, from);
+        }
+        for (Item item : items) {
+            if (item.aggregate == null && aggregating && !groupBy.contains(item.column)) {
+                throw new IllegalArgumentException(item.label + " must appear in GROUP BY when the query aggregates.");
+            }
+            if (item.aggregate != null && item.column != null && item.column.key) {
+                throw new IllegalArgumentException(item.label + " is not supported; aggregate calories, grams, meals, steps or liters.");
+            }
+            if (item.column != null) use(item.column, available, from);
+        }
+        for (Condition c : where) {
+            if ((c.column == Column.NAME || c.column == Column.CATEGORY) && !c.op.equals("=") && !c.op.equals("!=")) {
+                throw new IllegalArgumentException(c.column.label() + " can only be compared with = or !=.");
+            }
+            use(c.column, available, from);
+        }
+    }
+
+    private void use(Column c, EnumSet<Column> available, String from) {
+        if (!available.contains(c)) {
+            throw new IllegalArgumentException("Column '" + c.label() + "' is not available from " + from + ".");
+        }
+        used.add(c);
+        if (c.calendar()) used.add(Column.DAY);
+    }
+
+    private static EnumSet<Column> available(List<String> tables) {
+        EnumSet<Column> out = EnumSet.of(Column.DAY, Column.WEEKDAY, Column.MONTH, Column.YEAR);
+        boolean join = tables.size() > 1;
+        for (String table : tables) {
+            switch (table) {
+                case DataStore.MEALS:
+                    out.add(Column.CALORIES);
+                    if (join) {
+                        out.add(Column.MEALS);
+                    } else {
+                        out.add(Column.NAME);
+                        out.add(Column.CATEGORY);
+                        out.add(Column.GRAMS);
+                    }
+                    break;
+                case DataStore.STEPS: out.add(Column.STEPS); break;
+                default: out.add(Column.LITERS); break;
+            }
+        }
+        return out;
+    }
+
+    public QueryResult run(UserContext user) throws IOException {
+        return user.withPartition(p -> run(p.store()));
+    }
+
+    public QueryResult run(DataStore ds) throws IOException {
+        Source source = tables.size() == 1 ? new RecordSource(ds.store(tables.get(0)).columns(), tables.get(0)) : new DayRows(ds.rollup(), tables);
+        Filter[] filters = new Filter[where.size()];
+        for (int i = 0; i < filters.length; i++) filters[i] = bind(where.get(i), ds);
+        Batch batch = new Batch(used);
+        Groups groups = aggregating ? new Groups() : null;
+        List<Object[]> rows = new ArrayList<>();
+        int size = source.size();
+        for (int from = 0; from < size; from += BATCH) {
+            int to = Math.min(from + BATCH, size);
+            batch.load(source, from, to);
+            int n = to - from;
+            for (Filter f : filters) {
+                n = f.apply(batch, n);
+                if (n == 0) break;
+            }
+            if (n == 0) continue;
+            if (groups != null) {
+                groups.add(batch, n);
+            } else {
+                project(batch, n, rows);
+                // without ORDER BY the first rows in store order are the answer
+                if (orderBy < 0 && limit >= 0 && rows.size() >= limit) break;
+            }
+        }
+        if (groups != null) groups.emit(rows);
+        return finish(rows, ds);
+    }
+
+    private void project(Batch b, int n, List<Object[]> rows) {
+        for (int k = 0; k < n; k++) {
+            int r = b.sel[k];
+            Object[] row = new Object[items.size()];
+            for (int i = 0; i < row.length; i++) {
+                Column c = items.get(i).column;
+                row[i] = c.key ? (Object) b.keys[c.ordinal()][r] : (Object) b.measures[c.ordinal()][r];
+            }
+            rows.add(row);
+        }
+    }
+
+    // Order, cut and turn ids into names, days and weekdays
+    private QueryResult finish(List<Object[]> rows, DataStore ds) {
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            if (item.column == Column.NAME || item.column == Column.CATEGORY) {
+                StringDictionary dict = item.column == Column.NAME ? ds.mealNames() : ds.categories();
+                for (Object[] row : rows) row[i] = dict.valueOf((Integer) row[i]);
+            }
+        }
+        // names sort as text, days and weekdays by their number
+        Comparator<Object[]> order = null;
+        if (orderBy >= 0) {
+            order = cellOrder(orderBy);
+            if (descending) order = order.reversed();
+        } else if (aggregating) {
+            for (int i = 0; i < items.size(); i++) {
+                if (items.get(i).aggregate == null) order = order == null ? cellOrder(i) : order.thenComparing(cellOrder(i));
+            }
+        }
+        if (order != null) rows.sort(order);
+        if (limit >= 0 && rows.size() > limit) rows = new ArrayList<>(rows.subList(0, limit));
+        for (int i = 0; i < items.size(); i++) {
+            Column c = items.get(i).column;
+            if (items.get(i).aggregate != null) continue;
+            for (Object[] row : rows) {
+                if (c == Column.DAY) row[i] = LocalDate.ofEpochDay((Integer) row[i]);
+                else if (c == Column.WEEKDAY) row[i] = DayOfWeek.of((Integer) row[i]).getDisplayName(TextStyle.FULL, Locale.ENGLISH);
+            }
+        }
+        List<String> columns = new ArrayList<>();
+        for (Item item : items) columns.add(item.label);
+        return new QueryResult(columns, rows);
+    }
+
+    // Nulls (aggregates over no rows) last
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Comparator<Object[]> cellOrder(int i) {
+        return (a, b) -> {
+            if (a[i] == null || b[i] == null) return a[i] == null ? (b[i] == null ? 0 : 1) : -1;
+            return ((Comparable) a[i]).compareTo(b[i]);
+        };
+    }
+
+    private static Filter bind(Condition c, DataStore ds) {
+        if (c.column.key) return Filter.ofKey(c.column, c.op, keyLiteral(c, ds));
+        double v;
+        try {
+            v = Double.parseDouble(c.literal);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Expected a number for " + c.column.label() + " but found '" + c.literal + "'.");
+        }
+        return Filter.ofMeasure(c.column, c.op, v);
+    }
+
+    private static int keyLiteral(Condition c, DataStore ds) {
+        String text = c.literal;
+        try {
+            switch (c.column) {
+                case NAME:
+                case CATEGORY:
+                    if (!c.quoted) throw new IllegalArgumentException("Quote the " + c.column.label() + " to compare with: '" + text + "'.");
+                    int id = (c.column == Column.NAME ? ds.mealNames() : ds.categories()).find(text);
+                    return id < 0 ? NO_ID : id;
+                case DAY:
+                    return Math.toIntExact(LocalDate.parse(text).toEpochDay());
+                case WEEKDAY:
+                    return calendarNumber(text, DayOfWeek.values().length, DayOfWeek.values());
+                case MONTH:
+                    return calendarNumber(text, Month.values().length, Month.values());
+                default:
+                    return Integer.parseInt(text);
+            }
+        } catch (DateTimeException | ArithmeticException | NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid " + c.column.label() + " '" + text + "'.");
+        }
+    }
+
+    // A number in 1..max, or a name or its first three letters or more ("Mon", "september")
+    private static int calendarNumber(String text, int max, Enum<?>[] names) {
+        String lower = text.toLowerCase(Locale.ROOT);
+        for (Enum<?> e : names) {
+            if (lower.length() >= 3 && e.name().toLowerCase(Locale.ROOT).startsWith(lower)) return e.ordinal() + 1;
+        }
+        int n = Integer.parseInt(text);
+        if (n < 1 || n > max) throw new NumberFormatException(text);
+        return n;
+    }
+
+    // -- execution ---------------------------------------------------------------------------
+
+    // Rows a query reads: one store's records, or per-day totals for a join
+    private interface Source {
+        int size();
+
+        // Fill the batch's columns (not the calendar ones) with rows [from, to)
+        void fill(Batch b, int from, int to);
+    }
+
+    private static final class RecordSource implements Source {
+        private final RecordColumns columns;
+        private final Column value;
+
+        RecordSource(RecordColumns columns, String table) {
+            this.columns = columns;
+            this.value = table.equals(DataStore.MEALS) ? Column.CALORIES : table.equals(DataStore.STEPS) ? Column.STEPS : Column.LITERS;
+        }
+
+        @Override
+        public int size() {
+            return columns.size();
+        }
+
+        @Override
+        public void fill(Batch b, int from, int to) {
+            if (b.has(Column.DAY)) columns.copyEpochDays(from, to, b.keys[Column.DAY.ordinal()]);
+            if (b.has(Column.NAME)) columns.copyNameIds(from, to, b.keys[Column.NAME.ordinal()]);
+            if (b.has(Column.CATEGORY)) columns.copyCategoryIds(from, to, b.keys[Column.CATEGORY.ordinal()]);
+            if (b.has(value)) columns.copyValues(from, to, b.measures[value.ordinal()]);
+            if (b.has(Column.GRAMS)) columns.copyQuantities(from, to, b.measures[Column.GRAMS.ordinal()]);
+        }
+    }
+
+    // Days with entries in every joined table, copied out of the rollup into columns
+    private static final class DayRows implements Source {
+        private int size;
+        private int[] days = new int[64];
+        private final double[][] measures = new double[Column.values().length][];
+
+        DayRows(DailyRollup rollup, List<String> tables) {
+            boolean meals = tables.contains(DataStore.MEALS);
+            boolean steps = tables.contains(DataStore.STEPS);
+            boolean water = tables.contains(DataStore.WATER);
+            for (Column c : new Column[] {Column.CALORIES, Column.MEALS, Column.STEPS, Column.LITERS}) {
+                measures[c.ordinal()] = new double[days.length];
+            }
+            rollup.forEach(Integer.MIN_VALUE, Integer.MAX_VALUE, d -> {
+                if (meals && d.meals == 0 || steps && d.stepEntries == 0 || water && d.waterEntries == 0) return;
+                if (size == days.length) grow();
+                days[size] = d.epochDay;
+                measures[Column.CALORIES.ordinal()][size] = d.calories;
+                measures[Column.MEALS.ordinal()][size] = d.meals;
+                measures[Column.STEPS.ordinal()][size] = d.steps;
+                measures[Column.LITERS.ordinal()][size] = d.liters;
+                size++;
+            });
+        }
+
+        private void grow() {
+            days = Arrays.copyOf(days, days.length * 2);
+            for (int i = 0; i < measures.length; i++) {
+                if (measures[i] != null) measures[i] = Arrays.copyOf(measures[i], days.length);
+            }
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void fill(Batch b, int from, int to) {
+            if (b.has(Column.DAY)) System.arraycopy(days, from, b.keys[Column.DAY.ordinal()], 0, to - from);
+            for (int i = 0; i < measures.length; i++) {
+                if (measures[i] != null && b.measures[i] != null) System.arraycopy(measures[i], from, b.measures[i], 0, to - from);
+            }
+        }
+    }
+
+    // One batch of rows as primitive columns, only those the query uses, plus its selection vector
+    private static final class Batch {
+        final int[][] keys = new int[Column.values().length][];
+        final double[][] measures = new double[Column.values().length][];
+        final int[] sel = new int[BATCH];
+
+        Batch(EnumSet<Column> used) {
+            for (Column c : used) {
+                if (c.key) keys[c.ordinal()] = new int[BATCH];
+                else measures[c.ordinal()] = new double[BATCH];
+            }
+        }
+
+        boolean has(Column c) {
+            return (c.key ? keys[c.ordinal()] : measures[c.ordinal()]) != null;
+        }
+
+        void load(Source source, int from, int to) {
+            int n = to - from;
+            source.fill(this, from, to);
+            int[] day = keys[Column.DAY.ordinal()];
+            int[] weekday = keys[Column.WEEKDAY.ordinal()];
+            if (weekday != null) {
+                for (int i = 0; i < n; i++) weekday[i] = Math.floorMod(day[i] + 3, 7) + 1;
+            }
+            int[] month = keys[Column.MONTH.ordinal()];
+            int[] year = keys[Column.YEAR.ordinal()];
+            if (month != null || year != null) calendar(day, n, month, year);
+            for (int i = 0; i < n; i++) sel[i] = i;
+        }
+
+        // Month and year of each epoch day by civil-from-days arithmetic, no LocalDate per row
+        private static void calendar(int[] day, int n, int[] month, int[] year) {
+            for (int i = 0; i < n; i++) {
+                int z = day[i] + 719468;
+                int era = Math.floorDiv(z, 146097);
+                int doe = z - era * 146097;
+                int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+                int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+                int mp = (5 * doy + 2) / 153;
+                int m = mp < 10 ? mp + 3 : mp - 9;
+                if (month != null) month[i] = m;
+                if (year != null) year[i] = yoe + era * 400 + (m <= 2 ? 1 : 0);
+            }
+        }
+    }
+
+    // A bound WHERE condition: keeps selected rows whose value lies in [lo, hi], or differs from lo
+    private static final class Filter {
+        final int slot;
+        final boolean key;
+        final boolean notEqual;
+        final long lo;
+        final long hi;
+        final double dlo;
+        final double dhi;
+
+        private Filter(int slot, boolean key, boolean notEqual, long lo, long hi, double dlo, double dhi) {
+            this.slot = slot;
+            this.key = key;
+            this.notEqual = notEqual;
+            this.lo = lo;
+            this.hi = hi;
+            this.dlo = dlo;
+            this.dhi = dhi;
+        }
+
+        static Filter ofKey(Column c, String op, int v) {
+            long lo = Long.MIN_VALUE;
+            long hi = Long.MAX_VALUE;
+            switch (op) {
+                case "<": hi = v - 1L; break;
+                case "<=": hi = v; break;
+                case ">": lo = v + 1L; break;
+                case ">=": lo = v; break;
+                default: lo = v; hi = v; break;
+            }
+            return new Filter(c.ordinal(), true, op.equals("!="), lo, hi, 0, 0);
+        }
+
+        static Filter ofMeasure(Column c, String op, double v) {
+            double lo = Double.NEGATIVE_INFINITY;
+            double hi = Double.POSITIVE_INFINITY;
+            switch (op) {
+                case "<": hi = Math.nextDown(v); break;
+                case "<=": hi = v; break;
+                case ">": lo = Math.nextUp(v); break;
+                case ">=": lo = v; break;
+                default: lo = v; hi = v; break;
+            }
+            return new Filter(c.ordinal(), false, op.equals("!="), 0, 0, lo, hi);
+        }
+
+        // Compact the first n selected rows down to those passing; returns how many
+        int apply(Batch b, int n) {
+            int[] sel = b.sel;
+            int out = 0;
+            if (key) {
+                int[] v = b.keys[slot];
+                if (notEqual) {
+                    for (int k = 0; k < n; k++) {
+                        int r = sel[k];
+                        if (v[r] != lo) sel[out++] = r;
+                    }
+                } else {
+                    for (int k = 0; k < n; k++) {
+                        int r = sel[k];
+                        int x = v[r];
+                        if (x >= lo && x <= hi) sel[out++] = r;
+                    }
+                }
+            } else {
+                double[] v = b.measures[slot];
+                if (notEqual) {
+                    for (int k = 0; k < n; k++) {
+                        int r = sel[k];
+                        if (v[r] != dlo) sel[out++] = r;
+                    }
+                } else {
+                    for (int k = 0; k < n; k++) {
+                        int r = sel[k];
+                        double x = v[r];
+                        if (x >= dlo && x <= dhi) sel[out++] = r;
+                    }
+                }
+            }
+            return out;
+        }
+    }
+
+    // GROUP BY state: group ids by packed key, and per group a row count and one array per aggregate
+    private final class Groups {
+        private final int[] keySlots = new int[groupBy.size()];
+        private final int[] gids = new int[BATCH];
+        private long[] table = new long[64];
+        private int[] tableGroups = new int[64];
+        private int groupCount;
+        private long[] groupKeys = new long[16];
+        private long[] rows = new long[16];
+        private final double[][] acc = new double[items.size()][];
+
+        Groups() {
+            for (int i = 0; i < keySlots.length; i++) keySlots[i] = groupBy.get(i).ordinal();
+            Arrays.fill(tableGroups, -1);
+            for (int i = 0; i < acc.length; i++) {
+                Aggregate a = items.get(i).aggregate;
+                if (a != null && a != Aggregate.COUNT) acc[i] = new double[rows.length];
+            }
+            // no GROUP BY: one group, present even when no row matches
+            if (keySlots.length == 0) newGroup(0);
+        }
+
+        void add(Batch b, int n) {
+            int[] sel = b.sel;
+            if (keySlots.length == 0) {
+                Arrays.fill(gids, 0, n, 0);
+            } else {
+                int[] k0 = b.keys[keySlots[0]];
+                int[] k1 = keySlots.length > 1 ? b.keys[keySlots[1]] : null;
+                // consecutive rows mostly share a key (records arrive by day), so skip the probe
+                long last = 0;
+                int lastGroup = -1;
+                for (int k = 0; k < n; k++) {
+                    int r = sel[k];
+                    long key = ((long) k0[r] << 32) | (k1 == null ? 0 : k1[r] & 0xFFFFFFFFL);
+                    if (lastGroup < 0 || key != last) {
+                        last = key;
+                        lastGroup = group(key);
+                    }
+                    gids[k] = lastGroup;
+                }
+            }
+            for (int k = 0; k < n; k++) rows[gids[k]]++;
+            for (int i = 0; i < acc.length; i++) {
+                double[] a = acc[i];
+                if (a == null) continue;
+                double[] v = b.measures[items.get(i).column.ordinal()];
+                switch (items.get(i).aggregate) {
+                    case MIN:
+                        for (int k = 0; k < n; k++) a[gids[k]] = Math.min(a[gids[k]], v[sel[k]]);
+                        break;
+                    case MAX:
+                        for (int k = 0; k < n; k++) a[gids[k]] = Math.max(a[gids[k]], v[sel[k]]);
+                        break;
+                    default:
+                        for (int k = 0; k < n; k++) a[gids[k]] += v[sel[k]];
+                        break;
+                }
+            }
+        }
+
+        // Open-addressing lookup of a packed key, adding a group when it is new
+        private int group(long key) {
+            int mask = table.length - 1;
+            int i = (int) (mix(key) & mask);
+            while (tableGroups[i] >= 0) {
+                if (table[i] == key) return tableGroups[i];
+                i = (i + 1) & mask;
+            }
+            int g = newGroup(key);
+            table[i] = key;
+            tableGroups[i] = g;
+            if (groupCount * 2 > table.length) rehash();
+            return g;
+        }
+
+        private int newGroup(long key) {
+            if (groupCount == rows.length) {
+                int capacity = rows.length * 2;
+                rows = Arrays.copyOf(rows, capacity);
+                groupKeys = Arrays.copyOf(groupKeys, capacity);
+                for (int i = 0; i < acc.length; i++) {
+                    if (acc[i] != null) acc[i] = Arrays.copyOf(acc[i], capacity);
+                }
+            }
+            int g = groupCount++;
+            groupKeys[g] = key;
+            for (int i = 0; i < acc.length; i++) {
+                if (acc[i] == null) continue;
+                Aggregate a = items.get(i).aggregate;
+                acc[i][g] = a == Aggregate.MIN ? Double.POSITIVE_INFINITY : a == Aggregate.MAX ? Double.NEGATIVE_INFINITY : 0;
+            }
+            return g;
+        }
+
+        private void rehash() {
+            long[] oldKeys = table;
+            int[] oldGroups = tableGroups;
+            table = new long[oldKeys.length * 2];
+            tableGroups = new int[table.length];
+            Arrays.fill(tableGroups, -1);
+            int mask = table.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldGroups[j] < 0) continue;
+                int i = (int) (mix(oldKeys[j]) & mask);
+                while (tableGroups[i] >= 0) i = (i + 1) & mask;
+                table[i] = oldKeys[j];
+                tableGroups[i] = oldGroups[j];
+            }
+        }
+
+        private long mix(long key) {
+            key *= 0x9E3779B97F4A7C15L;
+            return key ^ (key >>> 29);
+        }
+
+        void emit(List<Object[]> out) {
+            for (int g = 0; g < groupCount; g++) {
+                Object[] row = new Object[items.size()];
+                long n = rows[g];
+                for (int i = 0; i < row.length; i++) {
+                    Item item = items.get(i);
+                    if (item.aggregate == null) {
+                        long key = groupKeys[g];
+                        row[i] = groupBy.indexOf(item.column) == 0 ? (int) (key >> 32) : (int) key;
+                    } else if (item.aggregate == Aggregate.COUNT) {
+                        row[i] = n;
+                    } else if (item.aggregate == Aggregate.SUM) {
+                        row[i] = acc[i][g];
+                    } else {
+                        row[i] = n == 0 ? null : item.aggregate == Aggregate.AVG ? acc[i][g] / n : acc[i][g];
+                    }
+                }
+                out.add(row);
+            }
+        }
+    }
+
+    // -- parsing -----------------------------------------------------------------------------
+
+    // Words (lower-cased), numbers, 'quoted strings' (kept with their opening quote), operators
+    private static List<String> tokenize(String text) {
+        List<String> out = new ArrayList<>();
+        int n = text.length();
+        int i = 0;
+        while (i < n) {
+            char c = text.charAt(i);
+            int start = i;
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '\'') {
+                StringBuilder sb = new StringBuilder("'");
+                for (i++; ; i++) {
+                    if (i >= n) throw new IllegalArgumentException("Unterminated string: " + text.substring(start));
+                    char d = text.charAt(i);
+                    if (d != '\'') {
+                        sb.append(d);
+                    } else if (i + 1 < n && text.charAt(i + 1) == '\'') {
+                        sb.append('\'');
+                        i++;
+                    } else {
+                        i++;
+                        break;
+                    }
+                }
+                out.add(sb.toString());
+            } else if (Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '-') {
+                while (i < n && (Character.isLetterOrDigit(text.charAt(i)) || "_.-".indexOf(text.charAt(i)) >= 0)) i++;
+                out.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+            } else if (c == '<' || c == '>' || c == '=' || c == '!') {
+                i++;
+                if (i < n && (text.charAt(i) == '=' || c == '<' && text.charAt(i) == '>')) i++;
+                out.add(text.substring(start, i));
+            } else if (c == '(' || c == ')' || c == ',' || c == '*') {
+                out.add(String.valueOf(c));
+                i++;
+            } else {
+                throw new IllegalArgumentException("Unexpected character '" + c + "' at position " + (i + 1) + ".");
+            }
+        }
+        return out;
+    }
+
+    private static final class Parser {
+        private final List<String> tokens;
+        private int pos;
+
+        Parser(List<String> tokens) {
+            this.tokens = tokens;
+        }
+
+        boolean atEnd() {
+            return pos >= tokens.size();
+        }
+
+        String describe() {
+            return atEnd() ? "end of query" : "'" + tokens.get(pos) + "'";
+        }
+
+        boolean accept(String token) {
+            if (!atEnd() && tokens.get(pos).equals(token)) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(String token) {
+            if (!accept(token)) {
+                throw new IllegalArgumentException("Expected '" + token + "' but found " + describe() + ".");
+            }
+        }
+
+        String next() {
+            if (atEnd()) throw new IllegalArgumentException("Unexpected end of query.");
+            return tokens.get(pos++);
+        }
+
+        Column column() {
+            return column(next());
+        }
+
+        Column column(String name) {
+            for (Column c : Column.values()) {
+                if (c.label().equals(name)) return c;
+            }
+            throw new IllegalArgumentException("Unknown column '" + name + "'.");
+        }
+
+        Item item() {
+            String name = next();
+            for (Aggregate a : Aggregate.values()) {
+                if (a.name().toLowerCase(Locale.ROOT).equals(name) && accept("(")) {
+                    Column c = null;
+                    if (a != Aggregate.COUNT) c = column();
+                    else accept("*");
+                    expect(")");
+                    return new Item(a, c);
+                }
+            }
+            return new Item(null, column(name));
+        }
+
+        Condition condition() {
+            Column c = column();
+            String op = next();
+            if (op.equals("<>")) op = "!=";
+            if (!Arrays.asList("=", "!=", "<", "<=", ">", ">=").contains(op)) {
+                throw new IllegalArgumentException("Expected a comparison after " + c.label() + " but found '" + op + "'.");
+            }
+            String literal = next();
+            boolean quoted = literal.startsWith("'");
+            return new Condition(c, op, quoted ? literal.substring(1) : literal, quoted);
+        }
+    }
+
+    // -- command line ------------------------------------------------------------------------
+
+    // CLI: java fitlife.data.TrackerQuery ["<query>"] [--user <id>]
+    // Without a query, runs one query per line of standard input. The data is opened read-only,
+    // so queries work while the GUI or an import has it open.
+    public static void main(String[] args) {
+        String user = UserRegistry.LOCAL_USER;
+        String text = null;
+        for (int i = 0; i < args.length; i++) {
+            if ("--user".equals(args[i]) && i + 1 < args.length) {
+                user = args[++i];
+            } else if (text == null && !args[i].startsWith("--")) {
+                text = args[i];
+            } else {
+                System.err.println("Usage: TrackerQuery [\"select ... from meals|steps|water ...\"] [--user <id>]");
+                System.exit(2);
+            }
+        }
+        try {
+            TrackerQuery single = text != null ? parse(text) : null;
+            List<String> lines = new ArrayList<>();
+            if (single == null) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+                for (String line; (line = in.readLine()) != null; ) {
+                    if (!line.trim().isEmpty()) lines.add(line);
+                }
+            }
+            boolean failed = false;
+            Path dir = UserRegistry.shared().directoryOf(user);
+            // first use: open the partition for writing once, which imports the legacy files
+            if (!Files.isDirectory(dir)) UserContext.of(user).withPartition(p -> null);
+            DataStore ds = DataStore.openReadOnly(dir);
+            try {
+                if (single != null) {
+                    System.out.print(single.run(ds));
+                }
+                for (String line : lines) {
+                    try {
+                        System.out.print(parse(line).run(ds));
+                    } catch (IllegalArgumentException ex) {
+                        System.err.println("Query failed: " + ex.getMessage());
+                        failed = true;
+                    }
+                }
+            } finally {
+                ds.close();
+            }
+            if (failed) System.exit(1);
+        } catch (IOException | IllegalArgumentException ex) {
+            System.err.println("Query failed: " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+}
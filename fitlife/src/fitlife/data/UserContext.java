@@ -0,0 +1,61 @@
+package fitlife.data;
+
+import java.io.IOException;
+
+/**
+ * Identifies whose data a tracker, report or extractor works on. Contexts are cheap immutable
+ * values; the partition behind one is opened by its {@link UserRegistry} when first used.
+ */
+public final class UserContext {
+
+    private final String userId;
+    private final UserRegistry registry;
+
+    public UserContext(String userId, UserRegistry registry) {
+        this.userId = UserRegistry.checkUserId(userId);
+        this.registry = registry;
+    }
+
+    // A user of the shared registry
+    public static UserContext of(String userId) {
+        return new UserContext(userId, UserRegistry.shared());
+    }
+
+    // The single-user layout the app has always used (records in data/, CSVs and foods.txt in the working directory)
+    public static UserContext local() {
+        return of(UserRegistry.LOCAL_USER);
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public UserRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Run an action against this user's partition; see {@link UserRegistry#withPartition}.
+     */
+    public <T> T withPartition(UserRegistry.PartitionAction<T> action) throws IOException {
+        return registry.withPartition(userId, action);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof UserContext)) return false;
+        UserContext other = (UserContext) o;
+        return userId.equals(other.userId) && registry == other.registry;
+    }
+
+    @Override
+    public int hashCode() {
+        return userId.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "UserContext[" + userId + "]";
+    }
+}
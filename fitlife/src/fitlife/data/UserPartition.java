@@ -0,0 +1,91 @@
+package fitlife.data;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * One user's slice of the data: a {@link DataStore} and a {@link FoodCatalog} kept in the user's
+ * own directory. Partitions are handed out by {@link UserRegistry#withPartition}, which opens them
+ * on first use and closes them again once they have been idle for a while.
+ *
+ * Each partition has its own read/write lock. Everything that uses the partition holds the read
+ * lock, so any number of callers share it; only opening and closing take the write lock. Two
+ * users never touch the same lock, store or journal.
+ */
+public class UserPartition {
+
+    private final String userId;
+    private final Path dir;
+    private final Path foodsFile;
+    private final Path legacyDir;
+
+    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile DataStore store;
+    private volatile FoodCatalog foods;
+    private volatile boolean closed;
+    private volatile long lastUsedNanos = System.nanoTime();
+
+    // legacyDir is where old CSV files are imported from on first open, or null for none
+    UserPartition(String userId, Path dir, Path foodsFile, Path legacyDir) {
+        this.userId = userId;
+        this.dir = dir;
+        this.foodsFile = foodsFile;
+        this.legacyDir = legacyDir;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public Path getDirectory() {
+        return dir;
+    }
+
+    public DataStore store() {
+        return store;
+    }
+
+    public FoodCatalog foods() {
+        return foods;
+    }
+
+    // Called with the write lock held
+    void open() throws IOException {
+        DataStore ds = new DataStore(dir);
+        try {
+            if (legacyDir != null) LegacyCsvImporter.importIfNeeded(ds, legacyDir);
+            foods = new FoodCatalog(foodsFile);
+        } catch (IOException e) {
+            ds.close();
+            throw e;
+        }
+        store = ds;
+    }
+
+    // Called with the write lock held; the partition is unusable afterwards even if closing fails
+    void close() throws IOException {
+        closed = true;
+        try {
+            if (store != null) store.close();
+        } finally {
+            if (foods != null) foods.close();
+        }
+    }
+
+    boolean isOpen() {
+        return store != null;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void touch() {
+        lastUsedNanos = System.nanoTime();
+    }
+
+    long idleNanos(long now) {
+        return now - lastUsedNanos;
+    }
+}
@@ -0,0 +1,192 @@
+package fitlife.data;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Directory of per-user partitions under one data root.
+ *
+ * The local user keeps the original single-user layout (records in the root directory, foods.txt
+ * and the legacy CSV files in the working directory); every other user gets
+ * {@code <root>/users/<userId>/}. Partitions are opened lazily on first use and a background
+ * sweeper closes those that have not been used for the idle timeout, so only active users hold
+ * file handles and journal threads. The registry itself takes no lock on the hot path.
+ */
+public class UserRegistry {
+
+    public static final String LOCAL_USER = "local";
+
+    private static final Pattern USER_ID = Pattern.compile("[A-Za-z0-9][A-Za-z0-9._-]{0,63}");
+    private static UserRegistry shared;
+
+    private final Path root;
+    private final Path legacyDir;
+    private final long idleNanos;
+    private final ConcurrentHashMap<String, UserPartition> partitions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sweeper;
+    private volatile boolean closed;
+
+    @FunctionalInterface
+    public interface PartitionAction<T> {
+        T apply(UserPartition partition) throws IOException;
+    }
+
+    public UserRegistry(Path root, Path legacyDir, long idleMillis) {
+        if (idleMillis < 1) {
+            throw new IllegalArgumentException("idleMillis must be positive.");
+        }
+        this.root = root;
+        this.legacyDir = legacyDir;
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "fitlife-partition-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, idleMillis / 4);
+        sweeper.scheduleWithFixedDelay(this::closeIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Registry for the working directory's data root. Idle partitions are closed after
+     * fitlife.users.idleMinutes (default 10); all partitions are closed on JVM shutdown.
+     */
+    public static synchronized UserRegistry shared() {
+        if (shared == null) {
+            UserRegistry registry = new UserRegistry(DataStore.DEFAULT_DIR, Paths.get("."),
+                    TimeUnit.MINUTES.toMillis(Long.getLong("fitlife.users.idleMinutes", 10L)));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    registry.close();
+                } catch (IOException e) {
+                    // the rollups replay their missing tails on next open
+                }
+            }));
+            shared = registry;
+        }
+        return shared;
+    }
+
+    public static String checkUserId(String userId) {
+        if (userId == null || !USER_ID.matcher(userId).matches()) {
+            throw new IllegalArgumentException("Invalid user id: " + userId
+                    + " (use up to 64 letters, digits, '.', '_' or '-')");
+        }
+        return userId;
+    }
+
+    /**
+     * Run an action against a user's partition, opening it first if needed. The partition cannot
+     * be closed while the action runs. Entries submitted to the store's journal during the action
+     * are committed before the partition is closed.
+     */
+    public <T> T withPartition(String userId, PartitionAction<T> action) throws IOException {
+        checkUserId(userId);
+        while (true) {
+            if (closed) {
+                throw new IOException("User registry is closed.");
+            }
+            UserPartition p = partitions.computeIfAbsent(userId, this::newPartition);
+            if (!p.isOpen()) openPartition(p);
+            p.lock.readLock().lock();
+            try {
+                // closed by the sweeper since the lookup: retry with a fresh partition
+                if (p.isClosed()) continue;
+                p.touch();
+                return action.apply(p);
+            } finally {
+                p.lock.readLock().unlock();
+            }
+        }
+    }
+
+    private UserPartition newPartition(String userId) {
+        if (LOCAL_USER.equals(userId)) {
+            return new UserPartition(userId, root, legacyDir.resolve("foods.txt"), legacyDir);
+        }
+        Path dir = directoryOf(userId);
+        return new UserPartition(userId, dir, dir.resolve("foods.txt"), null);
+    }
+
+    // Directory holding a user's records, whether or not the partition is open
+    public Path directoryOf(String userId) {
+        checkUserId(userId);
+        return LOCAL_USER.equals(userId) ? root : root.resolve("users").resolve(userId);
+    }
+
+    private void openPartition(UserPartition p) throws IOException {
+        p.lock.writeLock().lock();
+        try {
+            if (p.isOpen() || p.isClosed()) return;
+            try {
+                p.open();
+            } catch (IOException e) {
+                p.close();
+                partitions.remove(p.getUserId(), p);
+                throw e;
+            }
+        } finally {
+            p.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Close partitions idle for longer than the timeout. Partitions in use are skipped.
+     */
+    public void closeIdle() {
+        for (UserPartition p : partitions.values()) {
+            if (p.idleNanos(System.nanoTime()) < idleNanos || !p.lock.writeLock().tryLock()) continue;
+            try {
+                if (p.idleNanos(System.nanoTime()) >= idleNanos) {
+                    closePartition(p);
+                }
+            } catch (IOException e) {
+                // the rollup replays the missing tail when the partition is reopened
+            } finally {
+                p.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    // Called with the write lock held. The partition leaves the map only after its files are
+    // closed, so a replacement can never open the same directory while this one is shutting down.
+    private void closePartition(UserPartition p) throws IOException {
+        try {
+            p.close();
+        } finally {
+            partitions.remove(p.getUserId(), p);
+        }
+    }
+
+    public int openPartitions() {
+        return partitions.size();
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    // Close every partition, waiting for actions in progress to finish
+    public void close() throws IOException {
+        closed = true;
+        sweeper.shutdownNow();
+        IOException failure = null;
+        for (UserPartition p : partitions.values()) {
+            p.lock.writeLock().lock();
+            try {
+                closePartition(p);
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                p.lock.writeLock().unlock();
+            }
+        }
+        if (failure != null) throw failure;
+    }
+}
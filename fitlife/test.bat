@@ -0,0 +1,9 @@
+@echo off
+rem Builds the checks and benchmarks under test\ against bin (run compile.bat first) into
+rem test-bin, which run.bat never puts on the classpath. Pass a class name to run it.
+dir /s /b test\*.java > test-sources.txt
+javac -cp "bin;lib\*" -d test-bin @test-sources.txt
+set result=%errorlevel%
+del test-sources.txt
+if not %result%==0 exit /b %result%
+if not "%~1"=="" java -cp "test-bin;bin;lib\*" %*
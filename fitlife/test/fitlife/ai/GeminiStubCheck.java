@@ -0,0 +1,451 @@
+package fitlife.ai;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import fitlife.config.GeminiConfig;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Checks the Gemini client against a local stub server instead of the real API. The stub picks
+ * its behaviour from a marker in the question (e.g. "[status 400]"), so each check drives one
+ * path: answers, error statuses, unreadable bodies and deadlines, over generateContent and the
+ * streamGenerateContent event stream. Streamed answers are also sent one character per event,
+ * so escapes, the code fence and the "answer" key are cut at every point.
+ *
+ * A fault-injecting endpoint replays a scripted list of statuses, one per request, to drive
+ * {@link CallGuard}: 429 with short and long Retry-After waits, retries on 503, the
+ * {@link CircuitBreaker} going open, half-open and closed, and the {@link TokenBucket} turning a
+ * call away at its deadline.
+ *
+ * Answers are cached in a temporary directory, not data/ai-cache. Any GEMINI_API_KEY will do;
+ * it is only ever sent to the stub. After compile.bat:
+ * {@code set GEMINI_API_KEY=stub} then {@code test.bat fitlife.ai.GeminiStubCheck}
+ */
+public class GeminiStubCheck {
+
+    private static final Gson gson = new Gson();
+    private static final String ANSWER = "You averaged 2,100 kcal a day.";
+    // a streamed analysis whose answer uses every kind of JSON escape, and that answer decoded
+    private static final String ESCAPED_TEXT = "```json\n{\"answer\": \"Caf\\u00e9 \\\"latte\\\" \\\\ 2\\n"
+            + "\\ud83d\\ude00 \\/ done\", \"insights\": [\"i1\"], \"recommendations\": [], \"confidence\": 0.8}\n```";
+    private static final String ESCAPED_ANSWER = "Caf\u00e9 \"latte\" \\ 2\n\ud83d\ude00 / done";
+    private static final String PLAIN_TEXT = "Drink more water.";
+
+    private static final AtomicInteger generateCalls = new AtomicInteger();
+    // requests seen per fault path, and per prompt for "[flaky]" questions
+    private static final Map<String, AtomicInteger> hits = new ConcurrentHashMap<>();
+    private static final HttpClient client = HttpClient.newHttpClient();
+    private static String faultBase;
+    private static int failures;
+
+    public static void main(String[] args) throws IOException {
+        if (!GeminiConfig.isApiKeyConfigured()) {
+            System.err.println("Set GEMINI_API_KEY (any value) to run the checks.");
+            System.exit(2);
+        }
+        // let every request through at once, and keep answers out of the real cache; both must be
+        // set before GeminiAnalyzer is loaded
+        System.setProperty("gemini.requestsPerMinute", "6000");
+        System.setProperty("gemini.cacheDir", Files.createTempDirectory("fitlife-ai-cache").toString());
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "fitlife-gemini-stub");
+            t.setDaemon(true);
+            return t;
+        }));
+        server.createContext("/v1beta/models/stub:generateContent", GeminiStubCheck::generate);
+        server.createContext("/v1beta/models/stub:streamGenerateContent", GeminiStubCheck::stream);
+        server.createContext("/fault/", GeminiStubCheck::fault);
+        server.start();
+        String base = "http://127.0.0.1:" + server.getAddress().getPort() + "/v1beta/models/stub";
+        System.setProperty("gemini.endpoint", base + ":generateContent");
+        faultBase = "http://127.0.0.1:" + server.getAddress().getPort() + "/fault/";
+        try {
+            checkGenerate();
+            checkStreaming();
+            checkStreamCuts();
+            checkRetries();
+            checkBreaker();
+            checkLimiter();
+        } finally {
+            server.stop(0);
+        }
+        System.out.println(failures == 0 ? "All checks passed" : failures + " check(s) failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void checkGenerate() {
+        Map<String, Object> ok = GeminiAnalyzer.analyzeUserHealthAsync(metrics(), "How am I doing?").join();
+        check("generateContent answer", ANSWER.equals(ok.get("answer")) && ok.get("insights") instanceof List, ok);
+
+        // many calls in flight at once on the shared client
+        int before = generateCalls.get();
+        List<CompletableFuture<Map<String, Object>>> calls = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            calls.add(GeminiAnalyzer.analyzeUserHealthAsync(metrics(), "Question " + i + " [delay 200]"));
+        }
+        int answered = 0;
+        for (CompletableFuture<Map<String, Object>> f : calls) {
+            if (ANSWER.equals(f.join().get("answer"))) answered++;
+        }
+        check("concurrent calls", answered == 40 && generateCalls.get() - before == 40,
+                answered + " answered, " + (generateCalls.get() - before) + " stub calls");
+
+        before = generateCalls.get();
+        Map<String, Object> rejected = GeminiAnalyzer.analyzeUserHealthAsync(metrics(), "Bad request [status 400]").join();
+        check("400 is reported, not retried", String.valueOf(rejected.get("error")).contains("400")
+                && generateCalls.get() - before == 1, rejected);
+
+        Map<String, Object> garbled = GeminiAnalyzer.analyzeUserHealthAsync(metrics(), "Garbled [garbled]").join();
+        check("unreadable body", String.valueOf(garbled.get("error")).contains("Invalid API response format"), garbled);
+
+        long start = System.nanoTime();
+        Map<String, Object> late = GeminiAnalyzer.analyzeUserHealthAsync(metrics(), "Slow [delay 3000]", Duration.ofMillis(300)).join();
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        check("deadline", String.valueOf(late.get("error")).contains("No response within") && millis < 2000,
+                late + " after " + millis + " ms");
+    }
+
+    private static void checkStreaming() {
+        List<String> partials = new CopyOnWriteArrayList<>();
+        long[] firstPartial = new long[1];
+        long start = System.nanoTime();
+        Map<String, Object> streamed = GeminiAnalyzer.analyzeUserHealthStreaming(metrics(), "Stream it [delay 40]", p -> {
+            if (firstPartial[0] == 0) firstPartial[0] = System.nanoTime();
+            partials.add(p);
+        }).join();
+        long done = System.nanoTime();
+        check("streamed answer", ESCAPED_ANSWER.equals(streamed.get("answer")) && growing(partials)
+                && ESCAPED_ANSWER.equals(last(partials)) && partials.size() > 5, streamed + " " + partials);
+        check("streamed answer arrives early", firstPartial[0] > start && done - firstPartial[0] > 500_000_000L,
+                (done - firstPartial[0]) / 1_000_000 + " ms between first partial and completion");
+
+        List<String> quirky = new CopyOnWriteArrayList<>();
+        Map<String, Object> odd = GeminiAnalyzer.analyzeUserHealthStreaming(metrics(), "Odd stream [quirks]", quirky::add).join();
+        check("stream with comments, split data and no final blank line", ESCAPED_ANSWER.equals(odd.get("answer"))
+                && growing(quirky) && ESCAPED_ANSWER.equals(last(quirky)), odd + " " + quirky);
+
+        List<String> none = new CopyOnWriteArrayList<>();
+        Map<String, Object> rejected = GeminiAnalyzer.analyzeUserHealthStreaming(metrics(), "Bad stream [status 400]", none::add).join();
+        check("streamed 400", String.valueOf(rejected.get("error")).contains("400") && none.isEmpty(), rejected);
+
+        List<String> cut = new CopyOnWriteArrayList<>();
+        Map<String, Object> late = GeminiAnalyzer.analyzeUserHealthStreaming(metrics(), "Slow stream [delay 300]", cut::add,
+                Duration.ofMillis(1000)).join();
+        int atDeadline = cut.size();
+        sleep(1000);
+        check("stream deadline", String.valueOf(late.get("error")).contains("No response within") && atDeadline > 0
+                && cut.size() == atDeadline, late + ", " + atDeadline + " partials then " + cut.size());
+    }
+
+    // One character per event: every partial must be a prefix of the decoded answer, so no piece
+    // of the fence, the key or a half-received escape ever shows
+    private static void checkStreamCuts() {
+        List<String> partials = new CopyOnWriteArrayList<>();
+        Map<String, Object> streamed = GeminiAnalyzer.analyzeUserHealthStreaming(metrics(), "Cut it [chunk 1]", partials::add).join();
+        boolean prefixes = true;
+        for (String p : partials) {
+            if (!ESCAPED_ANSWER.startsWith(p)) prefixes = false;
+        }
+        check("partial answers grow through escapes", prefixes && growing(partials), partials);
+        check("partial answer complete", ESCAPED_ANSWER.equals(last(partials)) && ESCAPED_ANSWER.equals(streamed.get("answer")),
+                streamed);
+
+        List<String> plain = new CopyOnWriteArrayList<>();
+        Map<String, Object> text = GeminiAnalyzer.analyzeUserHealthStreaming(metrics(), "Plain [plain] [chunk 1]", plain::add).join();
+        check("partial answer of plain text", PLAIN_TEXT.equals(last(plain)) && growing(plain)
+                && PLAIN_TEXT.equals(text.get("answer")), plain);
+    }
+
+    private static void checkRetries() {
+        CallGuard guard = new CallGuard(new TokenBucket(10, 100), new CircuitBreaker(5, Duration.ofSeconds(30)),
+                3, Duration.ofMillis(10), Duration.ofSeconds(5));
+        long start = System.nanoTime();
+        String waited = guard.call(attempt("retry-after/429,200"), Duration.ofSeconds(5)).join();
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        check("429 retried after Retry-After", "ok".equals(waited) && hits("retry-after/429,200") == 2 && millis >= 950,
+                millis + " ms, " + hits("retry-after/429,200") + " requests");
+
+        start = System.nanoTime();
+        Throwable tooLong = error(guard.call(attempt("long-wait/429@60,200"), Duration.ofSeconds(5)));
+        millis = (System.nanoTime() - start) / 1_000_000;
+        check("Retry-After past the cap fails at once", tooLong != null && tooLong.getMessage().contains("retry after 60 s")
+                && hits("long-wait/429@60,200") == 1 && millis < 900, tooLong + " after " + millis + " ms");
+
+        CompletableFuture<String> recovered = guard.call(attempt("recovers/503,503,200"), Duration.ofSeconds(5));
+        check("503 retried", "ok".equals(recovered.join()) && hits("recovers/503,503,200") == 3, guard.stats());
+
+        CompletableFuture<String> down = guard.call(attempt("down/503"), Duration.ofSeconds(5));
+        Throwable error = error(down);
+        check("503 given up after 3 attempts", error instanceof ApiStatusException
+                && ((ApiStatusException) error).getStatusCode() == 503 && hits("down/503") == 3, error);
+
+        // the same through GeminiAnalyzer's own guard
+        long retriesBefore = GeminiAnalyzer.resilienceStats().retries;
+        Map<String, Object> flaky = GeminiAnalyzer.analyzeUserHealthAsync(metrics(), "Flaky [flaky]").join();
+        check("analysis retried through 503s", ANSWER.equals(flaky.get("answer"))
+                && GeminiAnalyzer.resilienceStats().retries - retriesBefore == 2, flaky + ", " + GeminiAnalyzer.resilienceStats());
+    }
+
+    private static void checkBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker(2, Duration.ofMillis(400));
+        CallGuard guard = new CallGuard(new TokenBucket(10, 100), breaker, 1, Duration.ofMillis(10), Duration.ofSeconds(5));
+        for (int i = 0; i < 4; i++) error(guard.call(attempt("throttled/429@0"), Duration.ofSeconds(2)));
+        check("429s do not open the breaker", breaker.state() == CircuitBreaker.State.CLOSED
+                && breaker.consecutiveFailures() == 0 && hits("throttled/429@0") == 4, breaker.state());
+
+        String path = "breaker/503,503,503,200";
+        error(guard.call(attempt(path), Duration.ofSeconds(2)));
+        error(guard.call(attempt(path), Duration.ofSeconds(2)));
+        check("breaker opens after 2 failures", breaker.state() == CircuitBreaker.State.OPEN, breaker.state());
+
+        Throwable refused = error(guard.call(attempt(path), Duration.ofSeconds(2)));
+        check("open breaker refuses without a request", hits(path) == 2 && refused != null
+                && refused.getMessage().contains("unavailable"), refused);
+
+        sleep(450);
+        check("breaker half-open after the open period", breaker.state() == CircuitBreaker.State.HALF_OPEN, breaker.state());
+        error(guard.call(attempt(path), Duration.ofSeconds(2)));
+        check("failed probe reopens", breaker.state() == CircuitBreaker.State.OPEN && breaker.opens() == 2 && hits(path) == 3,
+                breaker.state() + ", opened " + breaker.opens() + " times");
+
+        sleep(450);
+        CompletableFuture<String> probe = guard.call(attempt(path), Duration.ofSeconds(2));
+        check("successful probe closes", "ok".equals(probe.join()) && breaker.state() == CircuitBreaker.State.CLOSED
+                && breaker.consecutiveFailures() == 0, breaker.state());
+    }
+
+    private static void checkLimiter() {
+        // one request per second, no burst
+        CallGuard guard = new CallGuard(new TokenBucket(1, 1), new CircuitBreaker(5, Duration.ofSeconds(30)),
+                1, Duration.ofMillis(10), Duration.ofSeconds(5));
+        String path = "limited/200";
+        guard.call(attempt(path), Duration.ofSeconds(2)).join();
+        Throwable refused = error(guard.call(attempt(path), Duration.ofMillis(200)));
+        check("limiter refuses when no slot comes before the deadline", hits(path) == 1 && refused != null
+                && refused.getMessage().contains("Rate limit reached") && guard.stats().rateLimited == 1, refused);
+
+        long start = System.nanoTime();
+        String waited = guard.call(attempt(path), Duration.ofSeconds(3)).join();
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        check("limiter waits for a slot within the deadline", "ok".equals(waited) && millis >= 500 && hits(path) == 2
+                && guard.stats().throttled == 1, millis + " ms, " + guard.stats());
+    }
+
+    // One attempt against a fault path, failing the way the client does on a bad status
+    private static Function<Duration, CompletableFuture<String>> attempt(String path) {
+        return remaining -> client.sendAsync(HttpRequest.newBuilder(URI.create(faultBase + path)).timeout(remaining).build(),
+                HttpResponse.BodyHandlers.ofString())
+                .thenApply(response -> {
+                    if (response.statusCode() != 200) {
+                        Duration retryAfter = response.headers().firstValue("Retry-After")
+                                .map(s -> Duration.ofSeconds(Long.parseLong(s.trim()))).orElse(null);
+                        throw new CompletionException(new ApiStatusException(response.statusCode(), retryAfter));
+                    }
+                    return response.body();
+                });
+    }
+
+    // The error a future failed with, or null if it succeeded
+    private static Throwable error(CompletableFuture<?> f) {
+        try {
+            f.join();
+            return null;
+        } catch (CompletionException e) {
+            return e.getCause();
+        }
+    }
+
+    private static int hits(String key) {
+        AtomicInteger n = hits.get(key);
+        return n == null ? 0 : n.get();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // /fault/<name>/<status>,<status>,...: the nth request gets the nth status, the last one repeats.
+    // A 429 asks for a 1 s wait, or N s when written 429@N.
+    private static void fault(HttpExchange ex) throws IOException {
+        String key = ex.getRequestURI().getPath().substring("/fault/".length());
+        int n = hits.computeIfAbsent(key, k -> new AtomicInteger()).getAndIncrement();
+        String[] script = key.substring(key.lastIndexOf('/') + 1).split(",");
+        String[] step = script[Math.min(n, script.length - 1)].split("@");
+        int status = Integer.parseInt(step[0]);
+        if (status == 429) ex.getResponseHeaders().add("Retry-After", step.length > 1 ? step[1] : "1");
+        respond(ex, status, status == 200 ? "ok" : "{\"error\":{\"code\":" + status + "}}");
+    }
+
+    // generateContent: answers in a fenced JSON object unless the question asks otherwise
+    private static void generate(HttpExchange ex) throws IOException {
+        generateCalls.incrementAndGet();
+        String prompt = prompt(ex);
+        pause(prompt);
+        if (prompt.contains("[status 400]")) {
+            respond(ex, 400, "{\"error\":{\"code\":400}}");
+        } else if (prompt.contains("[flaky]") && hits.computeIfAbsent(prompt, k -> new AtomicInteger()).getAndIncrement() < 2) {
+            respond(ex, 503, "{\"error\":{\"code\":503}}");
+        } else if (prompt.contains("[garbled]")) {
+            respond(ex, 200, "<html>not json</html>");
+        } else {
+            respond(ex, 200, gson.toJson(chunk(analysisText(ANSWER))));
+        }
+    }
+
+    // streamGenerateContent: the escaped analysis (or "[plain]" text) in "[chunk N]"-character
+    // events (7 by default), "[delay N]" ms apart; "[quirks]" sends the lines of quirkyStream()
+    private static void stream(HttpExchange ex) throws IOException {
+        String prompt = prompt(ex);
+        if (!ex.getRequestURI().getQuery().contains("alt=sse")) throw new IOException("Stream request without alt=sse");
+        if (prompt.contains("[status 400]")) {
+            respond(ex, 400, "{\"error\":{\"code\":400}}");
+            return;
+        }
+        String text = prompt.contains("[plain]") ? PLAIN_TEXT : ESCAPED_TEXT;
+        int size = prompt.contains("[chunk ") ? (int) marker(prompt, "[chunk ") : 7;
+        ex.getResponseHeaders().add("Content-Type", "text/event-stream");
+        ex.sendResponseHeaders(200, 0);
+        try (OutputStream os = ex.getResponseBody()) {
+            if (prompt.contains("[quirks]")) {
+                os.write(String.join("\n", quirkyStream(text)).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            for (int i = 0; i < text.length(); i += size) {
+                pause(prompt);
+                String piece = text.substring(i, Math.min(text.length(), i + size));
+                os.write(("data: " + gson.toJson(chunk(piece)) + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+                os.flush();
+            }
+        } catch (IOException e) {
+            // the client hung up (deadline checks)
+        }
+    }
+
+    // One event per 5 characters, with the quirks the event-stream format allows: comments, other
+    // fields, data split over two lines, no space after the colon, a metadata-only event, and no
+    // blank line after the last event
+    static List<String> quirkyStream(String text) {
+        List<String> lines = new ArrayList<>();
+        lines.add(": keep-alive");
+        for (int i = 0; i < text.length(); i += 5) {
+            String json = gson.toJson(chunk(text.substring(i, Math.min(text.length(), i + 5))));
+            if (i % 3 == 0) lines.add("event: message");
+            if (i % 2 == 0) {
+                int split = json.indexOf('[');
+                lines.add("data: " + json.substring(0, split));
+                lines.add("data: " + json.substring(split));
+            } else {
+                lines.add("data:" + json);
+            }
+            lines.add("");
+        }
+        lines.add("data: {\"usageMetadata\":{\"totalTokenCount\":5}}");
+        return lines;
+    }
+
+    // Text the model would return: the analysis as JSON inside a code fence
+    static String analysisText(String answer) {
+        Map<String, Object> analysis = new HashMap<>();
+        analysis.put("answer", answer);
+        analysis.put("insights", List.of("Steady intake"));
+        analysis.put("recommendations", List.of("Keep it up"));
+        analysis.put("confidence", 0.9);
+        return "```json\n" + gson.toJson(analysis) + "\n```";
+    }
+
+    // A generateContent response carrying text as the first candidate's only part
+    static Map<String, Object> chunk(String text) {
+        Map<String, Object> content = new HashMap<>();
+        content.put("parts", List.of(Map.of("text", text)));
+        content.put("role", "model");
+        return Map.of("candidates", List.of(Map.of("content", content)));
+    }
+
+    // The prompt text of a request, after checking the request is well formed
+    @SuppressWarnings("unchecked")
+    static String prompt(HttpExchange ex) throws IOException {
+        String body = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        String query = ex.getRequestURI().getQuery();
+        if (query == null || !query.contains("key=")) throw new IOException("Request without an API key");
+        Map<String, Object> request = gson.fromJson(body, Map.class);
+        List<Map<String, Object>> contents = (List<Map<String, Object>>) request.get("contents");
+        List<Map<String, Object>> parts = (List<Map<String, Object>>) contents.get(0).get("parts");
+        return String.valueOf(parts.get(0).get("text"));
+    }
+
+    // The number in a "[name N]" marker
+    static long marker(String prompt, String name) {
+        int at = prompt.indexOf(name);
+        return Long.parseLong(prompt.substring(at + name.length(), prompt.indexOf(']', at)));
+    }
+
+    // "[delay N]" in the prompt: wait N ms before answering
+    static void pause(String prompt) {
+        if (prompt.contains("[delay ")) sleep(marker(prompt, "[delay "));
+    }
+
+    static void respond(HttpExchange ex, int status, String body) throws IOException {
+        byte[] out = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().add("Content-Type", "application/json");
+        ex.sendResponseHeaders(status, out.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(out);
+        }
+    }
+
+    // Fresh metrics for every call, so no answer comes from the cache
+    static Map<String, Object> metrics() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("check_run", System.nanoTime());
+        return m;
+    }
+
+    // Each partial answer extends the one before
+    static boolean growing(List<String> partials) {
+        for (int i = 1; i < partials.size(); i++) {
+            if (!partials.get(i).startsWith(partials.get(i - 1)) || partials.get(i).equals(partials.get(i - 1))) return false;
+        }
+        return !partials.isEmpty();
+    }
+
+    static String last(List<String> partials) {
+        return partials.isEmpty() ? null : partials.get(partials.size() - 1);
+    }
+
+    static void check(String name, boolean passed, Object detail) {
+        if (passed) {
+            System.out.println("ok    " + name);
+        } else {
+            failures++;
+            System.out.println("FAIL  " + name + ": " + detail);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package fitlife.data;
+
+import java.util.Random;
+
+/**
+ * Rough timing of {@link FoodSearchIndex} on a synthetic catalog: build, prefix completion and
+ * fuzzy lookup. Kept out of the app; build with test.bat and run
+ * {@code java -cp "test-bin;bin;lib\*" fitlife.data.FoodSearchIndexBench [entries]}.
+ */
+public class FoodSearchIndexBench {
+
+    public static void main(String[] args) {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 300_000;
+        Random rnd = new Random(42);
+        // pseudo-words from random syllables give a realistic spread of trigrams
+        String[] syllables = {"ba", "na", "ri", "ce", "chi", "ken", "to", "fu", "ma", "go", "pa", "sta", "be",
+            "ef", "so", "up", "ro", "ll", "ch", "ee", "se", "mi", "lk", "co", "rn", "bu", "tt", "er", "oa", "ts"};
+        String[] words = new String[3000];
+        for (int i = 0; i < words.length; i++) {
+            StringBuilder w = new StringBuilder();
+            for (int k = 2 + rnd.nextInt(3); k > 0; k--) w.append(syllables[rnd.nextInt(syllables.length)]);
+            words[i] = w.toString();
+        }
+        FoodSearchIndex index = new FoodSearchIndex();
+        long t0 = System.nanoTime();
+        while (index.size() < entries) {
+            index.add(words[rnd.nextInt(words.length)] + " " + words[rnd.nextInt(words.length)]
+                    + (rnd.nextBoolean() ? "" : " " + words[rnd.nextInt(words.length)]));
+        }
+        System.out.printf("Indexed %d names in %d ms%n", index.size(), (System.nanoTime() - t0) / 1_000_000);
+
+        String[] prefixes = {"b", words[0].substring(0, 3), words[1], words[2] + " " + words[3].charAt(0)};
+        String[] typos = new String[4];
+        for (int i = 0; i < typos.length; i++) {
+            // drop one letter from a random indexed name
+            String name = index.complete(words[rnd.nextInt(words.length)], 1).get(0);
+            int cut = rnd.nextInt(name.length());
+            typos[i] = name.substring(0, cut) + name.substring(cut + 1);
+        }
+        for (int round = 0; round < 2; round++) {
+            // first round warms up the JIT
+            int ops = 20_000;
+            long t = System.nanoTime();
+            for (int i = 0; i < ops; i++) index.complete(prefixes[i % prefixes.length], 10);
+            long prefixNs = (System.nanoTime() - t) / ops;
+            t = System.nanoTime();
+            for (int i = 0; i < ops / 10; i++) index.fuzzy(typos[i % typos.length], 2, 5);
+            long fuzzyNs = (System.nanoTime() - t) / (ops / 10);
+            if (round == 1) {
+                System.out.printf("complete(): %.1f us/op, fuzzy(): %.1f us/op%n", prefixNs / 1000.0, fuzzyNs / 1000.0);
+            }
+        }
+        System.out.println("complete(\"" + prefixes[1] + "\") -> " + index.complete(prefixes[1], 3));
+        System.out.println("fuzzy(\"" + typos[0] + "\") -> " + index.fuzzy(typos[0], 2, 3));
+    }
+}